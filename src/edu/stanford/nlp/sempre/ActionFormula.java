@@ -110,6 +110,8 @@ public class ActionFormula extends Formula {
   @SuppressWarnings({ "equalshashcode" })
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof ActionFormula))
       return false;
     ActionFormula that = (ActionFormula) thatObj;
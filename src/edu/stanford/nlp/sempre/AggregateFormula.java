@@ -58,6 +58,8 @@ public class AggregateFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof AggregateFormula)) return false;
     AggregateFormula that = (AggregateFormula) thatObj;
     if (!this.mode.equals(that.mode)) return false;
@@ -74,6 +74,8 @@ public class ArithmeticFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof ArithmeticFormula)) return false;
     ArithmeticFormula that = (ArithmeticFormula) thatObj;
     if (this.mode != that.mode) return false;
@@ -0,0 +1,59 @@
+package edu.stanford.nlp.sempre;
+
+import fig.basic.IOUtils;
+import fig.basic.LogInfo;
+
+import java.io.PrintWriter;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Appends lines to a file from a background thread, so that the callers
+ * never wait on disk I/O. The file is kept open and flushed whenever
+ * the queue of pending lines becomes empty.
+ */
+public class AsyncLogAppender {
+  private static final String END = new String("END");  // Sentinel (compared by identity)
+
+  public final String path;
+  private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+  private final Thread thread;
+
+  public AsyncLogAppender(String path) {
+    this.path = path;
+    final PrintWriter out = IOUtils.openOutAppendHard(path);
+    this.thread = new Thread(() -> {
+      try {
+        while (true) {
+          String line = queue.take();
+          while (line != null && line != END) {
+            out.println(line);
+            line = queue.poll();
+          }
+          out.flush();
+          if (line == END) break;
+        }
+      } catch (InterruptedException e) {
+        LogInfo.errors("AsyncLogAppender(%s) interrupted", path);
+      } finally {
+        out.close();
+      }
+    }, "AsyncLogAppender");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  public void append(String line) {
+    queue.add(line);
+  }
+
+  // Write all pending lines and close the file.
+  public void close() {
+    queue.add(END);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -5,20 +5,22 @@ import fig.basic.LispTree;
 // Represents an atomic type (strings, entities, numbers, dates, etc.).
 public class AtomicSemType extends SemType {
   public final String name;
+  public final SemTypeHierarchy.TypeNode node;  // Interned name in the type hierarchy
   public AtomicSemType(String name) {
     if (name == null) throw new RuntimeException("Null name");
     this.name = name;
+    this.node = SemTypeHierarchy.singleton.getNode(name);
   }
   public boolean isValid() { return true; }
   public SemType meet(SemType that) {
     if (that instanceof TopSemType) return this;
     if (that instanceof UnionSemType) return that.meet(this);
     if (that instanceof AtomicSemType) {
-      String name1 = this.name;
-      String name2 = ((AtomicSemType) that).name;
-      if (name1.equals(name2)) return this;  // Shortcut: the same
-      if (SemTypeHierarchy.singleton.getSupertypes(name1).contains(name2)) return this;
-      if (SemTypeHierarchy.singleton.getSupertypes(name2).contains(name1)) return that;
+      SemTypeHierarchy.TypeNode node1 = this.node;
+      SemTypeHierarchy.TypeNode node2 = ((AtomicSemType) that).node;
+      if (node1 == node2) return this;  // Shortcut: the same
+      if (SemTypeHierarchy.singleton.isSupertype(node1, node2)) return this;
+      if (SemTypeHierarchy.singleton.isSupertype(node2, node1)) return that;
       return SemType.bottomType;
     }
     return SemType.bottomType;
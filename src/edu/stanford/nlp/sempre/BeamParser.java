@@ -21,6 +21,10 @@ import java.util.*;
 public class BeamParser extends Parser {
   public static class Options {
     @Option public int maxNewTreesPerSpan = Integer.MAX_VALUE;
+    @Option(gloss = "Apply rules to the best child derivations first, and only featurize the top candidates of each cell")
+    public boolean cubePruning = false;
+    @Option(gloss = "(for cubePruning) Featurize at most cubePruningSlack * beamSize new derivations per cell")
+    public double cubePruningSlack = 2;
   }
   public static Options opts = new Options();
 
@@ -120,7 +124,10 @@ class BeamParserState extends ChartParserState {
 
   // Create all the derivations for the span [start, end).
   protected void build(int start, int end) {
-    applyNonCatUnaryRules(start, end, start, parser.trie, new ArrayList<Derivation>(), new IntRef(0));
+    if (BeamParser.opts.cubePruning && mode == Mode.full)
+      applyNonCatUnaryRulesWithCubePruning(start, end);
+    else
+      applyNonCatUnaryRules(start, end, start, parser.trie, new ArrayList<Derivation>(), new IntRef(0));
 
     Set<String> cellsPruned = new HashSet<>();
     applyCatUnaryRules(start, end, cellsPruned);
@@ -145,6 +152,7 @@ class BeamParserState extends ChartParserState {
         while (results.hasNext()) {
           Derivation newDeriv = results.next();
           featurizeAndScoreDerivation(newDeriv);
+          if (BeamParser.opts.cubePruning) updateRuleScoreBound(rule, newDeriv);
           addToChart(newDeriv);
         }
         return results.estimatedSize();
@@ -249,6 +257,142 @@ class BeamParserState extends ChartParserState {
     }
   }
 
+  // -- Cube pruning --
+
+  // Rule applied on a sequence of child cells.
+  // The child cells have smaller spans, so they are already pruned and sorted by score.
+  private static class Cube {
+    final Rule rule;
+    final List<List<Derivation>> childCells;
+    final Set<List<Integer>> visited = new HashSet<>();
+
+    Cube(Rule rule, List<List<Derivation>> childCells) {
+      this.rule = rule;
+      this.childCells = childCells;
+    }
+
+    List<Derivation> getChildren(int[] indices) {
+      List<Derivation> children = new ArrayList<>();
+      for (int k = 0; k < indices.length; k++)
+        children.add(childCells.get(k).get(indices[k]));
+      return children;
+    }
+  }
+
+  // Choice of child derivations (indices into the child cells) for a cube
+  private static class CubeCandidate {
+    final Cube cube;
+    final int[] indices;
+    final double estimatedScore;
+    final int id;     // For deterministic tie-breaking
+
+    CubeCandidate(Cube cube, int[] indices, double estimatedScore, int id) {
+      this.cube = cube;
+      this.indices = indices;
+      this.estimatedScore = estimatedScore;
+      this.id = id;
+    }
+  }
+
+  // rule => highest local score (score minus children's scores) of the derivations built with the rule so far
+  private final Map<Rule, Double> ruleScoreBounds = new HashMap<>();
+  private int numCubeCandidates = 0;
+
+  private void updateRuleScoreBound(Rule rule, Derivation deriv) {
+    double localScore = deriv.score;
+    if (deriv.children != null)
+      for (Derivation child : deriv.children)
+        localScore -= child.score;
+    Double bound = ruleScoreBounds.get(rule);
+    if (bound == null || bound < localScore)
+      ruleScoreBounds.put(rule, localScore);
+  }
+
+  // Rules that have not been applied yet get an optimistic bound, so each cube is tried at least once.
+  private double getRuleScoreBound(Rule rule) {
+    Double bound = ruleScoreBounds.get(rule);
+    return bound == null ? Double.POSITIVE_INFINITY : bound;
+  }
+
+  private void pushCubeCandidate(java.util.PriorityQueue<CubeCandidate> queue, Cube cube, int[] indices) {
+    List<Integer> key = new ArrayList<>();
+    for (int index : indices) key.add(index);
+    if (!cube.visited.add(key)) return;
+    double estimatedScore = getRuleScoreBound(cube.rule);
+    for (int k = 0; k < indices.length; k++)
+      estimatedScore += cube.childCells.get(k).get(indices[k]).score;
+    queue.add(new CubeCandidate(cube, indices, estimatedScore, numCubeCandidates++));
+  }
+
+  // Same as applyNonCatUnaryRules, but instead of applying the rules on all combinations
+  // of child derivations, the combinations are enumerated in (approximately) best-first order
+  // based on the children's scores and the rule's score bound.
+  // Once a cell has received cubePruningSlack * beamSize new derivations, the remaining
+  // combinations for that cell are not featurized at all.
+  private void applyNonCatUnaryRulesWithCubePruning(int start, int end) {
+    List<Cube> cubes = new ArrayList<>();
+    collectCubes(start, end, start, parser.trie, new ArrayList<>(), cubes);
+
+    java.util.PriorityQueue<CubeCandidate> queue = new java.util.PriorityQueue<>(Math.max(1, cubes.size()), (c1, c2) -> {
+      int cmp = Double.compare(c2.estimatedScore, c1.estimatedScore);
+      return cmp != 0 ? cmp : Integer.compare(c1.id, c2.id);
+    });
+    for (Cube cube : cubes)
+      pushCubeCandidate(queue, cube, new int[cube.childCells.size()]);
+
+    int maxNewPerCell = (int) Math.ceil(BeamParser.opts.cubePruningSlack * getBeamSize());
+    Map<String, Integer> numNewPerCell = new HashMap<>();
+    int numNew = 0;
+    while (!queue.isEmpty() && numNew < BeamParser.opts.maxNewTreesPerSpan) {
+      CubeCandidate candidate = queue.poll();
+      Cube cube = candidate.cube;
+      int numNewInCell = numNewPerCell.getOrDefault(cube.rule.lhs, 0);
+      if (numNewInCell >= maxNewPerCell) continue;   // The cell is full; drop the rest of the cube
+
+      int numFeaturizedBefore = numOfFeaturizedDerivs;
+      applyRule(start, end, cube.rule, cube.getChildren(candidate.indices));
+      int numCreated = numOfFeaturizedDerivs - numFeaturizedBefore;
+      numNewPerCell.put(cube.rule.lhs, numNewInCell + numCreated);
+      numNew += numCreated;
+
+      // Neighbors: move one step down in one of the child cells
+      for (int k = 0; k < candidate.indices.length; k++) {
+        if (candidate.indices[k] + 1 >= cube.childCells.get(k).size()) continue;
+        int[] next = candidate.indices.clone();
+        next[k]++;
+        pushCubeCandidate(queue, cube, next);
+      }
+    }
+  }
+
+  // Walk along the span as in applyNonCatUnaryRules, but collect the child cells instead of the child derivations.
+  private void collectCubes(int start, int end, int i, Trie node,
+      List<List<Derivation>> childCells, List<Cube> cubes) {
+    if (node == null) return;
+    if (!coarseAllows(node, start, end)) return;
+
+    if (i == end) {
+      for (Rule rule : node.rules) {
+        if (coarseAllows(rule.lhs, start, end))
+          cubes.add(new Cube(rule, new ArrayList<>(childCells)));
+      }
+      return;
+    }
+
+    // Advance terminal token
+    collectCubes(start, end, i + 1, node.next(ex.token(i)), childCells, cubes);
+
+    // Advance non-terminal category
+    for (int j = i + 1; j <= end; j++) {
+      for (Map.Entry<String, List<Derivation>> entry : chart[i][j].entrySet()) {
+        if (entry.getValue().isEmpty()) continue;
+        childCells.add(entry.getValue());
+        collectCubes(start, end, j, node.next(entry.getKey()), childCells, cubes);
+        childCells.remove(childCells.size() - 1);
+      }
+    }
+  }
+
   // -- Coarse state pruning --
 
   // Remove any (cat, start, end) which isn't reachable from the
@@ -0,0 +1,84 @@
+package edu.stanford.nlp.sempre;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.stanford.nlp.sempre.LanguageInfo.DependencyEdge;
+import edu.stanford.nlp.sempre.cache.StringCache;
+import edu.stanford.nlp.sempre.cache.StringCacheUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps another LanguageAnalyzer and caches its output.
+ *
+ * There are two tiers:
+ * - an in-memory LRU cache of LanguageInfo objects, and
+ * - a StringCache (a file or a cache server) mapping the key to the JSON of the LanguageInfo,
+ *   which is shared across runs. It is only opened when the first utterance is analyzed.
+ *
+ * The key contains the utterance and the settings of the base analyzer (see LanguageAnalyzer.getCacheKey),
+ * so a cache file can be shared by runs with different settings.
+ */
+public class CachingLanguageAnalyzer extends LanguageAnalyzer {
+  private final LanguageAnalyzer base;
+  private final String cachePath;
+  private final Cache<String, LanguageInfo> memoryCache;
+  private StringCache diskCache;
+
+  public CachingLanguageAnalyzer(LanguageAnalyzer base, String cachePath, int memoryCacheSize) {
+    this.base = base;
+    this.cachePath = cachePath;
+    this.memoryCache = CacheBuilder.newBuilder().maximumSize(memoryCacheSize).build();
+  }
+
+  public LanguageAnalyzer getBase() { return base; }
+
+  @Override
+  public String getCacheKey() { return base.getCacheKey(); }
+
+  private synchronized StringCache getDiskCache() {
+    if (diskCache == null)
+      diskCache = StringCacheUtils.create(cachePath);
+    return diskCache;
+  }
+
+  @Override
+  public LanguageInfo analyze(String utterance) {
+    // Encode as a JSON string so that the key has no tabs or newlines
+    String key = Json.writeValueAsStringHard(base.getCacheKey() + "\t" + utterance);
+    LanguageInfo languageInfo = memoryCache.getIfPresent(key);
+    if (languageInfo == null) {
+      StringCache disk = getDiskCache();
+      String json;
+      synchronized (disk) {
+        json = disk.get(key);
+      }
+      if (json != null) {
+        languageInfo = Json.readValueHard(json, LanguageInfo.class);
+      } else {
+        languageInfo = base.analyze(utterance);
+        json = Json.writeValueAsStringHard(languageInfo);
+        synchronized (disk) {
+          disk.put(key, json);
+        }
+      }
+      memoryCache.put(key, languageInfo);
+    }
+    // Callers may modify the LanguageInfo, so never hand out the cached object.
+    return copy(languageInfo);
+  }
+
+  private static LanguageInfo copy(LanguageInfo info) {
+    List<List<DependencyEdge>> dependencyChildren = new ArrayList<>();
+    for (List<DependencyEdge> edges : info.dependencyChildren)
+      dependencyChildren.add(new ArrayList<>(edges));
+    return new LanguageInfo(
+        new ArrayList<>(info.tokens),
+        new ArrayList<>(info.lemmaTokens),
+        new ArrayList<>(info.posTags),
+        new ArrayList<>(info.nerTags),
+        new ArrayList<>(info.nerValues),
+        dependencyChildren);
+  }
+}
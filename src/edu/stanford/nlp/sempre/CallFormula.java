@@ -69,6 +69,8 @@ public class CallFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof CallFormula)) return false;
     CallFormula that = (CallFormula) thatObj;
     if (!this.func.equals(that.func)) return false;
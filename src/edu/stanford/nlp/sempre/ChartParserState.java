@@ -24,7 +24,7 @@ public abstract class ChartParserState extends ParserState {
   // For visualizing how chart is filled
   protected List<CatSpan> chartFillingList = new ArrayList<>();
 
-  protected String[][] phrases; // the phrases in the example
+  protected String[][] phrases; // the phrases in the example (shared with LanguageInfo; do not modify)
 
   @SuppressWarnings({ "unchecked" })
   public ChartParserState(Parser parser, Params params, Example ex, boolean computeExpectedCounts) {
@@ -33,18 +33,11 @@ public abstract class ChartParserState extends ParserState {
     // Initialize the chart.
     this.chart = (HashMap<String, List<Derivation>>[][])
         Array.newInstance(HashMap.class, numTokens, numTokens + 1);
-    this.phrases = new String[numTokens][numTokens + 1];
+    this.phrases = this.ex.languageInfo.getPhraseTable();
 
-    for (int start = 0; start < numTokens; start++) {
-      StringBuilder sb = new StringBuilder();
-      for (int end = start + 1; end <= numTokens; end++) {
-        if (end - start > 1)
-          sb.append(' ');
-        sb.append(this.ex.languageInfo.tokens.get(end - 1));
-        phrases[start][end] = sb.toString();
+    for (int start = 0; start < numTokens; start++)
+      for (int end = start + 1; end <= numTokens; end++)
         chart[start][end] = new HashMap<>();
-      }
-    }
   }
 
   public void clearChart() {
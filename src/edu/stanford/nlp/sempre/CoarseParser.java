@@ -92,18 +92,11 @@ public class CoarseParser {
           Array.newInstance(
               HashMap.class,
               numTokens, numTokens + 1);
-      phrases = new String[numTokens][numTokens + 1];
+      phrases = example.languageInfo.getPhraseTable();
 
-      for (int start = 0; start < numTokens; start++) {
-        StringBuilder sb = new StringBuilder();
-        for (int end = start + 1; end <= numTokens; end++) {
-          if (end - start > 1)
-            sb.append(' ');
-          sb.append(example.languageInfo.tokens.get(end - 1));
-          phrases[start][end] = sb.toString();
+      for (int start = 0; start < numTokens; start++)
+        for (int end = start + 1; end <= numTokens; end++)
           chart[start][end] = new HashMap<>();
-        }
-      }
     }
 
     public long getCoarseParseTime() { return time; }
@@ -11,6 +11,7 @@ import fig.prob.SampleUtils;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * A dataset contains a set of examples, which are keyed by group (e.g., train,
@@ -41,6 +42,16 @@ public class Dataset {
 
     @Option(gloss = "Path to a knowledge graph that will be uploaded as global context")
     public String globalGraphPath;
+
+    @Option(gloss = "Number of threads for running the language analyzer on the examples")
+    public int numPreprocessThreads = 1;
+    @Option(gloss = "Number of examples to analyze at a time when numPreprocessThreads > 1")
+    public int preprocessBatchSize = 256;
+
+    @Option(gloss = "Read examples from JSON files lazily when they are used instead of loading them into memory")
+    public boolean streamJson = false;
+    @Option(gloss = "When streaming, number of examples to read and analyze ahead on a background thread (0 to disable)")
+    public int streamLookahead = 0;
   }
 
   public static Options opts = new Options();
@@ -116,6 +127,10 @@ public class Dataset {
 
 
   private void readJsonFromPathPairs(List<Pair<String, String>> pathPairs) {
+    if (opts.streamJson) {
+      streamJsonFromPathPairs(pathPairs);
+      return;
+    }
     List<GroupInfo> groups = Lists.newArrayListWithCapacity(pathPairs.size());
     for (Pair<String, String> pathPair : pathPairs) {
       String group = pathPair.getFirst();
@@ -130,6 +145,25 @@ public class Dataset {
     readFromGroupInfos(groups);
   }
 
+  // Examples are not read until they are used, so they are not split, filtered, or counted.
+  private void streamJsonFromPathPairs(List<Pair<String, String>> pathPairs) {
+    LogInfo.begin_track_printAll("Dataset.read");
+    if (opts.trainFrac != 1 || opts.devFrac != 0)
+      LogInfo.warnings("Dataset.opts.trainFrac and devFrac are ignored when streaming");
+    if (opts.maxTokens != Integer.MAX_VALUE)
+      LogInfo.warnings("Dataset.opts.maxTokens is ignored when streaming");
+    Map<String, List<String>> groupPaths = new LinkedHashMap<>();
+    for (Pair<String, String> pathPair : pathPairs)
+      MapUtils.addToList(groupPaths, pathPair.getFirst(), pathPair.getSecond());
+    for (Map.Entry<String, List<String>> entry : groupPaths.entrySet()) {
+      String group = entry.getKey();
+      List<Example> examples = new StreamingExampleList(entry.getValue(), getMaxExamplesForGroup(group), opts.streamLookahead);
+      allExamples.put(group, examples);
+      Execution.putLogRec("numExamples." + group, examples.size());
+    }
+    LogInfo.end_track();
+  }
+
   private void readFromGroupInfos(List<GroupInfo> groupInfos) {
     LogInfo.begin_track_printAll("Dataset.read");
 
@@ -182,6 +216,7 @@ public class Dataset {
       return;
 
     int i = 0;
+    List<Example> batch = new ArrayList<>();
     for (Example ex : incoming) {
       if (examples.size() >= maxExamples) break;
 
@@ -190,18 +225,11 @@ public class Dataset {
         ex = new Example.Builder().withExample(ex).setId(id).createExample();
       }
       i++;
-      ex.preprocess();
-
-      // Skip example if too long
-      if (ex.numTokens() > opts.maxTokens) continue;
-
-      LogInfo.logs("Example %s (%d): %s => %s",
-          ex.id, examples.size(), ex.getTokens(), ex.targetValue);
-
-      examples.add(ex);
-      numTokensFig.add(ex.numTokens());
-      for (String token : ex.getTokens()) tokenTypes.add(token);
+      batch.add(ex);
+      if (batch.size() >= getPreprocessBatchSize())
+        preprocessAndAdd(batch, maxExamples, examples);
     }
+    preprocessAndAdd(batch, maxExamples, examples);
   }
 
   private void readLispTreeFromPathPairs(List<Pair<String, String>> pathPairs) {
@@ -225,6 +253,7 @@ public class Dataset {
 
     Iterator<LispTree> trees = LispTree.proto.parseFromFile(path);
     int n = 0;
+    List<Example> batch = new ArrayList<>();
     while (examples.size() < maxExamples && trees.hasNext()) {
       // Format: (example (id ...) (utterance ...) (targetFormula ...) (targetValue ...))
       LispTree tree = trees.next();
@@ -235,7 +264,27 @@ public class Dataset {
 
       Example ex = Example.fromLispTree(tree, path + ":" + n);  // Specify a default id if it doesn't exist
       n++;
-      ex.preprocess();
+      batch.add(ex);
+      if (batch.size() >= getPreprocessBatchSize())
+        preprocessAndAdd(batch, maxExamples, examples);
+    }
+    preprocessAndAdd(batch, maxExamples, examples);
+    LogInfo.end_track();
+  }
+
+  // ============================================================
+  // Preprocessing
+  // ============================================================
+
+  private static int getPreprocessBatchSize() {
+    return opts.numPreprocessThreads > 1 ? Math.max(opts.preprocessBatchSize, 1) : 1;
+  }
+
+  // Preprocess the examples in |batch|, add them to |examples| in order, and clear |batch|.
+  private void preprocessAndAdd(List<Example> batch, int maxExamples, List<Example> examples) {
+    preprocess(batch);
+    for (Example ex : batch) {
+      if (examples.size() >= maxExamples) break;
 
       // Skip example if too long
       if (ex.numTokens() > opts.maxTokens) continue;
@@ -246,7 +295,35 @@ public class Dataset {
       numTokensFig.add(ex.numTokens());
       for (String token : ex.getTokens()) tokenTypes.add(token);
     }
-    LogInfo.end_track();
+    batch.clear();
+  }
+
+  /**
+   * Preprocess the examples, running the language analyzer with opts.numPreprocessThreads threads.
+   * The rest of the preprocessing (e.g., the target value) is done in order on the calling thread,
+   * so the results are the same as calling Example.preprocess on each example.
+   */
+  public static void preprocess(List<Example> examples) {
+    if (opts.numPreprocessThreads <= 1 || examples.size() <= 1) {
+      for (Example ex : examples)
+        ex.preprocess();
+      return;
+    }
+    final LanguageAnalyzer analyzer = LanguageAnalyzer.getSingleton();
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(opts.numPreprocessThreads, examples.size()));
+    try {
+      List<Future<LanguageInfo>> results = new ArrayList<>();
+      for (final Example ex : examples)
+        results.add(pool.submit(() -> analyzer.analyze(ex.utterance)));
+      for (int i = 0; i < examples.size(); i++)
+        examples.get(i).preprocess(results.get(i).get());
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
   }
 
   private void collectStats() {
@@ -268,7 +345,10 @@ public class Dataset {
 
   public static void appendExampleToFile(String path, Example ex) {
     // JSON is an annoying format because we can't just append.
-    // So currently we have to read the entire file in and write it out.
+    // Insert the example before the closing bracket of the array if possible;
+    // otherwise read the entire file in and write it out.
+    if (new File(path).exists() && insertBeforeClosingBracket(path, Json.prettyWriteValueAsStringHard(ex)))
+      return;
     List<Example> examples;
     if (new File(path).exists()) {
       examples = Json.readValueHard(
@@ -280,4 +360,32 @@ public class Dataset {
     examples.add(ex);
     Json.prettyWriteValueHard(new File(path), examples);
   }
+
+  // Insert |json| as the last element of the JSON array in |path| (the array must end the file).
+  // Return false if the file does not end with an array.
+  private static boolean insertBeforeClosingBracket(String path, String json) {
+    try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+      long end = lastNonWhitespace(file, file.length() - 1);
+      if (end < 0 || readByte(file, end) != ']') return false;
+      long prev = lastNonWhitespace(file, end - 1);
+      if (prev < 0) return false;
+      boolean empty = readByte(file, prev) == '[';
+      file.seek(prev + 1);
+      file.setLength(prev + 1);
+      file.write(((empty ? " " : ", ") + json + " ]").getBytes("UTF-8"));
+      return true;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static int readByte(RandomAccessFile file, long pos) throws IOException {
+    file.seek(pos);
+    return file.read();
+  }
+
+  private static long lastNonWhitespace(RandomAccessFile file, long pos) throws IOException {
+    while (pos >= 0 && Character.isWhitespace(readByte(file, pos))) pos--;
+    return pos;
+  }
 }
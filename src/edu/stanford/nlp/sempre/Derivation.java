@@ -2,6 +2,10 @@ package edu.stanford.nlp.sempre;
 
 import java.util.*;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 import fig.basic.*;
 
 /**
@@ -53,21 +57,27 @@ public class Derivation implements SemanticFn.Callable, HasScore {
   * Information for grammar induction.
   * For each descendant derivation of the body, this class tracks where and what in the head it matches
   * GrammarInfo.start, GrammarInfo.end refer to matching positions in the head, as opposed to the body
+  * Allocated on first use (most derivations never need it).
   * @author sidaw
   **/
-  public class GrammarInfo {
+  public static class GrammarInfo {
     public boolean anchored = false;
     public boolean matched = false;
     public int start = -1, end = -1;
     public Formula formula;
     public List<Derivation> matches = new ArrayList<>();
   }
-  public GrammarInfo grammarInfo = new GrammarInfo();
+  private GrammarInfo grammarInfo;
+  public GrammarInfo getGrammarInfo() {
+    if (grammarInfo == null)
+      grammarInfo = new GrammarInfo();
+    return grammarInfo;
+  }
 
 
   // If this derivation is composed of other derivations
   public final Rule rule;  // Which rule was used to produce this derivation?  Set to nullRule if not.
-  public final List<Derivation> children;  // Corresponds to the RHS of the rule.
+  public final List<Derivation> children;  // Corresponds to the RHS of the rule (immutable, so it can be shared).
 
   //// SemanticFn fields: read/written by SemanticFn.
   // Note: SemanticFn should only depend on Formula and the Freebase type
@@ -95,6 +105,8 @@ public class Derivation implements SemanticFn.Callable, HasScore {
   // - the value is whatever the FeatureExtractor needs.
   // This information should be set to null after parsing is done.
   private Map<String, Object> tempState;
+  // Typed temporary state, indexed by TempStateKey.index (preferred over tempState for frequent lookups).
+  private Object[] tempSlots;
 
   // What the formula evaluates to (optionally set later; only non-null for the root Derivation)
   public Value value;
@@ -181,7 +193,7 @@ public class Derivation implements SemanticFn.Callable, HasScore {
       this.start = deriv.start;
       this.end = deriv.end;
       this.rule = deriv.rule;
-      this.children = deriv.children == null ? null : new ArrayList<>(deriv.children);
+      this.children = deriv.children;
       this.formula = deriv.formula;
       this.type = deriv.type;
       this.localFeatureVector = deriv.localFeatureVector;
@@ -209,7 +221,7 @@ public class Derivation implements SemanticFn.Callable, HasScore {
     this.start = start;
     this.end = end;
     this.rule = rule;
-    this.children = children;
+    this.children = compactChildren(children);
     this.formula = formula;
     this.type = type;
     this.localFeatureVector = localFeatureVector;
@@ -218,10 +230,26 @@ public class Derivation implements SemanticFn.Callable, HasScore {
     this.executorStats = executorStats;
     this.compatibility = compatibility;
     this.prob = prob;
-    this.canonicalUtterance = canonicalUtterance;
+    this.canonicalUtterance = internUtterance(canonicalUtterance);
     this.creationIndex = numCreated++;
   }
 
+  // Children are stored in immutable lists so that copies of a derivation
+  // (withAllFrom, betaReduction) can share them.
+  private static List<Derivation> compactChildren(List<Derivation> children) {
+    if (children == null) return null;
+    if (children.isEmpty()) return emptyList;
+    if (children.contains(null)) return children;  // Not allowed in ImmutableList
+    return ImmutableList.copyOf(children);
+  }
+
+  // Canonical utterances of floating derivations are built by concatenation
+  // and repeat a lot across the chart.
+  private static final Interner<String> utterances = Interners.newWeakInterner();
+  public static String internUtterance(String utterance) {
+    return utterance == null || utterance.isEmpty() ? utterance : utterances.intern(utterance);
+  }
+
   public Formula getFormula() { return formula; }
   public double getScore() { return score; }
   public double getProb() { return prob; }
@@ -434,6 +462,39 @@ public class Derivation implements SemanticFn.Callable, HasScore {
       child.incrementAllChoices(factor, map);
   }
 
+  /**
+   * Return a copy of this derivation without the internal nodes, for keeping
+   * large lists of scored candidates (e.g., predDerivations) in memory.
+   * The features and choices of the whole tree are folded into the root, so
+   * getAllFeatureVector(), incrementAllFeatureVector() (used by
+   * ParserState.computeExpectedCounts), score, value, compatibility, and
+   * anchoring information stay the same.  Rule choices (opts.showRules) and
+   * toRecursiveLispTree() only cover the root afterwards.
+   */
+  public Derivation compact() {
+    if (children == null || children.isEmpty()) return this;
+    Derivation deriv = new Derivation(cat, start, end, rule, emptyList, formula, type,
+        FeatureVector.fromMap(getAllFeatureVector()), score, value, executorStats, compatibility, prob,
+        canonicalUtterance);
+    List<String> choices = new ArrayList<>();
+    collectChoices(choices);
+    if (!choices.isEmpty()) deriv.localChoices = choices;
+    deriv.numAnchors = getNumAnchors();
+    deriv.allAnchored = allAnchored();
+    deriv.grammarInfo = grammarInfo;
+    deriv.maxBeamPosition = maxBeamPosition;
+    deriv.maxUnsortedBeamPosition = maxUnsortedBeamPosition;
+    deriv.preSortBeamPosition = preSortBeamPosition;
+    deriv.postSortBeamPosition = postSortBeamPosition;
+    deriv.creationIndex = creationIndex;  // Keep ties broken the same way
+    return deriv;
+  }
+  private void collectChoices(List<String> choices) {
+    if (localChoices != null) choices.addAll(localChoices);
+    for (Derivation child : children)
+      child.collectChoices(choices);
+  }
+
   // Used to compare derivations by score.
   public static class ScoredDerivationComparator implements Comparator<Derivation> {
     @Override
@@ -510,8 +571,21 @@ public class Derivation implements SemanticFn.Callable, HasScore {
       tempState = new HashMap<String, Object>();
     return tempState;
   }
+  @SuppressWarnings("unchecked")
+  public <T> T getTempState(TempStateKey<T> key) {
+    if (tempSlots == null || key.index >= tempSlots.length) return null;
+    return (T) tempSlots[key.index];
+  }
+  public <T> void setTempState(TempStateKey<T> key, T value) {
+    if (tempSlots == null)
+      tempSlots = new Object[TempStateKey.getNumKeys()];
+    else if (key.index >= tempSlots.length)
+      tempSlots = Arrays.copyOf(tempSlots, TempStateKey.getNumKeys());
+    tempSlots[key.index] = value;
+  }
   public void clearTempState() {
     tempState = null;
+    tempSlots = null;
     if (children != null)
       for (Derivation child : children)
         child.clearTempState();
@@ -561,7 +635,7 @@ public class Derivation implements SemanticFn.Callable, HasScore {
   }
 
   public Derivation betaReduction() {
-    Formula reduced = Formulas.betaReduction(formula);
+    Formula reduced = FormulaInterner.internIfEnabled(Formulas.betaReduction(formula));
     return new Builder().withAllFrom(this).formula(reduced).createDerivation();
   }
 
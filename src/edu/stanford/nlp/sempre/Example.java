@@ -197,7 +197,12 @@ public class Example {
   }
 
   public void preprocess() {
-    this.languageInfo = LanguageAnalyzer.getSingleton().analyze(this.utterance);
+    preprocess(LanguageAnalyzer.getSingleton().analyze(this.utterance));
+  }
+
+  // Same as preprocess(), but with the utterance already analyzed (see Dataset.preprocess).
+  public void preprocess(LanguageInfo languageInfo) {
+    this.languageInfo = languageInfo;
     this.targetValue = TargetValuePreprocessor.getSingleton().preprocess(this.targetValue, this);
   }
 
@@ -388,7 +393,7 @@ public class Example {
    */
   public void clean() {
     predDerivations.clear();
-    if (context.graph != null)
+    if (context != null && context.graph != null)
       context.graph.clean();
   }
 }
@@ -23,15 +23,10 @@ public final class ExampleUtils {
   }
 
   public static void writeJson(List<Example> examples, String outPath) throws IOException {
-    PrintWriter out = IOUtils.openOutHard(outPath);
-    out.println("[");
-    for (int i = 0; i < examples.size(); ++i) {
-      Example ex = examples.get(i);
-      out.print(ex.toJson());
-      out.println(i < examples.size() - 1 ? "," : "");
+    try (JsonExampleWriter out = new JsonExampleWriter(outPath)) {
+      for (Example ex : examples)
+        out.write(ex);
     }
-    out.println("]");
-    out.close();
   }
 
   private static String escapeSpace(String s) {
@@ -91,7 +86,11 @@ public final class ExampleUtils {
     String outPath = Execution.getFile(basePath);
     if (outPath == null) return;
     PrintWriter out = IOUtils.openOutAppendHard(outPath);
+    writeParaphraseSDF(out, ex, outputPredDerivations);
+    out.close();
+  }
 
+  public static void writeParaphraseSDF(PrintWriter out, Example ex, boolean outputPredDerivations) {
     out.println("example " + ex.id);
 
     if (outputPredDerivations) {
@@ -102,7 +101,6 @@ public final class ExampleUtils {
         i++;
       }
     }
-    out.close();
   }
 
   public static void writeEvaluationSDF(int iter, String group,
@@ -124,7 +122,11 @@ public final class ExampleUtils {
     String outPath = Execution.getFile(basePath);
     if (outPath == null) return;
     PrintWriter out = IOUtils.openOutAppendHard(outPath);
+    writePredictionTSV(out, ex);
+    out.close();
+  }
 
+  public static void writePredictionTSV(PrintWriter out, Example ex) {
     List<String> fields = new ArrayList<>();
     fields.add(ex.id);
 
@@ -139,7 +141,6 @@ public final class ExampleUtils {
     }
 
     out.println(String.join("\t", fields));
-    out.close();
   }
 
   //read lisptree and write json
@@ -255,7 +255,7 @@ class FloatingParserState extends ParserState {
     while (results.hasNext()) {
       Derivation newDeriv = results.next();
       if (FloatingParser.opts.betaReduce) newDeriv = newDeriv.betaReduction();
-      newDeriv.canonicalUtterance = canonicalUtterance;
+      newDeriv.canonicalUtterance = Derivation.internUtterance(canonicalUtterance);
 
       // make sure we execute
       if (FloatingParser.opts.executeAllDerivations && !(newDeriv.type instanceof FuncSemType))
@@ -20,6 +20,8 @@ import java.util.List;
 public abstract class Formula {
   // cache the hashcode
   private int hashCode = -1;
+  // unique id assigned by FormulaInterner (-1 if not interned)
+  private int internId = -1;
   // Serialize as LispTree.
   public abstract LispTree toLispTree();
 
@@ -40,7 +42,7 @@ public abstract class Formula {
 
   @JsonCreator
   public static Formula fromString(String str) {
-    return Formulas.fromLispTree(LispTree.proto.parseFromString(str));
+    return FormulaReader.parseFormula(str);
   }
 
   @Override public abstract boolean equals(Object o);
@@ -52,6 +54,15 @@ public abstract class Formula {
 
   public abstract int computeHashCode();
 
+  public int getInternId() { return internId; }
+  public boolean isInterned() { return internId >= 0; }
+  void setInternId(int internId) { this.internId = internId; }
+
+  // Two interned formulas are equal if and only if they are the same object.
+  protected boolean bothInterned(Object o) {
+    return internId >= 0 && o instanceof Formula && ((Formula) o).internId >= 0;
+  }
+
   public static Formula nullFormula = new PrimitiveFormula() {
       public LispTree toLispTree() { return LispTree.proto.newLeaf("null"); }
       @SuppressWarnings({"equalshashcode"})
@@ -0,0 +1,55 @@
+package edu.stanford.nlp.sempre;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import fig.basic.Option;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hash-consing of formulas: structurally equal formulas are mapped to a
+ * single canonical instance.
+ *
+ * The children of an interned formula are also interned, so two interned
+ * formulas are equal iff they are the same object, and equals() on interned
+ * formulas takes constant time. Each interned formula gets a unique id
+ * (Formula.getInternId()).
+ *
+ * The canonical instances are weakly referenced; they can be garbage collected
+ * once nothing else refers to them.
+ */
+public final class FormulaInterner {
+  public static class Options {
+    @Option(gloss = "Intern the formulas of derivations (after beta reduction)")
+    public boolean internFormulas = true;
+  }
+  public static Options opts = new Options();
+
+  private FormulaInterner() { }
+
+  private static final Interner<Formula> interner = Interners.newWeakInterner();
+  private static final AtomicInteger nextId = new AtomicInteger();
+
+  /**
+   * Return the canonical instance of the formula.
+   */
+  public static Formula intern(Formula formula) {
+    if (formula == null || formula.isInterned()) return formula;
+    // Rebuild the formula on top of the interned children
+    Formula candidate = formula.map(x -> x == formula ? null : intern(x));
+    Formula canonical = interner.intern(candidate);
+    // Another thread can get the new canonical instance before its id is set.
+    // It then just compares it structurally, as if it were not interned.
+    if (canonical == candidate)
+      canonical.setInternId(nextId.getAndIncrement());
+    return canonical;
+  }
+
+  /**
+   * Intern the formula if internFormulas is turned on.
+   */
+  public static Formula internIfEnabled(Formula formula) {
+    return opts.internFormulas ? intern(formula) : formula;
+  }
+
+}
@@ -0,0 +1,336 @@
+package edu.stanford.nlp.sempre;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
+import fig.basic.LispTree;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Reads Formulas and Values directly from s-expressions (same syntax as LispTree)
+ * without building an intermediate LispTree.
+ *
+ * - The input is read in one pass from a Reader or a CharSequence (e.g., CharBuffer).
+ * - Nesting is handled with an explicit stack, so deep formulas do not overflow the call stack.
+ * - Ids of NameValues are interned.
+ *
+ * The result is the same as Formulas.fromLispTree / Values.fromLispTree on the parsed LispTree.
+ * Values other than names, numbers, strings and booleans are rare, so their subtrees
+ * are still collected as LispTrees and passed to Values.fromLispTree.
+ */
+public class FormulaReader {
+  private static final Interner<String> ids = Interners.newWeakInterner();
+
+  // Values that are constructed directly from their (leaf) arguments
+  private static final Set<String> simpleValueTypes = ImmutableSet.of("name", "number", "string", "boolean");
+  // Other values (see Values.fromLispTreeOrNull)
+  private static final Set<String> treeValueTypes = ImmutableSet.of(
+      "list", "table", "description", "url", "context", "date", "error", "time");
+
+  // What is built for a list
+  private static final int FORMULA = 0;       // Formula
+  private static final int VALUE = 1;         // Value
+  private static final int TREE = 2;          // LispTree
+  private static final int SIMPLE_VALUE = 3;  // Simple value (the arguments are leaves)
+
+  private static class Frame {
+    final int context;  // What the parent wants (FORMULA, VALUE, or TREE)
+    int mode;           // How the items are collected
+    final List<Object> items = new ArrayList<>();  // String (leaf), Formula, or LispTree
+    Frame(int context) { this.context = context; this.mode = context; }
+  }
+
+  private final Reader in;
+  private final CharSequence seq;
+  private int pos;
+  private int peeked = -2;  // Next character from |in| (-2 if not read yet)
+  private int last = -1;    // Last character consumed (-1 at the start)
+  private final StringBuilder token = new StringBuilder();
+
+  public FormulaReader(Reader in) { this.in = in; this.seq = null; }
+  public FormulaReader(CharSequence seq) { this.in = null; this.seq = seq; }
+
+  public static Formula parseFormula(String s) { return new FormulaReader(s).readFormula(); }
+  public static Value parseValue(String s) { return new FormulaReader(s).readValue(); }
+
+  // Return whether there is another expression in the input.
+  public boolean hasNext() {
+    skipSpace();
+    return peek() != -1;
+  }
+
+  public Formula readFormula() { return (Formula) read(FORMULA); }
+  public Value readValue() { return (Value) read(VALUE); }
+
+  // ============================================================
+  // Characters
+  // ============================================================
+
+  private int peek() {
+    if (seq != null) return pos < seq.length() ? seq.charAt(pos) : -1;
+    if (peeked == -2) {
+      try {
+        peeked = in.read();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return peeked;
+  }
+
+  private int next() {
+    int c = peek();
+    if (seq != null) {
+      if (c != -1) pos++;
+    } else {
+      peeked = -2;
+    }
+    return last = c;
+  }
+
+  // Skip whitespace and comments (# until the end of the line, after whitespace or at the start).
+  private void skipSpace() {
+    while (true) {
+      int c = peek();
+      if (c == -1) return;
+      if (Character.isWhitespace(c)) {
+        next();
+      } else if (c == '#' && (last == -1 || Character.isWhitespace(last))) {
+        while (c != -1 && c != '\n') {
+          next();
+          c = peek();
+        }
+      } else {
+        return;
+      }
+    }
+  }
+
+  private String readToken() {
+    token.setLength(0);
+    int c = peek();
+    if (c == '"') {
+      next();
+      while (true) {
+        c = next();
+        if (c == -1) throw new RuntimeException("Unterminated string: " + token);
+        if (c == '"') break;
+        if (c == '\\') {
+          c = next();
+          if (c == 'n') c = '\n';
+          else if (c == 't') c = '\t';
+          else if (c == -1) throw new RuntimeException("Unterminated string: " + token);
+        }
+        token.append((char) c);
+      }
+    } else {
+      while (c != -1 && !Character.isWhitespace(c) && c != '(' && c != ')') {
+        next();
+        if (c == '\\') {
+          c = next();
+          if (c == -1) break;
+        }
+        token.append((char) c);
+        c = peek();
+      }
+    }
+    return token.toString();
+  }
+
+  // ============================================================
+  // Expressions
+  // ============================================================
+
+  private Object read(int context) {
+    skipSpace();
+    int c = peek();
+    if (c == -1) throw new RuntimeException("No expression in the input");
+    if (c == ')') throw new RuntimeException("Unexpected ')'");
+    if (c != '(') return buildLeaf(context, readToken());
+
+    Deque<Frame> stack = new ArrayDeque<>();
+    while (true) {
+      skipSpace();
+      c = peek();
+      if (c == -1) throw new RuntimeException("Unbalanced parentheses");
+      Object item;
+      if (c == '(') {
+        next();
+        stack.push(new Frame(stack.isEmpty() ? context : childContext(stack.peek())));
+        continue;
+      } else if (c == ')') {
+        next();
+        item = build(stack.pop());
+        if (stack.isEmpty()) return item;
+      } else {
+        item = readToken();
+      }
+      Frame frame = stack.peek();
+      if (frame.items.isEmpty()) setMode(frame, item);
+      frame.items.add(item);
+    }
+  }
+
+  private static int childContext(Frame frame) {
+    if (frame.mode == FORMULA) return FORMULA;
+    return TREE;  // Head of a value (invalid anyway), or argument of a tree or simple value
+  }
+
+  // Decide how to collect the items of the list based on its first item.
+  private static void setMode(Frame frame, Object head) {
+    if (frame.mode != FORMULA && frame.mode != VALUE) return;
+    if (head instanceof String) {
+      if (simpleValueTypes.contains(head)) frame.mode = SIMPLE_VALUE;
+      else if (treeValueTypes.contains(head) || frame.mode == VALUE) frame.mode = TREE;
+    } else if (frame.mode == VALUE) {
+      frame.mode = TREE;
+    }
+  }
+
+  private static Object buildLeaf(int context, String s) {
+    if (context == TREE) return LispTree.proto.newLeaf(s);
+    if (context == VALUE) return Values.fromLispTree(LispTree.proto.newLeaf(s));  // Throws
+    return leafFormula(s);
+  }
+
+  private static Object build(Frame frame) {
+    if (frame.mode == SIMPLE_VALUE) {
+      Value value = buildSimpleValue(frame.items);
+      if (value != null)
+        return frame.context == FORMULA ? new ValueFormula<Value>(value) : value;
+    } else if (frame.mode == FORMULA) {
+      return buildFormula(frame.items);
+    }
+    // Fall back to the LispTree
+    LispTree tree = toLispTree(frame.items);
+    if (frame.context == TREE) return tree;
+    if (frame.context == VALUE) return Values.fromLispTree(tree);
+    return Formulas.fromLispTree(tree);
+  }
+
+  private static LispTree toLispTree(List<Object> items) {
+    LispTree tree = LispTree.proto.newList();
+    for (Object item : items) {
+      if (item instanceof String) tree.addChild((String) item);
+      else if (item instanceof Formula) tree.addChild(((Formula) item).toLispTree());
+      else tree.addChild((LispTree) item);
+    }
+    return tree;
+  }
+
+  // Same as the LispTree constructors of the values; return null if some argument is not a leaf.
+  private static Value buildSimpleValue(List<Object> items) {
+    for (Object item : items)
+      if (!(item instanceof String)) return null;
+    String type = (String) items.get(0);
+    String arg = (String) items.get(1);
+    switch (type) {
+      case "name":
+        return new NameValue(ids.intern(arg), items.size() > 2 ? (String) items.get(2) : null);
+      case "number":
+        return new NumberValue(Double.parseDouble(arg), items.size() > 2 ? (String) items.get(2) : NumberValue.unitless);
+      case "string":
+        return new StringValue(arg);
+      case "boolean":
+        return new BooleanValue(Boolean.parseBoolean(arg));
+      default:
+        throw new RuntimeException("Unknown value type: " + type);
+    }
+  }
+
+  private static Formula leafFormula(String s) {
+    return new ValueFormula<NameValue>(new NameValue(ids.intern(s), null));
+  }
+
+  private static Formula toFormula(Object item) {
+    return item instanceof String ? leafFormula((String) item) : (Formula) item;
+  }
+
+  // Value of a leaf (null for a list)
+  private static String leafValue(Object item) {
+    return item instanceof String ? (String) item : null;
+  }
+
+  // Mirrors Formulas.fromLispTree (the children have already been converted).
+  private static Formula buildFormula(List<Object> items) {
+    String func = leafValue(items.get(0));
+    if (func != null) {
+      if (func.equals("var"))
+        return new VariableFormula(leafValue(items.get(1)));
+      if (func.equals("lambda"))
+        return new LambdaFormula(leafValue(items.get(1)), toFormula(items.get(2)));
+      if (func.equals("mark"))
+        return new MarkFormula(leafValue(items.get(1)), toFormula(items.get(2)));
+      if (func.equals("not"))
+        return new NotFormula(toFormula(items.get(1)));
+      if (func.equals("reverse"))
+        return new ReverseFormula(toFormula(items.get(1)));
+      if (func.equals("call")) {
+        Formula callFunc = toFormula(items.get(1));
+        List<Formula> args = Lists.newArrayList();
+        for (int i = 2; i < items.size(); i++)
+          args.add(toFormula(items.get(i)));
+        return new CallFormula(callFunc, args);
+      }
+    }
+
+    {
+      MergeFormula.Mode mode = MergeFormula.parseMode(func);
+      if (mode != null)
+        return new MergeFormula(mode, toFormula(items.get(1)), toFormula(items.get(2)));
+    }
+
+    {
+      AggregateFormula.Mode mode = AggregateFormula.parseMode(func);
+      if (mode != null)
+        return new AggregateFormula(mode, toFormula(items.get(1)));
+    }
+
+    {
+      SuperlativeFormula.Mode mode = SuperlativeFormula.parseMode(func);
+      if (mode != null) {
+        Formula rank = parseIntToFormula(items.get(1));
+        Formula count = parseIntToFormula(items.get(2));
+        return new SuperlativeFormula(mode, rank, count, toFormula(items.get(3)), toFormula(items.get(4)));
+      }
+    }
+
+    {
+      ArithmeticFormula.Mode mode = ArithmeticFormula.parseMode(func);
+      if (mode != null)
+        return new ArithmeticFormula(mode, toFormula(items.get(1)), toFormula(items.get(2)));
+    }
+
+    {
+      ActionFormula.Mode mode = ActionFormula.parseMode(func);
+      if (mode != null) {
+        List<Formula> args = Lists.newArrayList();
+        for (int i = 1; i < items.size(); i++)
+          args.add(toFormula(items.get(i)));
+        return new ActionFormula(mode, args);
+      }
+    }
+
+    if (items.size() != 2)
+      throw new RuntimeException("Invalid number of arguments for join (want 2): " + toLispTree(items));
+    return new JoinFormula(toFormula(items.get(0)), toFormula(items.get(1)));
+  }
+
+  private static Formula parseIntToFormula(Object item) {
+    if (item instanceof String) {
+      try {
+        return new ValueFormula<NumberValue>(new NumberValue(Integer.parseInt((String) item)));
+      } catch (NumberFormatException e) {
+        // Fall through
+      }
+    }
+    Formula formula = toFormula(item);
+    if (!(formula instanceof PrimitiveFormula))
+      throw new RuntimeException("Rank and count of argmax must be variables or numbers");
+    return formula;
+  }
+}
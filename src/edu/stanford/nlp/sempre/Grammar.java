@@ -324,8 +324,13 @@ public class Grammar {
   // Add a rule to the grammar.
   public synchronized void addRule(Rule rule, List<Boolean> isOptionals) {
     rules.addAll(binarizeRule(rule, isOptionals));
+    version++;
   }
 
+  // Incremented whenever a rule is added.
+  private long version;
+  public synchronized long getVersion() { return version; }
+
   private void collectValidTags(LispTree tree) {
     if (tree.isLeaf())
       throw new RuntimeException("Expected list, got " + tree);
@@ -182,7 +182,7 @@ public class JoinFn extends SemanticFn {
       if (unaryType instanceof UnionSemType && argType instanceof AtomicSemType) {
         for (SemType t : ((UnionSemType) unaryType).baseTypes)
           if (t instanceof AtomicSemType &&
-              SemTypeHierarchy.singleton.getSupertypes(((AtomicSemType) t).name).contains(((AtomicSemType) argType).name))
+              SemTypeHierarchy.singleton.isSupertype(((AtomicSemType) t).node, ((AtomicSemType) argType).node))
             return binaryType.getRetType();
         return SemType.bottomType;
       }
@@ -60,6 +60,8 @@ public class JoinFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof JoinFormula)) return false;
     JoinFormula that = (JoinFormula) thatObj;
     if (!this.relation.equals(that.relation)) return false;
@@ -5,24 +5,42 @@ import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
 
+import fig.basic.LogInfo;
+import fig.basic.Option;
+
 import java.io.*;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Simple wrappers and sane defaults for Jackson.
  *
+ * ObjectReaders and ObjectWriters are immutable, so the ones for each (view, type)
+ * are created once and reused.  If the mapper is reconfigured through getMapper(),
+ * call clearCache() so that the changes are picked up.
+ *
  * @author Roy Frostig
  */
 public final class Json {
   private Json() { }
 
+  public static class Options {
+    @Option(gloss = "Register the Jackson Afterburner module (generated bytecode instead of reflection) if it is on the classpath")
+    public boolean afterburner = false;
+  }
+  public static Options opts = new Options();
+
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
   static {
     OBJECT_MAPPER.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
@@ -32,11 +50,50 @@ public final class Json {
     return OBJECT_MAPPER;
   }
 
+  // ============================================================
+  // Cached readers and writers
+  // ============================================================
+
+  private static final Class<?> NO_VIEW = Void.class;  // Map key for view == null
+  private static final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+  private static final Map<List<Object>, ObjectReader> readers = new ConcurrentHashMap<>();  // (view, type) => reader
+  private static volatile ObjectWriter prettyWriter;
+  private static volatile boolean modulesChecked = false;
+
+  public static void clearCache() {
+    writers.clear();
+    readers.clear();
+    prettyWriter = null;
+  }
+
+  private static void checkModules() {
+    if (modulesChecked || !opts.afterburner) return;
+    synchronized (OBJECT_MAPPER) {
+      if (modulesChecked) return;
+      try {
+        Class<?> moduleClass = Class.forName("com.fasterxml.jackson.module.afterburner.AfterburnerModule");
+        OBJECT_MAPPER.registerModule((Module) moduleClass.getDeclaredConstructor().newInstance());
+        LogInfo.logs("Json: registered %s", moduleClass.getName());
+      } catch (ReflectiveOperationException e) {
+        LogInfo.warnings("Json: Afterburner is not available (%s)", e);
+      }
+      clearCache();
+      modulesChecked = true;
+    }
+  }
+
   private static ObjectWriter getWriter(Class<?> view) {
-    if (view != null)
-      return getMapper().writerWithView(view);
-    else
-      return getMapper().writer();
+    checkModules();
+    return writers.computeIfAbsent(view != null ? view : NO_VIEW,
+        v -> v != NO_VIEW ? getMapper().writerWithView(v) : getMapper().writer());
+  }
+
+  private static ObjectWriter getPrettyWriter() {
+    checkModules();
+    ObjectWriter writer = prettyWriter;
+    if (writer == null)
+      prettyWriter = writer = getMapper().writerWithDefaultPrettyPrinter();
+    return writer;
   }
 
   private static ObjectReader getReader(Class<?> view) {
@@ -46,6 +103,19 @@ public final class Json {
       return getMapper().reader();
   }
 
+  private static ObjectReader getReader(Class<?> view, Class<?> klass) {
+    checkModules();
+    return readers.computeIfAbsent(Arrays.asList(view != null ? view : NO_VIEW, klass),
+        key -> getReader(view).withType(klass));
+  }
+
+  private static ObjectReader getReader(Class<?> view, TypeReference<?> typeRef) {
+    checkModules();
+    // TypeReferences are usually new anonymous instances, so use the type they capture as the key
+    return readers.computeIfAbsent(Arrays.asList(view != null ? view : NO_VIEW, typeRef.getType()),
+        key -> getReader(view).withType(typeRef));
+  }
+
   // TODO (rf):
   // - readValueHard from InputStream, Reader, JsonParser, and File
   //   (all forwards)
@@ -55,7 +125,7 @@ public final class Json {
   }
   public static <T> T readValueHard(String json, Class<T> klass, Class<?> view) {
     try {
-      return getReader(view).withType(klass).readValue(json);
+      return getReader(view, klass).readValue(json);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -66,7 +136,7 @@ public final class Json {
   }
   public static <T> T readValueHard(String json, TypeReference<T> typeRef, Class<?> view) {
     try {
-      return getReader(view).withType(typeRef).readValue(json);
+      return getReader(view, typeRef).readValue(json);
     } catch (JsonMappingException e) {
       throw new RuntimeException(e);
     } catch (JsonParseException e) {
@@ -81,7 +151,7 @@ public final class Json {
   }
   public static <T> T readValueHard(Reader r, Class<T> klass, Class<?> view) {
     try {
-      return getReader(view).withType(klass).readValue(r);
+      return getReader(view, klass).readValue(r);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -92,7 +162,7 @@ public final class Json {
   }
   public static <T> T readValueHard(Reader r, TypeReference<T> typeRef, Class<?> view) {
     try {
-      return getReader(view).withType(typeRef).readValue(r);
+      return getReader(view, typeRef).readValue(r);
     } catch (JsonMappingException e) {
       throw new RuntimeException(e);
     } catch (JsonParseException e) {
@@ -102,12 +172,41 @@ public final class Json {
     }
   }
 
+  // Iterate over the elements of a top-level JSON array (or a sequence of top-level values)
+  // without reading them all into memory.
+  public static <T> MappingIterator<T> readValuesHard(Reader r, Class<T> klass) {
+    return readValuesHard(r, klass, Object.class);
+  }
+  public static <T> MappingIterator<T> readValuesHard(Reader r, Class<T> klass, Class<?> view) {
+    try {
+      return getReader(view, klass).readValues(r);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Count the elements of a top-level JSON array without deserializing them.
+  public static int countArrayElementsHard(Reader r) {
+    try (JsonParser parser = getMapper().getFactory().createParser(r)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY)
+        throw new RuntimeException("Expected a JSON array");
+      int n = 0;
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        parser.skipChildren();
+        n++;
+      }
+      return n;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   public static Map<String, Object> readMapHard(String json) {
     return readMapHard(json, Object.class);
   }
   public static Map<String, Object> readMapHard(String json, Class<?> view) {
     try {
-      return getReader(view).withType(Map.class).readValue(json);
+      return getReader(view, Map.class).readValue(json);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -115,7 +214,7 @@ public final class Json {
 
   public static String prettyWriteValueAsStringHard(Object o) {
     try {
-      return getMapper().writerWithDefaultPrettyPrinter().writeValueAsString(o);
+      return getPrettyWriter().writeValueAsString(o);
     } catch (JsonProcessingException e) {
       throw new RuntimeException(e);
     }
@@ -144,7 +243,7 @@ public final class Json {
 
   public static void prettyWriteValueHard(File f, Object o) {
     try {
-      getMapper().writerWithDefaultPrettyPrinter().writeValue(f, o);
+      getPrettyWriter().writeValue(f, o);
     } catch (JsonMappingException e) {
       e.printStackTrace();
     } catch (JsonGenerationException e) {
@@ -198,6 +297,22 @@ public final class Json {
     }
   }
 
+  // Stream |o| to |w| without building the string first, and leave |w| open
+  // (e.g., to keep writing an HTTP response).
+  public static void streamValueHard(Writer w, Object o) {
+    streamValueHard(w, o, Object.class);
+  }
+  public static void streamValueHard(Writer w, Object o, Class<?> view) {
+    try {
+      JsonGenerator jg = getMapper().getFactory().createGenerator(w);
+      jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      getWriter(view).writeValue(jg, o);
+      jg.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   public static void writeValueHard(Writer w, Object o) {
     writeValueHard(w, o, Object.class);
   }
@@ -0,0 +1,66 @@
+package edu.stanford.nlp.sempre;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import fig.basic.IOUtils;
+
+import java.io.*;
+
+/**
+ * Writes examples to a JSON file (an array of examples, one per line) as they come,
+ * through a single buffered generator, so that the examples do not have to be kept in memory.
+ * The file can be read back with Dataset (including Dataset.opts.streamJson).
+ */
+public class JsonExampleWriter implements Closeable {
+  public final String path;
+  private final JsonGenerator generator;
+  private final Class<?> view;
+  private int numExamples = 0;
+
+  public JsonExampleWriter(String path) {
+    this(path, Object.class);
+  }
+
+  public JsonExampleWriter(String path, Class<?> view) {
+    this.path = path;
+    this.view = view;
+    try {
+      this.generator = Json.getMapper().getFactory().createGenerator(IOUtils.openOutHard(path));
+      this.generator.setRootValueSeparator(null);
+      this.generator.writeRaw("[\n");
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public int getNumExamples() { return numExamples; }
+
+  public synchronized void write(Example ex) {
+    try {
+      if (numExamples > 0)
+        generator.writeRaw(",\n");
+      Json.writeValueHard(generator, ex, view);
+      numExamples++;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public synchronized void flush() {
+    try {
+      generator.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      generator.writeRaw(numExamples > 0 ? "\n]\n" : "]\n");
+      generator.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
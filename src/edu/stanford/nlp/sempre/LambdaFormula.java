@@ -48,6 +48,8 @@ public class LambdaFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof LambdaFormula)) return false;
     LambdaFormula that = (LambdaFormula) thatObj;
     return this.var.equals(that.var) && this.body.equals(that.body);
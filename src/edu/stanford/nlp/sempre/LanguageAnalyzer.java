@@ -14,18 +14,36 @@ public abstract class LanguageAnalyzer {
 
     @Option(gloss = "Whether to convert tokens in the utterance to lowercase")
     public boolean lowerCaseTokens = true;
+
+    @Option(gloss = "Cache the output of the language analyzer in this file (or server:port:path)")
+    public String cachePath;
+    @Option(gloss = "Number of analyzed utterances to keep in memory when cachePath is set")
+    public int memoryCacheSize = 10000;
   }
   public static Options opts = new Options();
 
   // We keep a singleton LanguageAnalyzer because for any given run we
   // generally will be working with one.
   private static LanguageAnalyzer singleton;
-  public static LanguageAnalyzer getSingleton() {
-    if (singleton == null)
+  public static synchronized LanguageAnalyzer getSingleton() {
+    if (singleton == null) {
       singleton = (LanguageAnalyzer) Utils.newInstanceHard(SempreUtils.resolveClassName(opts.languageAnalyzer));
+      if (opts.cachePath != null)
+        singleton = new CachingLanguageAnalyzer(singleton, opts.cachePath, opts.memoryCacheSize);
+    }
     return singleton;
   }
-  public static void setSingleton(LanguageAnalyzer analyzer) { singleton = analyzer; }
+  // Return the previous singleton (can be null), so that tests can restore it
+  public static synchronized LanguageAnalyzer setSingleton(LanguageAnalyzer analyzer) {
+    LanguageAnalyzer old = singleton;
+    singleton = analyzer;
+    return old;
+  }
 
   public abstract LanguageInfo analyze(String utterance);
+
+  // Describes the settings that affect the output of analyze() (used as part of cache keys).
+  public String getCacheKey() {
+    return getClass().getName() + ";lowerCaseTokens=" + opts.lowerCaseTokens;
+  }
 }
@@ -85,42 +85,86 @@ public class LanguageInfo implements MemUsage.Instrumented {
     this.dependencyChildren = dependencyChildren;
   }
 
+  // Joined strings of all spans: table[start][end] is the string for [start, end).
+  // Built lazily once per sequence, so that the same span string is shared by all callers.
+  // The tables take O(n^3) characters, so they are dropped after parsing (see clearSpanTables).
+  private volatile String[][] phraseTable;
+  private volatile String[][] lemmaPhraseTable;
+  private volatile String[][] posSeqTable;
+  private volatile String[][] canonicalPosSeqTable;
+  private volatile String[][] nerSeqTable;
+
   // Return a string representing the tokens between start and end.
   public String phrase(int start, int end) {
-    return sliceSequence(tokens, start, end);
+    return lookup(getPhraseTable(), start, end);
   }
   public String lemmaPhrase(int start, int end) {
-    return sliceSequence(lemmaTokens, start, end);
+    return lookup(getLemmaPhraseTable(), start, end);
   }
   public String posSeq(int start, int end) {
-    return sliceSequence(posTags, start, end);
+    String[][] table = posSeqTable;
+    if (table == null || table.length != posTags.size())
+      posSeqTable = table = buildSpanTable(posTags);
+    return lookup(table, start, end);
   }
 
   public String canonicalPosSeq(int start, int end) {
-    if (start >= end) throw new RuntimeException("Bad indices, start=" + start + ", end=" + end);
-    if (end - start == 1) return LanguageUtils.getCanonicalPos(posTags.get(start));
-    StringBuilder out = new StringBuilder();
-    for (int i = start; i < end; i++) {
-      if (out.length() > 0) out.append(' ');
-      out.append(LanguageUtils.getCanonicalPos(posTags.get(i)));
+    String[][] table = canonicalPosSeqTable;
+    if (table == null || table.length != posTags.size()) {
+      List<String> canonicalPosTags = new ArrayList<>();
+      for (String posTag : posTags)
+        canonicalPosTags.add(LanguageUtils.getCanonicalPos(posTag));
+      canonicalPosSeqTable = table = buildSpanTable(canonicalPosTags);
     }
-    return out.toString();
+    return lookup(table, start, end);
   }
   public String nerSeq(int start, int end) {
-    return sliceSequence(nerTags, start, end);
+    String[][] table = nerSeqTable;
+    if (table == null || table.length != nerTags.size())
+      nerSeqTable = table = buildSpanTable(nerTags);
+    return lookup(table, start, end);
+  }
+
+  // The returned tables are shared and should not be modified.
+  public String[][] getPhraseTable() {
+    String[][] table = phraseTable;
+    if (table == null || table.length != tokens.size())
+      phraseTable = table = buildSpanTable(tokens);
+    return table;
+  }
+  public String[][] getLemmaPhraseTable() {
+    String[][] table = lemmaPhraseTable;
+    if (table == null || table.length != lemmaTokens.size())
+      lemmaPhraseTable = table = buildSpanTable(lemmaTokens);
+    return table;
   }
 
-  private static String sliceSequence(List<String> items,
-      int start,
-      int end) {
+  // Drop the span tables to save memory; they are rebuilt if needed.
+  public void clearSpanTables() {
+    phraseTable = null;
+    lemmaPhraseTable = null;
+    posSeqTable = null;
+    canonicalPosSeqTable = null;
+    nerSeqTable = null;
+  }
+
+  private static String lookup(String[][] table, int start, int end) {
     if (start >= end) throw new RuntimeException("Bad indices, start=" + start + ", end=" + end);
-    if (end - start == 1) return items.get(start);
-    StringBuilder out = new StringBuilder();
-    for (int i = start; i < end; i++) {
-      if (out.length() > 0) out.append(' ');
-      out.append(items.get(i));
+    return table[start][end];
+  }
+
+  private static String[][] buildSpanTable(List<String> items) {
+    int n = items.size();
+    String[][] table = new String[n][n + 1];
+    for (int start = 0; start < n; start++) {
+      table[start][start + 1] = items.get(start);
+      StringBuilder out = new StringBuilder().append(items.get(start));
+      for (int end = start + 2; end <= n; end++) {
+        out.append(' ').append(items.get(end - 1));
+        table[start][end] = out.toString();
+      }
     }
-    return out.toString();
+    return table;
   }
 
   // If all the tokens in [start, end) have the same nerValues, but not
@@ -410,7 +454,21 @@ public class LanguageInfo implements MemUsage.Instrumented {
   public long getBytes() {
     return MemUsage.objectSize(MemUsage.pointerSize * 2) + MemUsage.getBytes(tokens) + MemUsage.getBytes(lemmaTokens)
         + MemUsage.getBytes(posTags) + MemUsage.getBytes(nerTags) + MemUsage.getBytes(nerValues)
-        + MemUsage.getBytes(lemmaSpans);
+        + MemUsage.getBytes(lemmaSpans)
+        + getBytes(phraseTable) + getBytes(lemmaPhraseTable) + getBytes(posSeqTable)
+        + getBytes(canonicalPosSeqTable) + getBytes(nerSeqTable);
+  }
+
+  private static long getBytes(String[][] table) {
+    if (table == null) return 0;
+    long sum = MemUsage.objectSize(MemUsage.pointerSize * table.length);
+    for (int start = 0; start < table.length; start++) {
+      sum += MemUsage.objectSize(MemUsage.pointerSize * table[start].length);
+      // table[start][start + 1] is the item itself, which is counted with the list
+      for (int end = start + 2; end < table[start].length; end++)
+        sum += MemUsage.getBytes(table[start][end]);
+    }
+    return sum;
   }
 
   public boolean isNumberAndDate(int index) {
@@ -6,10 +6,8 @@ import fig.basic.*;
 import fig.exec.Execution;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * The main learning loop.  Goes over a dataset multiple times, calling the
@@ -29,6 +27,8 @@ public class Learner {
     public boolean outputPredDerivations = false;
     @Option(gloss = "Write predicted values to a TSV file")
     public boolean outputPredValues = false;
+    @Option(gloss = "Write the parsed examples to a JSON file (streamed as they are processed)")
+    public boolean outputPredExamples = false;
 
     @Option(gloss = "Dump all features and compatibility scores")
     public boolean dumpFeaturesAndCompatibility = false;
@@ -53,6 +53,17 @@ public class Learner {
 
     @Option(gloss = "Number of threads to parallelize")
     public int numParallelThreads = 1;
+    @Option(gloss = "When evaluating with numParallelThreads > 1, maximum number of examples in flight per thread")
+    public int parallelEvalWindow = 4;
+
+    @Option(gloss = "Write the parameters and checkpoints on a background thread (from a copy of the parameters)")
+    public boolean asyncWriteParams = false;
+    @Option(gloss = "Save a binary checkpoint of the training state (params.checkpoint) after each group")
+    public boolean checkpoint = false;
+    @Option(gloss = "With checkpoint, also save a checkpoint every this many training examples (0 to disable)")
+    public int checkpointInterval = 0;
+    @Option(gloss = "Resume training from this checkpoint (written with checkpoint)")
+    public String resumeFrom;
   }
   public static Options opts = new Options();
 
@@ -61,6 +72,7 @@ public class Learner {
   private final Dataset dataset;
   private final PrintWriter eventsOut;  // For printing a machine-readable log
   private final List<SemanticFn> semFuncsToUpdate;
+  private ParamsCheckpointer checkpointer;  // Created when needed
 
   public Learner(Parser parser, Params params, Dataset dataset) {
     this.parser = parser;
@@ -95,6 +107,14 @@ public class Learner {
    */
   public void learn(int numIters, Map<String, List<Evaluation>> evaluations) {
     LogInfo.begin_track("Learner.learn()");
+    ParamsCheckpointer.Checkpoint resume = null;
+    if (opts.resumeFrom != null) {
+      resume = ParamsCheckpointer.loadCheckpoint(opts.resumeFrom);
+      params.setState(resume.params);
+      LogInfo.logs("Resuming from %s: iteration %d, group %s, after %d examples",
+          opts.resumeFrom, resume.iter, resume.group, resume.numExamples);
+    }
+    List<String> groups = new ArrayList<>(dataset.groups());
     // if when we start we have parameters already - need to sort the semantic functions.
     if (!params.isEmpty())
       sortOnFeedback();
@@ -120,24 +140,57 @@ public class Learner {
           if ((group.equals("train") && lastIter) || (!group.equals("train") && !lastIter))
             continue;
         }
+        // Skip what was done before the checkpoint
+        int startExample = 0;
+        if (resume != null) {
+          if (iter < resume.iter || (iter == resume.iter && groups.indexOf(group) < groups.indexOf(resume.group)))
+            continue;
+          if (iter == resume.iter && group.equals(resume.group))
+            startExample = resume.numExamples;
+          resume = null;
+          if (startExample >= dataset.examples(group).size())
+            continue;
+        }
         // Allow the parser to change behavior based on current group and iteration
         parser.onBeginDataGroup(iter, numIters, group);
-        Evaluation eval = processExamples(iter, group, dataset.examples(group), updateWeights);
+        Evaluation eval = processExamples(iter, group, dataset.examples(group), startExample, updateWeights);
         MapUtils.addToList(evaluations, group, eval);
         meanEvaluations.get(group).add(eval);
         StopWatchSet.logStats();
         writeParams(iter);
+        if (opts.checkpoint)
+          saveCheckpoint(iter, group, dataset.examples(group).size());
       }
       LogInfo.end_track();
     }
+    if (checkpointer != null)
+      checkpointer.flush();
     LogInfo.end_track();
   }
 
+  private ParamsCheckpointer getCheckpointer() {
+    if (checkpointer == null)
+      checkpointer = new ParamsCheckpointer(opts.asyncWriteParams);
+    return checkpointer;
+  }
+
+  // Save the training state after |numExamples| examples of |group| in iteration |iter|.
+  private void saveCheckpoint(int iter, String group, int numExamples) {
+    String path = Execution.getFile("params.checkpoint");
+    if (path != null)
+      getCheckpointer().saveCheckpoint(path, params, iter, group, numExamples);
+  }
+
   private void writeParams(int iter) {
     String path = Execution.getFile("params." + iter);
     if (path != null) {
-      params.write(path);
-      Utils.systemHard("ln -sf params." + iter + " " + Execution.getFile("params"));
+      Runnable link = () -> Utils.systemHard("ln -sf params." + iter + " " + Execution.getFile("params"));
+      if (opts.asyncWriteParams) {
+        getCheckpointer().saveText(path, params, link);
+      } else {
+        params.write(path);
+        link.run();
+      }
     }
   }
 
@@ -160,8 +213,10 @@ public class Learner {
   }
 
   private Evaluation processExamples(int iter, String group,
-      List<Example> examples, boolean computeExpectedCounts) {
+      List<Example> examples, int startExample, boolean computeExpectedCounts) {
     Evaluation evaluation = new Evaluation();
+    if (startExample > 0)
+      examples = examples.subList(startExample, examples.size());
 
     if (examples.size() == 0)
       return evaluation;
@@ -173,7 +228,11 @@ public class Learner {
         "Processing %s: %s examples", prefix, examples.size());
     LogInfo.begin_track("Examples");
 
-    if (opts.numParallelThreads > 1) {
+    if (opts.numParallelThreads > 1 && !computeExpectedCounts) {
+      // The weights do not change, so examples can be evaluated independently
+      evaluateExamplesInParallel(iter, group, prefix, examples, evaluation);
+
+    } else if (opts.numParallelThreads > 1) {
       // Parallelize!
       Parallelizer<Example> paral = new Parallelizer<>(opts.numParallelThreads);
       LearnerParallelProcessor processor = new LearnerParallelProcessor(
@@ -187,9 +246,17 @@ public class Learner {
 
       Map<String, Double> counts = new HashMap<>();
       int batchSize = 0;
-      for (int e = 0; e < examples.size(); e++) {
+      int lastCheckpoint = 0;
+      JsonExampleWriter predExamplesOut = null;
+      if (opts.outputPredExamples) {
+        String path = Execution.getFile("preds-iter" + iter + "-" + group + ".json");
+        if (path != null) predExamplesOut = new JsonExampleWriter(path);
+      }
+      // Iterate (rather than index) so that streamed datasets are read sequentially
+      Iterator<Example> exampleIterator = examples.iterator();
+      for (int e = 0; exampleIterator.hasNext(); e++) {
 
-        Example ex = examples.get(e);
+        Example ex = exampleIterator.next();
 
         LogInfo.begin_track_printAll(
             "%s: example %s/%s: %s", prefix, e, examples.size(), ex.id);
@@ -211,6 +278,10 @@ public class Learner {
             // Gathered enough examples, update parameters
             updateWeights(counts);
             batchSize = 0;
+            if (opts.checkpoint && opts.checkpointInterval > 0 && e + 1 - lastCheckpoint >= opts.checkpointInterval) {
+              saveCheckpoint(iter, group, startExample + e + 1);
+              lastCheckpoint = e + 1;
+            }
           }
         }
 
@@ -230,13 +301,18 @@ public class Learner {
         if (opts.outputPredValues) {
           ExampleUtils.writePredictionTSV(iter, group, ex);
         }
+        if (predExamplesOut != null) {
+          predExamplesOut.write(ex);
+        }
 
         // To save memory
-        ex.predDerivations.clear();
+        ex.clean();
       }
 
       if (computeExpectedCounts && batchSize > 0)
         updateWeights(counts);
+      if (predExamplesOut != null)
+        predExamplesOut.close();
 
     }
 
@@ -253,6 +329,110 @@ public class Learner {
     return evaluation;
   }
 
+  // ============================================================
+  // Parallel evaluation
+  // ============================================================
+
+  /**
+   * Parse the examples of a group that does not update the weights with opts.numParallelThreads threads.
+   * - The threads share a read-only copy of the parameters.
+   * - Each thread adds to its own Evaluation; these are merged into |evaluation| at the end.
+   * - The outputs (learner events, predicted values, examples) are written by this thread
+   *   in the order of the examples, through writers that stay open for the whole group.
+   * Examples are read from |examples| as they are submitted, and at most
+   * opts.parallelEvalWindow examples per thread are kept in memory.
+   */
+  private void evaluateExamplesInParallel(int iter, String group, String prefix,
+      List<Example> examples, Evaluation evaluation) {
+    final Params readOnlyParams = params.readOnlyCopy();
+    final int n = examples.size();
+    final List<Evaluation> threadEvaluations = Collections.synchronizedList(new ArrayList<>());
+    final ThreadLocal<Evaluation> threadEvaluation = ThreadLocal.withInitial(() -> {
+      Evaluation e = new Evaluation();
+      threadEvaluations.add(e);
+      return e;
+    });
+    int window = opts.numParallelThreads * Math.max(opts.parallelEvalWindow, 1);
+    ExecutorService pool = Executors.newFixedThreadPool(opts.numParallelThreads);
+    ExampleOutputs outputs = new ExampleOutputs(iter, group);
+    LogInfo.begin_threads();
+    try {
+      Deque<Future<Example>> pending = new ArrayDeque<>();
+      Iterator<Example> exampleIterator = examples.iterator();
+      for (int e = 0; exampleIterator.hasNext(); e++) {
+        final Example ex = exampleIterator.next();
+        final int i = e;
+        pending.add(pool.submit(() -> {
+          LogInfo.begin_track_printAll("%s: example %s/%s: %s", prefix, i, n, ex.id);
+          ex.log();
+          parseExample(readOnlyParams, ex, false);
+          LogInfo.logs("Current: %s", ex.evaluation.summary());
+          threadEvaluation.get().add(ex.evaluation);
+          LogInfo.end_track();
+          return ex;
+        }));
+        if (pending.size() >= window)
+          outputs.write(pending.poll().get());
+      }
+      while (!pending.isEmpty())
+        outputs.write(pending.poll().get());
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+      outputs.close();
+      LogInfo.end_threads();
+    }
+    for (Evaluation e : threadEvaluations)
+      evaluation.add(e);
+    LogInfo.logs("Cumulative(%s): %s", prefix, evaluation.summary());
+  }
+
+  // Per-example outputs of a group, written in order.
+  private class ExampleOutputs {
+    private final int iter;
+    private final String group;
+    private final PrintWriter predDerivationsOut, predValuesOut;
+    private final JsonExampleWriter predExamplesOut;
+
+    ExampleOutputs(int iter, String group) {
+      this.iter = iter;
+      this.group = group;
+      // Append, as ExampleUtils does (the evaluation summary is added after the examples)
+      this.predDerivationsOut = opts.outputPredDerivations ?
+          openOutAppend("preds-iter" + iter + "-" + group + ".examples") : null;
+      this.predValuesOut = opts.outputPredValues ?
+          openOutAppend("preds-iter" + iter + "-" + group + ".tsv") : null;
+      String path = opts.outputPredExamples ? Execution.getFile("preds-iter" + iter + "-" + group + ".json") : null;
+      this.predExamplesOut = path != null ? new JsonExampleWriter(path) : null;
+    }
+
+    private PrintWriter openOutAppend(String basePath) {
+      String path = Execution.getFile(basePath);
+      return path != null ? IOUtils.openOutAppendHard(path) : null;
+    }
+
+    void write(Example ex) {
+      printLearnerEventsIter(ex, iter, group);
+      if (predDerivationsOut != null)
+        ExampleUtils.writeParaphraseSDF(predDerivationsOut, ex, true);
+      if (predValuesOut != null)
+        ExampleUtils.writePredictionTSV(predValuesOut, ex);
+      if (predExamplesOut != null)
+        predExamplesOut.write(ex);
+      // To save memory
+      ex.clean();
+    }
+
+    void close() {
+      if (predDerivationsOut != null) predDerivationsOut.close();
+      if (predValuesOut != null) predValuesOut.close();
+      if (predExamplesOut != null) predExamplesOut.close();
+    }
+  }
+
   private void checkGradient(Example ex, ParserState state) {
     double eps = 1e-2;
     for (String feature : state.expectedCounts.keySet()) {
@@ -55,6 +55,8 @@ public class MarkFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof MarkFormula)) return false;
     MarkFormula that = (MarkFormula) thatObj;
     return this.var.equals(that.var) && this.body.equals(that.body);
@@ -2,6 +2,9 @@ package edu.stanford.nlp.sempre;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import fig.basic.*;
 import jline.console.ConsoleReader;
@@ -11,6 +14,11 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A Master manages multiple sessions. Currently, they all share the same model,
@@ -40,6 +48,17 @@ public class Master {
 
     @Option(gloss = "Write out new grammar rules")
     public String newGrammarPath;
+
+    @Option(gloss = "Process queries of different sessions concurrently (instead of one query at a time)")
+    public boolean concurrentQueries = false;
+    @Option(gloss = "Maximum number of sessions to keep (<= 0 for unbounded)")
+    public int maxSessions = 10000;
+    @Option(gloss = "Discard sessions that have not been accessed for this many minutes (<= 0 to keep forever)")
+    public int sessionExpireMinutes = 24 * 60;
+    @Option(gloss = "Each session gets its own parameters and learner")
+    public boolean independentSessions = false;
+    @Option(gloss = "Number of parse results to cache for repeated utterances (0 to disable)")
+    public int parseCacheSize = 0;
   }
   public static Options opts = new Options();
   
@@ -86,11 +105,78 @@ public class Master {
 
   protected Builder builder;
   protected Learner learner;
-  protected HashMap<String, Session> sessions = new LinkedHashMap<>();
+  protected Cache<String, Session> sessions;
+
+  // For concurrent queries:
+  // - Queries on the same session are serialized by locking the session.
+  // - Utterances share the model (read lock); commands that may change
+  //   the grammar, parameters, or options need exclusive access (write lock).
+  private final ReadWriteLock modelLock = new ReentrantReadWriteLock();
+  private ThreadLogBuffer logBuffer;
+  private AsyncLogAppender logAppender;
+
+  // Parse results of recent utterances.
+  // The key contains everything the result depends on (see ParseCacheKey),
+  // and the cache is cleared whenever a command may have changed the model.
+  private static class CachedParse {
+    final LanguageInfo languageInfo;
+    final List<Derivation> predDerivations;
+    final Evaluation evaluation;
+
+    CachedParse(Example ex) {
+      this.languageInfo = ex.languageInfo;
+      this.predDerivations = new ArrayList<>(ex.predDerivations);
+      this.evaluation = ex.evaluation;
+    }
+  }
+  // The graph, parameters, grammar, and parser are compared by identity
+  // (the parameters and the grammar are updated in place, so their versions are compared as well).
+  private static class ParseCacheKey {
+    final String query;
+    final String context;
+    final KnowledgeGraph graph;  // The lisp tree of the context only contains a summary of the graph
+    final Params params;
+    final long paramsVersion;
+    final Grammar grammar;
+    final long grammarVersion;
+    final Parser parser;
+
+    ParseCacheKey(String query, ContextValue context, Params params, Grammar grammar, Parser parser) {
+      this.query = query.trim().replaceAll("\\s+", " ");
+      this.context = context.toLispTree().toString();
+      this.graph = context.graph;
+      this.params = params;
+      this.paramsVersion = params.getVersion();
+      this.grammar = grammar;
+      this.grammarVersion = grammar.getVersion();
+      this.parser = parser;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (!(o instanceof ParseCacheKey)) return false;
+      ParseCacheKey that = (ParseCacheKey) o;
+      return query.equals(that.query) && context.equals(that.context) && graph == that.graph &&
+          params == that.params && paramsVersion == that.paramsVersion &&
+          grammar == that.grammar && grammarVersion == that.grammarVersion && parser == that.parser;
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(query, context, paramsVersion, grammarVersion);
+    }
+  }
+  private Cache<ParseCacheKey, CachedParse> parseCache;
 
   public Master(Builder builder) {
     this.builder = builder;
     this.learner = new Learner(builder.parser, builder.params, new Dataset());
+    CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
+    if (opts.maxSessions > 0)
+      cacheBuilder.maximumSize(opts.maxSessions);
+    if (opts.sessionExpireMinutes > 0)
+      cacheBuilder.expireAfterAccess(opts.sessionExpireMinutes, TimeUnit.MINUTES);
+    this.sessions = cacheBuilder.build();
+    if (opts.parseCacheSize > 0)
+      this.parseCache = CacheBuilder.newBuilder().maximumSize(opts.parseCacheSize).recordStats().build();
   }
 
   public Params getParams() { return builder.params; }
@@ -98,16 +184,22 @@ public class Master {
   // Return the unique session identified by session id |id|.
   // Create a new session if one doesn't exist.
   public Session getSession(String id) {
-    Session session = sessions.get(id);
-    if (session == null) {
-      session = new Session(id);
-      for (String path : opts.scriptPaths)
-        processScript(session, path);
-      for (String command : opts.commands)
-        processQuery(session, command);
-      if (id != null)
-        sessions.put(id, session);
+    if (id == null) return createSession(null);
+    try {
+      return sessions.get(id, () -> createSession(id));
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
     }
+  }
+
+  private Session createSession(String id) {
+    Session session = new Session(id);
+    if (opts.independentSessions)
+      session.useIndependentLearner(builder);
+    for (String path : opts.scriptPaths)
+      processScript(session, path);
+    for (String command : opts.commands)
+      processQuery(session, command);
     return session;
   }
 
@@ -170,47 +262,121 @@ public class Master {
   }
 
   // Process user's input |line|
-  // Currently, synchronize a very crude level.
-  // In the future, refine this.
-  // Currently need the synchronization because of writing to stdout.
-  public synchronized Response processQuery(Session session, String line) {
+  public Response processQuery(Session session, String line) {
+    if (opts.concurrentQueries)
+      return processQueryConcurrently(session, line);
+    // Synchronize at a very crude level, since we need to capture the logging.
+    synchronized (this) {
+      line = line.trim();
+      Response response = new Response();
+
+      // Capture log output and put it into response.
+      // Hack: modifying a static variable to capture the logging.
+      // Make sure we're synchronized!
+      StringWriter stringOut = new StringWriter();
+      LogInfo.setFileOut(new PrintWriter(stringOut));
+
+      if (line.startsWith("("))
+        handleCommand(session, line, response);
+      else
+        handleUtterance(session, line, response);
+
+      // Clean up
+      for (String outLine : stringOut.toString().split("\n"))
+        response.lines.add(outLine);
+      LogInfo.setFileOut(null);
+
+      logInteraction(session, line, response);
+      return response;
+    }
+  }
+
+  // Process user's input |line| while other sessions are being processed.
+  // Log output is captured per thread (see ThreadLogBuffer).
+  private Response processQueryConcurrently(Session session, String line) {
     line = line.trim();
     Response response = new Response();
 
-    // Capture log output and put it into response.
-    // Hack: modifying a static variable to capture the logging.
-    // Make sure we're synchronized!
-    StringWriter stringOut = new StringWriter();
-    LogInfo.setFileOut(new PrintWriter(stringOut));
-
-    if (line.startsWith("("))
-      handleCommand(session, line, response);
-    else
-      handleUtterance(session, line, response);
-
-    // Clean up
-    for (String outLine : stringOut.toString().split("\n"))
-      response.lines.add(outLine);
-    LogInfo.setFileOut(null);
-
-    // Log interaction to disk
-    if (!Strings.isNullOrEmpty(opts.logPath)) {
-      PrintWriter out = IOUtils.openOutAppendHard(opts.logPath);
-      out.println(
-          Joiner.on("\t").join(
-              Lists.newArrayList(
-                  "date=" + new Date().toString(),
-                  "sessionId=" + session.id,
-                  "remote=" + session.remoteHost,
-                  "format=" + session.format,
-                  "query=" + line,
-                  "response=" + summaryString(response))));
-      out.close();
+    ThreadLogBuffer buffer = getLogBuffer();
+    buffer.begin();
+    boolean exclusive = needsExclusiveAccess(session, line);
+    Lock lock = exclusive ? modelLock.writeLock() : modelLock.readLock();
+    try {
+      synchronized (session) {
+        lock.lock();
+        try {
+          if (line.startsWith("("))
+            handleCommand(session, line, response);
+          else
+            handleUtterance(session, line, response);
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      for (String outLine : buffer.end().split("\n"))
+        response.lines.add(outLine);
     }
 
+    logInteraction(session, line, response);
     return response;
   }
 
+  // Commands that only read the shared model (they may modify the session).
+  private static final Set<String> sessionCommands = ImmutableSet.of(
+      "help", "status", "get", "select", "s", "type", "execute", "context", "loadgraph");
+
+  private boolean needsExclusiveAccess(Session session, String line) {
+    if (!line.startsWith("(")) return false;
+    String command;
+    try {
+      command = LispTree.proto.parseFromString(line).child(0).value;
+    } catch (RuntimeException e) {
+      return true;
+    }
+    if (command == null) return false;
+    if (sessionCommands.contains(command)) return false;
+    // Learning only touches the session if it has its own learner
+    if (session.learner != null &&
+        (command.equals("accept") || command.equals("a") || command.equals("answer")))
+      return false;
+    return true;
+  }
+
+  private synchronized ThreadLogBuffer getLogBuffer() {
+    if (logBuffer == null) {
+      logBuffer = new ThreadLogBuffer();
+      LogInfo.setFileOut(new PrintWriter(logBuffer, true));
+    }
+    return logBuffer;
+  }
+
+  // Log interaction to disk
+  private void logInteraction(Session session, String line, Response response) {
+    if (Strings.isNullOrEmpty(opts.logPath)) return;
+    String entry = Joiner.on("\t").join(
+        Lists.newArrayList(
+            "date=" + new Date().toString(),
+            "sessionId=" + session.id,
+            "remote=" + session.remoteHost,
+            "format=" + session.format,
+            "query=" + line,
+            "response=" + summaryString(response)));
+    synchronized (this) {
+      if (logAppender == null || !logAppender.path.equals(opts.logPath)) {
+        if (logAppender != null) logAppender.close();
+        logAppender = new AsyncLogAppender(opts.logPath);
+      }
+      logAppender.append(entry);
+    }
+  }
+
+  // Write out pending log entries.
+  public synchronized void close() {
+    if (logAppender != null) logAppender.close();
+    logAppender = null;
+  }
+
   String summaryString(Response response) {
     if (response.getExample() != null)
       return response.getFormulaAnswer();
@@ -227,27 +393,58 @@ public class Master {
     b.setId("session:" + session.id);
     b.setUtterance(query);
     b.setContext(session.context);
-    Example ex = b.createExample();
-
-    ex.preprocess();
 
-    // Parse!
-    builder.parser.parse(builder.params, ex, false);
+    ParseCacheKey key = parseCacheKey(session, query);
+    CachedParse cached = (key == null ? null : parseCache.getIfPresent(key));
+    Example ex;
+    if (cached != null) {
+      // Each response gets its own example, since commands such as (accept) modify it.
+      ex = b.setLanguageInfo(cached.languageInfo).createExample();
+      ex.predDerivations = new ArrayList<>(cached.predDerivations);
+      ex.evaluation = cached.evaluation;
+      LogInfo.logs("Using cached parse");
+    } else {
+      ex = b.createExample();
+      ex.preprocess();
+
+      // Parse!
+      builder.parser.parse(getParams(session), ex, false);
+      if (key != null)
+        parseCache.put(key, new CachedParse(ex));
+    }
 
     response.ex = ex;
     ex.logWithoutContext();
     if (ex.predDerivations.size() > 0) {
       response.candidateIndex = 0;
-      printDerivation(response.getDerivation());
+      printDerivation(session, response.getDerivation());
     }
     session.updateContext(ex, opts.contextMaxExchanges);
   }
 
-  private void printDerivation(Derivation deriv) {
+  // Parameters used for parsing the utterances of the session
+  private Params getParams(Session session) {
+    return session.params != null ? session.params : builder.params;
+  }
+
+  // Return the key of the parse cache for parsing |query| in the current context of |session|,
+  // or null if the cache is disabled.
+  private ParseCacheKey parseCacheKey(Session session, String query) {
+    if (parseCache == null) return null;
+    return new ParseCacheKey(query, session.context, getParams(session), builder.grammar, builder.parser);
+  }
+
+  // Drop cached parses (called when the model may have changed).
+  private void invalidateParseCache() {
+    if (parseCache != null)
+      parseCache.invalidateAll();
+  }
+
+  private void printDerivation(Session session, Derivation deriv) {
     // Print features
     HashMap<String, Double> featureVector = new HashMap<>();
     deriv.incrementAllFeatureVector(1, featureVector);
-    FeatureVector.logFeatureWeights("Pred", featureVector, builder.params);
+    FeatureVector.logFeatureWeights("Pred", featureVector, getParams(session));
 
     // Print choices
     Map<String, Integer> choices = new LinkedHashMap<>();
@@ -275,9 +472,11 @@ public class Master {
       printHelp();
     } else if (command.equals("status")) {
       LogInfo.begin_track("%d sessions", sessions.size());
-      for (Session otherSession : sessions.values())
+      for (Session otherSession : sessions.asMap().values())
         LogInfo.log(otherSession + (session == otherSession ? " *" : ""));
       LogInfo.end_track();
+      if (parseCache != null)
+        LogInfo.logs("Parse cache: %d entries, %s", parseCache.size(), parseCache.stats());
       StopWatchSet.logStats();
     } else if (command.equals("reload")) {
       builder.build();
@@ -330,7 +529,7 @@ public class Master {
       response.ex = ex;
       response.candidateIndex = index;
       session.updateContextWithNewAnswer(ex, response.getDerivation());
-      printDerivation(response.getDerivation());
+      printDerivation(session, response.getDerivation());
 
       // Add a training example.  While the user selects a particular derivation, there are three ways to interpret this signal:
       // 1. This is the correct derivation (Derivation).
@@ -345,7 +544,7 @@ public class Master {
         ex.setTargetFormula(response.getDerivation().getFormula());
         ex.setTargetValue(response.getDerivation().getValue());
         ex.setContext(session.getContextExcludingLast());
-        addNewExample(ex);
+        addNewExample(session, ex);
       }
     } else if (command.equals("answer")) {
       if (tree.children.size() != 2) {
@@ -359,7 +558,7 @@ public class Master {
         return;
       }
       ex.setTargetValue(Values.fromLispTree(tree.child(1)));
-      addNewExample(ex);
+      addNewExample(session, ex);
     } else if (command.equals("rule")) {
       int n = builder.grammar.rules.size();
       builder.grammar.addStatement(tree.toString());
@@ -393,9 +592,13 @@ public class Master {
     else {
       LogInfo.log("Invalid command: " + tree);
     }
+
+    // Commands other than session commands may change the grammar, parameters, or options.
+    if (command != null && !sessionCommands.contains(command))
+      invalidateParseCache();
   }
 
-  void addNewExample(Example origEx) {
+  void addNewExample(Session session, Example origEx) {
     // Create the new example, but only add relevant information.
     Example ex = new Example.Builder()
         .setId(origEx.id)
@@ -407,15 +610,22 @@ public class Master {
 
     if (!Strings.isNullOrEmpty(opts.newExamplesPath)) {
       LogInfo.begin_track("Adding new example");
-      Dataset.appendExampleToFile(opts.newExamplesPath, ex);
+      synchronized (this) {
+        Dataset.appendExampleToFile(opts.newExamplesPath, ex);
+      }
       LogInfo.end_track();
     }
 
     if (opts.onlineLearnExamples) {
       LogInfo.begin_track("Updating parameters");
-      learner.onlineLearnExample(origEx);
-      if (!Strings.isNullOrEmpty(opts.newParamsPath))
-        builder.params.write(opts.newParamsPath);
+      if (session.learner != null) {
+        session.learner.onlineLearnExample(origEx);
+      } else {
+        learner.onlineLearnExample(origEx);
+        if (!Strings.isNullOrEmpty(opts.newParamsPath))
+          builder.params.write(opts.newParamsPath);
+      }
+      invalidateParseCache();
       LogInfo.end_track();
     }
   }
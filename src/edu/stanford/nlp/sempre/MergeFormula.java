@@ -60,6 +60,8 @@ public class MergeFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof MergeFormula)) return false;
     MergeFormula that = (MergeFormula) thatObj;
     if (this.mode != that.mode) return false;
@@ -44,6 +44,8 @@ public class NotFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof NotFormula)) return false;
     NotFormula that = (NotFormula) thatObj;
     if (!this.child.equals(that.child)) return false;
@@ -5,9 +5,8 @@ import com.google.common.collect.Lists;
 
 import fig.basic.*;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -64,12 +63,20 @@ public class Params {
   // for lazy l1-reg update
   Map<String, Integer> l1UpdateTimeMap = new HashMap<>();
 
+  // Incremented whenever the weights change (so that cached predictions can be invalidated).
+  private long version;
+  public synchronized long getVersion() { return version; }
+
+  // Read-only copies (see readOnlyCopy()) are read without locking.
+  private boolean readOnly = false;
+
   // Initialize the weights
   public void init(List<Pair<String, Double>> initialization) {
     if (!weights.isEmpty())
       throw new RuntimeException("Initialization is not legal when there are non-zero weights");
     for (Pair<String, Double> pair: initialization)
       weights.put(pair.getFirst(), pair.getSecond());
+    synchronized (this) { version++; }
   }
 
   // Read parameters from |path|.
@@ -86,6 +93,7 @@ public class Params {
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    synchronized (this) { version++; }
     LogInfo.logs("Read %s weights", weights.size());
     LogInfo.end_track();
   }
@@ -105,12 +113,14 @@ public class Params {
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    synchronized (this) { version++; }
     LogInfo.logs("Read %s weights", weights.size());
     LogInfo.end_track();
   }
 
   // Update weights by adding |gradient| (modified appropriately with step size).
   public synchronized void update(Map<String, Double> gradient) {
+    if (readOnly) throw new UnsupportedOperationException("Read-only parameters");
     for (Map.Entry<String, Double> entry : gradient.entrySet()) {
       String f = entry.getKey();
       double g = entry.getValue();
@@ -145,6 +155,7 @@ public class Params {
       }
     }
     numUpdates++;
+    version++;
     if (l1Reg == L1Reg.LAZY && opts.lazyL1FullUpdateFreq > 0 && numUpdates % opts.lazyL1FullUpdateFreq == 0) {
       LogInfo.begin_track("Fully apply L1 regularization.");
       finalizeWeights();
@@ -202,17 +213,24 @@ public class Params {
       l1UpdateTimeMap.remove(f);
   }
 
-  public synchronized double getWeight(String f) {
-    if (l1Reg == L1Reg.LAZY)
-      lazyL1Update(f);
-    if (opts.initWeightsRandomly)
-      return MapUtils.getDouble(weights, f, 2 * opts.initRandom.nextDouble() - 1);
-    else {
+  public double getWeight(String f) {
+    if (readOnly && !opts.initWeightsRandomly)
       return MapUtils.getDouble(weights, f, opts.defaultWeight);
+    synchronized (this) {
+      if (l1Reg == L1Reg.LAZY)
+        lazyL1Update(f);
+      if (opts.initWeightsRandomly)
+        return MapUtils.getDouble(weights, f, 2 * opts.initRandom.nextDouble() - 1);
+      else {
+        return MapUtils.getDouble(weights, f, opts.defaultWeight);
+      }
     }
   }
 
-  public synchronized Map<String, Double> getWeights() { finalizeWeights(); return weights; }
+  public Map<String, Double> getWeights() {
+    if (readOnly) return Collections.unmodifiableMap(weights);
+    synchronized (this) { finalizeWeights(); return weights; }
+  }
 
   public void write(PrintWriter out) { write(null, out); }
 
@@ -260,6 +278,16 @@ public class Params {
     return result;
   }
 
+  /**
+   * Return a copy of the current weights that cannot be updated and can be read
+   * by several threads without locking (e.g., for evaluation).
+   */
+  public Params readOnlyCopy() {
+    Params result = copyParams();
+    result.readOnly = true;
+    return result;
+  }
+
   // copy params starting with prefix and drop the prefix
   public Params copyParamsByPrefix(String prefix)  {
     Params result = new Params();
@@ -284,4 +312,98 @@ public class Params {
     }
     return result;
   }
+
+  // ============================================================
+  // Training state
+  // ============================================================
+
+  /**
+   * Return a deep copy of everything that update() depends on (weights,
+   * AdaGrad and dual averaging sums, lazy L1 times, number of updates),
+   * so that training can continue from the copy exactly.
+   */
+  public Params copyState() {
+    Params result = new Params();
+    result.setState(this);
+    return result;
+  }
+
+  // Replace the training state with a copy of the state of |that|.
+  public void setState(Params that) {
+    Map<String, Double> weights, sumSquaredGradients, sumGradients;
+    Map<String, Integer> l1UpdateTimeMap;
+    int numUpdates;
+    synchronized (that) {
+      weights = new HashMap<>(that.weights);
+      sumSquaredGradients = new HashMap<>(that.sumSquaredGradients);
+      sumGradients = new HashMap<>(that.sumGradients);
+      l1UpdateTimeMap = new HashMap<>(that.l1UpdateTimeMap);
+      numUpdates = that.numUpdates;
+    }
+    synchronized (this) {
+      if (readOnly) throw new UnsupportedOperationException("Read-only parameters");
+      this.weights = weights;
+      this.sumSquaredGradients = sumSquaredGradients;
+      this.sumGradients = sumGradients;
+      this.l1UpdateTimeMap = l1UpdateTimeMap;
+      this.numUpdates = numUpdates;
+      version++;
+    }
+  }
+
+  // Binary format: magic, format version, numUpdates, feature names, then
+  // (feature index, value) pairs for each map of the training state.
+  private static final int BINARY_MAGIC = 0x5350524d;  // "SPRM"
+  private static final int BINARY_VERSION = 1;
+
+  public synchronized void writeBinary(DataOutputStream out) throws IOException {
+    Map<String, Integer> index = new LinkedHashMap<>();
+    for (Map<String, ?> map : Arrays.<Map<String, ?>>asList(weights, sumSquaredGradients, sumGradients, l1UpdateTimeMap))
+      for (String f : map.keySet())
+        if (!index.containsKey(f)) index.put(f, index.size());
+    out.writeInt(BINARY_MAGIC);
+    out.writeInt(BINARY_VERSION);
+    out.writeInt(numUpdates);
+    out.writeInt(index.size());
+    for (String f : index.keySet()) {
+      byte[] bytes = f.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+    for (Map<String, Double> map : Arrays.asList(weights, sumSquaredGradients, sumGradients)) {
+      out.writeInt(map.size());
+      for (Map.Entry<String, Double> entry : map.entrySet()) {
+        out.writeInt(index.get(entry.getKey()));
+        out.writeDouble(entry.getValue());
+      }
+    }
+    out.writeInt(l1UpdateTimeMap.size());
+    for (Map.Entry<String, Integer> entry : l1UpdateTimeMap.entrySet()) {
+      out.writeInt(index.get(entry.getKey()));
+      out.writeInt(entry.getValue());
+    }
+  }
+
+  public static Params readBinary(DataInputStream in) throws IOException {
+    if (in.readInt() != BINARY_MAGIC) throw new IOException("Not a binary params file");
+    int formatVersion = in.readInt();
+    if (formatVersion != BINARY_VERSION) throw new IOException("Unsupported binary params version: " + formatVersion);
+    Params result = new Params();
+    result.numUpdates = in.readInt();
+    String[] features = new String[in.readInt()];
+    for (int i = 0; i < features.length; i++) {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      features[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    for (Map<String, Double> map : Arrays.asList(result.weights, result.sumSquaredGradients, result.sumGradients)) {
+      int n = in.readInt();
+      for (int i = 0; i < n; i++)
+        map.put(features[in.readInt()], in.readDouble());
+    }
+    int n = in.readInt();
+    for (int i = 0; i < n; i++)
+      result.l1UpdateTimeMap.put(features[in.readInt()], in.readInt());
+    return result;
+  }
 }
@@ -0,0 +1,177 @@
+package edu.stanford.nlp.sempre;
+
+import fig.basic.LogInfo;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Writes parameters and training checkpoints, optionally on a background thread
+ * so that training does not wait for the disk.
+ *
+ * - The parameters are copied (Params.copyState) on the calling thread, which is much
+ *   cheaper than formatting them; the copy is written later.
+ * - Each file is written to a temporary file and renamed, so a crash never leaves a partial file.
+ * - A pending write that has not started yet is replaced by a newer write to the same path.
+ *
+ * A checkpoint contains the training state of the parameters and the position of the
+ * learner (iteration, group, and number of examples of the group already processed),
+ * so that Learner can resume training exactly (Learner.opts.resumeFrom).
+ */
+public class ParamsCheckpointer implements Closeable {
+  public static class Checkpoint {
+    public final Params params;
+    public final int iter;
+    public final String group;
+    public final int numExamples;
+
+    public Checkpoint(Params params, int iter, String group, int numExamples) {
+      this.params = params;
+      this.iter = iter;
+      this.group = group;
+      this.numExamples = numExamples;
+    }
+  }
+
+  private static final int CHECKPOINT_MAGIC = 0x53434b50;  // "SCKP"
+  private static final int CHECKPOINT_VERSION = 1;
+
+  private final ExecutorService executor;  // null if writing synchronously
+  private final Map<String, Runnable> pending = new LinkedHashMap<>();  // path => write (not started yet)
+  private final List<Future<?>> futures = new ArrayList<>();
+  private RuntimeException failure = null;  // First failed background write (rethrown by flush)
+
+  public ParamsCheckpointer(boolean async) {
+    this.executor = !async ? null : Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "ParamsCheckpointer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // Write the parameters in the text format of Params.write, then run |then| (can be null).
+  public void saveText(String path, Params params, Runnable then) {
+    final Params snapshot = params.copyState();
+    submit(path, () -> {
+      writeAtomically(path, out -> {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+        snapshot.write(writer);
+        writer.flush();
+      });
+      if (then != null) then.run();
+    });
+  }
+
+  public void saveCheckpoint(String path, Params params, int iter, String group, int numExamples) {
+    final Params snapshot = params.copyState();
+    submit(path, () -> writeAtomically(path, out -> {
+      DataOutputStream dataOut = new DataOutputStream(out);
+      dataOut.writeInt(CHECKPOINT_MAGIC);
+      dataOut.writeInt(CHECKPOINT_VERSION);
+      dataOut.writeInt(iter);
+      dataOut.writeUTF(group);
+      dataOut.writeInt(numExamples);
+      snapshot.writeBinary(dataOut);
+      dataOut.flush();
+    }));
+  }
+
+  public static Checkpoint loadCheckpoint(String path) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+      if (in.readInt() != CHECKPOINT_MAGIC) throw new IOException("Not a checkpoint: " + path);
+      int version = in.readInt();
+      if (version != CHECKPOINT_VERSION) throw new IOException("Unsupported checkpoint version: " + version);
+      int iter = in.readInt();
+      String group = in.readUTF();
+      int numExamples = in.readInt();
+      return new Checkpoint(Params.readBinary(in), iter, group, numExamples);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // ============================================================
+  // Writing
+  // ============================================================
+
+  private interface Output {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private static void writeAtomically(String path, Output output) {
+    File file = new File(path).getAbsoluteFile();
+    try {
+      File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+        output.write(out);
+      } catch (IOException | RuntimeException e) {
+        tmp.delete();
+        throw e;
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void submit(String path, Runnable write) {
+    if (executor == null) {
+      write.run();
+      return;
+    }
+    synchronized (this) {
+      boolean replaced = pending.put(path, write) != null;
+      futures.removeIf(Future::isDone);
+      if (!replaced)
+        futures.add(executor.submit(() -> runPending(path)));
+    }
+  }
+
+  private void runPending(String path) {
+    Runnable write;
+    synchronized (this) {
+      write = pending.remove(path);
+    }
+    if (write == null) return;
+    try {
+      write.run();
+    } catch (RuntimeException e) {
+      LogInfo.warnings("ParamsCheckpointer: failed to write %s: %s", path, e);
+      synchronized (this) {
+        if (failure == null) failure = e;
+      }
+    }
+  }
+
+  // Wait until all the writes submitted so far are done.
+  // Throw if a background write has failed since the last flush.
+  public void flush() {
+    List<Future<?>> toWait;
+    synchronized (this) {
+      toWait = new ArrayList<>(futures);
+      futures.clear();
+    }
+    try {
+      for (Future<?> future : toWait)
+        future.get();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    RuntimeException e;
+    synchronized (this) {
+      e = failure;
+      failure = null;
+    }
+    if (e != null) throw e;
+  }
+
+  @Override
+  public void close() {
+    flush();
+    if (executor != null) executor.shutdown();
+  }
+}
@@ -59,6 +59,9 @@ public abstract class Parser {
 
     @Option(gloss = "Call SetEvaluation during parsing")
     public boolean callSetEvaluation = true;
+
+    @Option(gloss = "After parsing, keep only the roots of the predicted derivations (features folded in) to save memory")
+    public boolean compactPredDerivations = false;
   }
 
   public static final Options opts = new Options();
@@ -183,8 +186,15 @@ public abstract class Parser {
     }
     // Clean up temporary state used during parsing
     ex.clearTempState();
+    if (ex.languageInfo != null)
+      ex.languageInfo.clearSpanTables();
     for (Derivation deriv : ex.predDerivations)
       deriv.clearTempState();
+    if (opts.compactPredDerivations) {
+      // In place, since state.predDerivations is the same list
+      for (int i = 0; i < ex.predDerivations.size(); i++)
+        ex.predDerivations.set(i, ex.predDerivations.get(i).compact());
+    }
     return state;
   }
 
@@ -21,6 +21,8 @@ public abstract class ParserState {
     public double probDiffPruningThresh = 100;
     @Option(gloss = "Throw features away after scoring to save memory")
     public boolean throwFeaturesAway = false;
+    @Option(gloss = "When pruning a cell to the beam, select the top derivations instead of sorting the whole cell")
+    public boolean partialSortCells = true;
   }
   public static Options opts = new Options();
 
@@ -131,7 +133,13 @@ public abstract class ParserState {
         deriv.score += Parser.opts.derivationScoreRandom.nextDouble() * Parser.opts.derivationScoreNoise;
     }
 
-    Derivation.sortByScore(derivations);
+    // Only the derivations that stay on the beam need to be sorted
+    int beamSize = getBeamSize();
+    if (opts.partialSortCells && !opts.pruneByProbDiff
+        && Parser.opts.verbose < 3 && derivations.size() > beamSize)
+      sortTopByScore(derivations, beamSize);
+    else
+      Derivation.sortByScore(derivations);
 
     // Print out information
     if (Parser.opts.verbose >= 3) {
@@ -166,7 +174,6 @@ public abstract class ParserState {
     //prune by beam size
     else {
       // Keep only the top hypotheses
-      int beamSize = getBeamSize();
       if (derivations.size() > beamSize && Parser.opts.verbose >= 1) {
         LogInfo.logs("ParserState.pruneCell %s: Pruning %d -> %d derivations", cellDescription, derivations.size(), beamSize);
       }
@@ -177,6 +184,42 @@ public abstract class ParserState {
     }
   }
 
+  /**
+   * Move the top |k| derivations to the front of the list in sorted order,
+   * using a heap of size |k| (O(n log k) instead of O(n log n) for the full sort).
+   * The first |k| derivations are the same as after Derivation.sortByScore
+   * (ties are broken by the original order, like in the stable sort).
+   * The other derivations follow in their original order.
+   */
+  static void sortTopByScore(List<Derivation> derivations, int k) {
+    final Derivation[] array = derivations.toArray(new Derivation[derivations.size()]);
+    // Worst derivation on top
+    Comparator<Integer> worstFirst = (i, j) -> {
+      int cmp = Derivation.derivScoreComparator.compare(array[j], array[i]);
+      return cmp != 0 ? cmp : Integer.compare(j, i);
+    };
+    java.util.PriorityQueue<Integer> heap = new java.util.PriorityQueue<>(k + 1, worstFirst);
+    for (int i = 0; i < array.length; i++) {
+      if (heap.size() < k) {
+        heap.add(i);
+      } else if (worstFirst.compare(i, heap.peek()) > 0) {
+        heap.poll();
+        heap.add(i);
+      }
+    }
+    int[] top = new int[heap.size()];
+    boolean[] isTop = new boolean[array.length];
+    for (int j = top.length - 1; j >= 0; j--) {
+      top[j] = heap.poll();
+      isTop[top[j]] = true;
+    }
+    derivations.clear();
+    for (int i : top)
+      derivations.add(array[i]);
+    for (int i = 0; i < array.length; i++)
+      if (!isTop[i]) derivations.add(array[i]);
+  }
+
   // -- Base case --
   public List<Derivation> gatherTokenAndPhraseDerivations() {
     List<Derivation> derivs = new ArrayList<>();
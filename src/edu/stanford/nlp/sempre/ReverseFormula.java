@@ -48,6 +48,8 @@ public class ReverseFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof ReverseFormula)) return false;
     ReverseFormula that = (ReverseFormula) thatObj;
     if (!this.child.equals(that.child)) return false;
@@ -1,26 +1,34 @@
 package edu.stanford.nlp.sempre;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import fig.basic.*;
 
 /**
  * Maintain a hierarchy (DAG) over strings.
  *   subtype < type < supertype
  *
+ * Besides the string sets, the hierarchy is compiled into a lattice over interned type ids
+ * (supertypes are bitsets), which is what AtomicSemType and UnionSemType use for meets.
+ *
  * @author Percy Liang
  */
 public class SemTypeHierarchy {
   public static class Options {
     @Option(gloss = "Throw an error if the type is not registered in the type hierarchy.")
       public boolean failOnUnknownTypes = false;
+    @Option(gloss = "Maximum number of memoized meets of union types (0 to disable)")
+      public int meetCacheSize = 100000;
   }
   public static Options opts = new Options();
 
   public static final SemTypeHierarchy singleton = new SemTypeHierarchy();
 
   // type => list of all supertypes (assume we don't have that many supertypes)
-  private Map<String, Set<String>> supertypesMap = new HashMap<>();  // type => supertypes of type
-  private Map<String, Set<String>> subtypesMap = new HashMap<>();    // type => subtype of type
+  // Unknown types are added lazily (possibly by several parsing threads), so the sets are
+  // copied on write: the returned sets never change and can be read without locking.
+  private Map<String, Set<String>> supertypesMap = new ConcurrentHashMap<>();  // type => supertypes of type
+  private Map<String, Set<String>> subtypesMap = new ConcurrentHashMap<>();    // type => subtype of type
   // Note: don't always need this, so can maybe remove later
 
   public SemTypeHierarchy() {
@@ -44,18 +52,49 @@ public class SemTypeHierarchy {
     addSupertype(CanonicalNames.ANY, CanonicalNames.ANY);
   }
 
+  // Incremented when types are added explicitly (so that cached type computations can be invalidated).
+  // Unknown types registered lazily by getSupertypes do not count: they get the standard
+  // supertypes of entity, which is what they would have had all along.
+  private volatile long version;
+  public long getVersion() { return version; }
+
   // Add standard supertypes of entity
-  public void addEntitySupertypes(String type) {
+  public synchronized void addEntitySupertypes(String type) {
     // LogInfo.logs("addEntitySupertypes %s", type);
-    addSupertype(type, type);
-    addSupertype(type, CanonicalNames.ENTITY);
-    addSupertype(type, CanonicalNames.ANY);
+    addEntitySupertypesInternal(type);
+    version++;
+  }
+
+  private synchronized void addEntitySupertypesInternal(String type) {
+    addSupertypeInternal(type, type);
+    addSupertypeInternal(type, CanonicalNames.ENTITY);
+    addSupertypeInternal(type, CanonicalNames.ANY);
   }
 
   // Add: subtype < supertype
-  public void addSupertype(String subtype, String supertype) {
-    MapUtils.addToSet(supertypesMap, subtype, supertype);
-    MapUtils.addToSet(subtypesMap, supertype, subtype);
+  public synchronized void addSupertype(String subtype, String supertype) {
+    addSupertypeInternal(subtype, supertype);
+    version++;
+  }
+
+  private void addSupertypeInternal(String subtype, String supertype) {
+    addToSetCopy(supertypesMap, subtype, supertype);
+    addToSetCopy(subtypesMap, supertype, subtype);
+    TypeNode node = getNode(subtype);
+    int supertypeId = getNode(supertype).id;
+    if (node.supertypes == null || !node.supertypes.get(supertypeId)) {
+      BitSet bits = (node.supertypes == null) ? new BitSet() : (BitSet) node.supertypes.clone();
+      bits.set(supertypeId);
+      node.supertypes = bits;
+    }
+  }
+
+  private static void addToSetCopy(Map<String, Set<String>> map, String key, String value) {
+    Set<String> set = map.get(key);
+    if (set != null && set.contains(value)) return;
+    set = (set == null) ? new HashSet<>() : new HashSet<>(set);
+    set.add(value);
+    map.put(key, set);
   }
 
   public Set<String> getSupertypes(String type) {
@@ -63,7 +102,7 @@ public class SemTypeHierarchy {
     if (set == null) {
       if (opts.failOnUnknownTypes)
         LogInfo.fails("SemTypeHierarchy.getSupertypes: don't know about type %s", type);
-      addEntitySupertypes(type);
+      addEntitySupertypesInternal(type);
       set = supertypesMap.get(type);
     }
     return set;
@@ -74,9 +113,86 @@ public class SemTypeHierarchy {
     if (set == null) {
       if (opts.failOnUnknownTypes)
         LogInfo.fails("SemTypeHierarchy.getSubtypes: don't know about type %s", type);
-      addEntitySupertypes(type);
+      addEntitySupertypesInternal(type);
       set = supertypesMap.get(type);
     }
     return set;
   }
+
+  // ============================================================
+  // Compiled lattice
+  // ============================================================
+
+  // Each type name is interned to a node with a small integer id, and the supertypes
+  // of the type are stored as a bitset over these ids.  AtomicSemType keeps its node,
+  // so checking the hierarchy does not require hashing any strings.
+  public static final class TypeNode {
+    public final String name;
+    public final int id;
+    volatile BitSet supertypes;  // null if the type is not registered yet (copied on write)
+    TypeNode(String name, int id) { this.name = name; this.id = id; }
+  }
+
+  private final Map<String, TypeNode> nodes = new ConcurrentHashMap<>();
+
+  public TypeNode getNode(String type) {
+    TypeNode node = nodes.get(type);
+    if (node != null) return node;
+    synchronized (this) {
+      node = nodes.get(type);
+      if (node == null) {
+        node = new TypeNode(type, nodes.size());
+        nodes.put(type, node);
+      }
+      return node;
+    }
+  }
+
+  // Same as getSupertypes(subtype.name).contains(supertype.name)
+  public boolean isSupertype(TypeNode subtype, TypeNode supertype) {
+    BitSet bits = subtype.supertypes;
+    if (bits == null) {
+      synchronized (this) {  // Register the type (and wait for any registration in progress)
+        getSupertypes(subtype.name);
+        bits = subtype.supertypes;
+      }
+    }
+    return bits.get(supertype.id);
+  }
+
+  // Unions of atomic types are interned by the ids of their base types (in order).
+  private final Map<List<Integer>, Integer> unionIds = new ConcurrentHashMap<>();
+
+  public int getUnionId(List<Integer> atomicIds) {
+    Integer id = unionIds.get(atomicIds);
+    if (id != null) return id;
+    synchronized (unionIds) {
+      id = unionIds.get(atomicIds);
+      if (id == null) {
+        id = unionIds.size();
+        unionIds.put(new ArrayList<>(atomicIds), id);
+      }
+      return id;
+    }
+  }
+
+  // Memoized meets of union types (see UnionSemType.meet).
+  // The results only depend on the hierarchy, so the memo is discarded whenever the version changes
+  // (or when it becomes full).
+  private static class MeetMemo {
+    final long version;
+    final Map<Long, SemType> meets = new ConcurrentHashMap<>();
+    MeetMemo(long version) { this.version = version; }
+  }
+  private volatile MeetMemo meetMemo;
+
+  // Return the memo for meets, or null if memoization is disabled.
+  Map<Long, SemType> getMeetMemo() {
+    if (opts.meetCacheSize <= 0) return null;
+    long v = version;
+    MeetMemo m = meetMemo;
+    if (m == null || m.version != v || m.meets.size() >= opts.meetCacheSize)
+      meetMemo = m = new MeetMemo(v);
+    return m.meets;
+  }
 }
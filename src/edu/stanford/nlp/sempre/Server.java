@@ -464,7 +464,7 @@ public class Server {
               .child(H.table().child(predicatesElem).child(tokensElem));
     }
 
-    String makeJson(Master.Response response) {
+    Map<String, Object> makeJson(Master.Response response) {
       Map<String, Object> json = new HashMap<String, Object>();
       List<Object> items = new ArrayList<Object>();
       json.put("candidates", items);
@@ -492,7 +492,7 @@ public class Server {
         items.add(item);
       }
 
-      return Json.writeValueAsStringHard(json);
+      return json;
     }
 
     // Catch exception if any.
@@ -601,7 +601,8 @@ public class Server {
             out.println(makeAnswerBox(masterResponse, uri).toString());
             out.println(makeDetails(masterResponse, uri).toString());
           } else {
-            out.println(makeJson(masterResponse));
+            Json.streamValueHard(out, makeJson(masterResponse));
+            out.println();
           }
         }
 
@@ -632,7 +633,8 @@ public class Server {
       map.put("b", "4");
 
       PrintWriter writer = new PrintWriter(new OutputStreamWriter(exchange.getResponseBody()));
-      writer.println(Json.writeValueAsStringHard(map));
+      Json.streamValueHard(writer, map);
+      writer.println();
       writer.close();
     }
 
@@ -671,6 +673,7 @@ public class Server {
       server.stop(0);
       LogInfo.log("Shutting down executor pool...");
       pool.shutdown();
+      master.close();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
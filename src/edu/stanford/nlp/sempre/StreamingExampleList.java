@@ -0,0 +1,182 @@
+package edu.stanford.nlp.sempre;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+
+import fig.basic.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A list of examples that are read from JSON files (each containing an array of examples)
+ * only when they are needed, so that the dataset does not have to fit in memory.
+ *
+ * Iterating over the list reads and preprocesses the examples one at a time.
+ * With lookahead > 0, a background thread reads the examples and runs the language analyzer
+ * ahead of the consumer (keeping up to |lookahead| examples ready); the rest of the preprocessing
+ * is done in order on the consuming thread, as in Dataset.preprocess.
+ * get() is fast if the examples are accessed sequentially.
+ *
+ * Examples without an id get the id [path]:[index], as in Dataset.
+ */
+public class StreamingExampleList extends AbstractList<Example> {
+  private final List<String> paths;
+  private final int size;
+  private final int lookahead;
+  private ExampleIterator defaultIterator;
+
+  public StreamingExampleList(List<String> paths, int maxSize, int lookahead) {
+    this.paths = new ArrayList<>(paths);
+    this.lookahead = lookahead;
+    int size = 0;
+    for (String path : paths) {
+      try (Reader in = IOUtils.openInHard(path)) {
+        size += Json.countArrayElementsHard(in);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    this.size = Math.min(size, maxSize);
+    LogInfo.logs("StreamingExampleList: %d examples from %s", this.size, paths);
+  }
+
+  public List<String> getPaths() { return paths; }
+
+  @Override public int size() { return size; }
+
+  @Override
+  public Example get(int index) {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("Size: " + size + "; No index " + index);
+    if (defaultIterator == null || defaultIterator.currentIndex >= index) {
+      if (defaultIterator != null) defaultIterator.close();
+      defaultIterator = new ExampleIterator();
+    }
+    while (defaultIterator.currentIndex < index - 1)
+      defaultIterator.read();  // Skip without preprocessing
+    return defaultIterator.next();
+  }
+
+  @Override
+  public Iterator<Example> iterator() {
+    if (lookahead <= 0) return new ExampleIterator();
+    return new LookaheadIterator(new ExampleIterator(), lookahead);
+  }
+
+  // ============================================================
+  // Iterators
+  // ============================================================
+
+  // Read the examples from the files in order.
+  private class ExampleIterator implements Iterator<Example>, Closeable {
+    private int pathIndex = -1;
+    private int indexInPath;
+    private Reader in;
+    private MappingIterator<Example> examples;
+    int currentIndex = -1;
+
+    @Override
+    public boolean hasNext() {
+      return currentIndex + 1 < size;
+    }
+
+    @Override
+    public Example next() {
+      Example ex = read();
+      ex.preprocess();
+      return ex;
+    }
+
+    // Read the next example without preprocessing it.
+    Example read() {
+      if (!hasNext()) throw new NoSuchElementException();
+      try {
+        while (examples == null || !examples.hasNextValue()) {
+          close();
+          in = IOUtils.openInHard(paths.get(++pathIndex));
+          examples = Json.readValuesHard(in, Example.class);
+          indexInPath = 0;
+        }
+        Example ex = examples.nextValue();
+        if (ex.id == null)
+          ex = new Example.Builder().withExample(ex).setId(paths.get(pathIndex) + ":" + indexInPath).createExample();
+        indexInPath++;
+        currentIndex++;
+        if (!hasNext()) close();
+        return ex;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void close() {
+      if (in == null) return;
+      try {
+        in.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      in = null;
+      examples = null;
+    }
+  }
+
+  private static final Object END = new Object();  // Sentinel
+
+  // Read the examples and analyze the utterances on a background thread.
+  private static class LookaheadIterator implements Iterator<Example> {
+    private final BlockingQueue<Object> queue;  // Pair(Example, LanguageInfo), END, or RuntimeException
+    private Object next;
+
+    LookaheadIterator(final ExampleIterator base, int lookahead) {
+      this.queue = new ArrayBlockingQueue<>(lookahead);
+      final LanguageAnalyzer analyzer = LanguageAnalyzer.getSingleton();
+      Thread thread = new Thread(() -> {
+        try {
+          try {
+            while (base.hasNext()) {
+              Example ex = base.read();
+              queue.put(Pair.newPair(ex, analyzer.analyze(ex.utterance)));
+            }
+            queue.put(END);
+          } catch (RuntimeException e) {
+            queue.put(e);
+          } finally {
+            base.close();
+          }
+        } catch (InterruptedException e) {
+          // Abandoned
+        }
+      }, "StreamingExampleList");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        try {
+          next = queue.take();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      if (next instanceof RuntimeException)
+        throw (RuntimeException) next;
+      return next != END;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Example next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Pair<Example, LanguageInfo> pair = (Pair<Example, LanguageInfo>) next;
+      next = null;
+      Example ex = pair.getFirst();
+      ex.preprocess(pair.getSecond());
+      return ex;
+    }
+  }
+}
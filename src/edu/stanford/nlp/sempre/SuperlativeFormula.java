@@ -70,6 +70,8 @@ public class SuperlativeFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof SuperlativeFormula)) return false;
     SuperlativeFormula that = (SuperlativeFormula) thatObj;
     if (this.mode != that.mode) return false;
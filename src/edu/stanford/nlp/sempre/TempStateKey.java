@@ -0,0 +1,28 @@
+package edu.stanford.nlp.sempre;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Key of a typed slot in the temporary state of a Derivation
+ * (see Derivation.getTempState(TempStateKey) and Derivation.setTempState).
+ *
+ * Create each key once (e.g., as a static final field of the FeatureComputer or SemanticFn).
+ * Each key gets its own index, so the slots of a derivation are stored in a small array
+ * instead of a HashMap from strings.
+ */
+public final class TempStateKey<T> {
+  private static final AtomicInteger numKeys = new AtomicInteger();
+
+  public final String name;
+  final int index;
+
+  public TempStateKey(String name) {
+    this.name = name;
+    this.index = numKeys.getAndIncrement();
+  }
+
+  static int getNumKeys() { return numKeys.get(); }
+
+  @Override
+  public String toString() { return name; }
+}
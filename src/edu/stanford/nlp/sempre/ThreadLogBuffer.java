@@ -0,0 +1,42 @@
+package edu.stanford.nlp.sempre;
+
+import java.io.Writer;
+
+/**
+ * A Writer that sends the output of each thread to a buffer owned by that thread.
+ *
+ * LogInfo writes to a single static file output. If this writer is installed
+ * as that output, concurrent requests can capture their own log lines:
+ * call begin() before handling the request and end() afterwards.
+ * Output from threads that are not capturing is dropped.
+ */
+public class ThreadLogBuffer extends Writer {
+  private final ThreadLocal<StringBuilder> buffer = new ThreadLocal<>();
+
+  // Start capturing the output of the current thread.
+  public void begin() {
+    buffer.set(new StringBuilder());
+  }
+
+  // Stop capturing and return the output of the current thread.
+  public String end() {
+    StringBuilder b = buffer.get();
+    buffer.remove();
+    return b == null ? "" : b.toString();
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) {
+    StringBuilder b = buffer.get();
+    if (b != null) b.append(cbuf, off, len);
+  }
+
+  @Override
+  public void write(String str, int off, int len) {
+    StringBuilder b = buffer.get();
+    if (b != null) b.append(str, off, off + len);
+  }
+
+  @Override public void flush() { }
+  @Override public void close() { }
+}
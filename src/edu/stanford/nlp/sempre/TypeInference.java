@@ -1,5 +1,8 @@
 package edu.stanford.nlp.sempre;
 
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import fig.basic.*;
 
 import java.util.*;
@@ -17,6 +20,11 @@ import java.util.*;
  * Note that we just return an upper bound on the type.
  * Doesn't have to be perfect, since this is just used to prune out bad combinations.
  *
+ * Results are memoized for formulas that are inferred without any enclosing variable bindings
+ * against a standard upper bound (top, any, number, or number-or-date). This covers the whole formula
+ * and some subformulas (e.g., the child of an aggregate, the rank and count of a superlative, and the
+ * first child of a merge), but not the children of a join, which are inferred against function types.
+ *
  * @author Percy Liang
  */
 public final class TypeInference {
@@ -25,6 +33,7 @@ public final class TypeInference {
   public static class Options {
     @Option(gloss = "Verbosity level") public int verbose = 1;
     @Option(gloss = "Class for looking up types") public String typeLookup = "NullTypeLookup";
+    @Option(gloss = "Number of inferred types to memoize (0 to disable)") public int memoSize = 20000;
   }
   public static Options opts = new Options();
 
@@ -34,8 +43,11 @@ public final class TypeInference {
       typeLookup = (TypeLookup) Utils.newInstanceHard(SempreUtils.resolveClassName(opts.typeLookup));
     return typeLookup;
   }
-  public static void setTypeLookup(TypeLookup typeLookup) {  // Kind of hacky, only used in tests
+  public static TypeLookup setTypeLookup(TypeLookup typeLookup) {  // Kind of hacky, only used in tests
+    TypeLookup old = TypeInference.typeLookup;
     TypeInference.typeLookup = typeLookup;
+    clearMemo();
+    return old;
   }
 
   // For computing type of (call ...) expressions.
@@ -140,9 +152,84 @@ public final class TypeInference {
     return type;
   }
 
+  // ============================================================
+  // Memoization
+  // ============================================================
+
+  // Upper bounds for which results are memoized (compared by identity).
+  private static final SemType[] memoBounds = {
+      SemType.topType, SemType.anyType, SemType.numberType, SemType.numberOrDateType};
+
+  private static boolean isMemoBound(SemType type) {
+    for (SemType bound : memoBounds)
+      if (type == bound) return true;
+    return false;
+  }
+
+  private static class MemoKey {
+    final Formula formula;
+    final SemType bound;
+    final boolean allowFreeVariable;
+
+    MemoKey(Formula formula, SemType bound, boolean allowFreeVariable) {
+      this.formula = formula;
+      this.bound = bound;
+      this.allowFreeVariable = allowFreeVariable;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (!(o instanceof MemoKey)) return false;
+      MemoKey that = (MemoKey) o;
+      return bound == that.bound && allowFreeVariable == that.allowFreeVariable && formula.equals(that.formula);
+    }
+
+    @Override public int hashCode() {
+      return (formula.hashCode() * 31 + System.identityHashCode(bound)) * 2 + (allowFreeVariable ? 1 : 0);
+    }
+  }
+
+  private static class Memo {
+    final long hierarchyVersion;   // Version of SemTypeHierarchy when the memo was created
+    final Cache<MemoKey, Optional<SemType>> types = CacheBuilder.newBuilder().maximumSize(opts.memoSize).build();  // absent = type error
+    Memo(long hierarchyVersion) { this.hierarchyVersion = hierarchyVersion; }
+  }
+  private static volatile Memo memo;
+
+  public static void clearMemo() {
+    memo = null;
+  }
+
+  private static Memo getMemo() {
+    long hierarchyVersion = SemTypeHierarchy.singleton.getVersion();
+    Memo m = memo;
+    if (m == null || m.hierarchyVersion != hierarchyVersion)
+      memo = m = new Memo(hierarchyVersion);
+    return m;
+  }
+
   // Return the type of |formula| (|type| is an upper bound on the type).
   // |env| specifies the mapping form variables to their types.  This should be updated.
   private static SemType inferType(Formula formula, Env env, SemType type) throws TypeException {
+    // Without enclosing bindings, the result only depends on the formula and the bound.
+    if (opts.memoSize <= 0 || opts.verbose >= 5 || !env.list.isEmpty()
+        || env.typeLookup != typeLookup || !isMemoBound(type))
+      return inferTypeUncached(formula, env, type);
+    Cache<MemoKey, Optional<SemType>> memo = getMemo().types;
+    MemoKey key = new MemoKey(formula, type, env.allowFreeVariable);
+    Optional<SemType> result = memo.getIfPresent(key);
+    if (result == null) {
+      try {
+        result = Optional.of(inferTypeUncached(formula, env, type));
+      } catch (TypeException e) {
+        result = Optional.absent();
+      }
+      memo.put(key, result);
+    }
+    if (!result.isPresent()) throw new TypeException();
+    return result.get();
+  }
+
+  private static SemType inferTypeUncached(Formula formula, Env env, SemType type) throws TypeException {
     if (opts.verbose >= 5)
       LogInfo.logs("TypeInference.inferType(%s, %s, %s)", formula, env, type);
     if (formula instanceof VariableFormula) {
@@ -27,10 +27,44 @@ public class UnionSemType extends SemType {
 
   public SemType meet(SemType that) {
     if (that instanceof TopSemType) return this;
+    // Meets between unions of atomic types and atomic types (or other such unions) only depend
+    // on the type hierarchy, so they are memoized (keyed by the interned type ids).
+    Map<Long, SemType> memo = SemTypeHierarchy.singleton.getMeetMemo();
+    Long key = null;
+    if (memo != null) {
+      int thisId = getUnionId(), thatId = -1;
+      if (that instanceof AtomicSemType) thatId = ((AtomicSemType) that).node.id;
+      else if (that instanceof UnionSemType && ((UnionSemType) that).getUnionId() >= 0)
+        thatId = ~((UnionSemType) that).getUnionId();
+      if (thisId >= 0 && thatId != -1) {
+        // Multiplying by an odd constant is a bijection that spreads the ids over the hash bits.
+        key = (((long) thisId << 32) | (thatId & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+        SemType cached = memo.get(key);
+        if (cached != null) return cached;
+      }
+    }
     List<SemType> result = new ArrayList<>();
     for (SemType baseType : baseTypes)
       result.add(baseType.meet(that));
-    return new UnionSemType(result).simplify();
+    SemType meet = new UnionSemType(result).simplify();
+    if (key != null) memo.put(key, meet);
+    return meet;
+  }
+
+  // Interned id of this union if all base types are atomic, and -1 otherwise (computed lazily).
+  private volatile int unionId = -2;
+
+  private int getUnionId() {
+    int id = unionId;
+    if (id == -2) {
+      List<Integer> atomicIds = new ArrayList<>();
+      for (SemType baseType : baseTypes) {
+        if (!(baseType instanceof AtomicSemType)) { atomicIds = null; break; }
+        atomicIds.add(((AtomicSemType) baseType).node.id);
+      }
+      unionId = id = (atomicIds == null) ? -1 : SemTypeHierarchy.singleton.getUnionId(atomicIds);
+    }
+    return id;
   }
 
   public SemType apply(SemType that) {
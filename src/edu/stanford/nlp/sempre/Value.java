@@ -29,7 +29,7 @@ public abstract class Value {
 
   @JsonCreator
   public static Value fromString(String str) {
-    return Values.fromLispTree(LispTree.proto.parseFromString(str));
+    return FormulaReader.parseValue(str);
   }
 
   @Override public abstract boolean equals(Object o);
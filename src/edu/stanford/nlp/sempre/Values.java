@@ -39,5 +39,5 @@ public final class Values {
     return value;
   }
 
-  public static Value fromString(String s) { return fromLispTree(LispTree.proto.parseFromString(s)); }
+  public static Value fromString(String s) { return FormulaReader.parseValue(s); }
 }
@@ -49,20 +49,24 @@ public class CoreNLPAnalyzer extends LanguageAnalyzer {
   private static final Set<String> AUX_VERBS = new HashSet<String>(Arrays.asList(AUX_VERB_ARR));
   private static final String AUX_VERB_TAG = "VBD-AUX";
 
-  public static StanfordCoreNLP pipeline = null;
+  // The pipeline is shared by all threads (StanfordCoreNLP.process can be called concurrently).
+  public static volatile StanfordCoreNLP pipeline = null;
 
   public static void initModels() {
     if (pipeline != null) return;
-    Properties props = new Properties();
-    props.put("annotators", Joiner.on(',').join(opts.annotators));
-    if (opts.caseSensitive) {
-      props.put("pos.model", "edu/stanford/nlp/models/pos-tagger/english-bidirectional/english-bidirectional-distsim.tagger");
-      props.put("ner.model", "edu/stanford/nlp/models/ner/english.all.3class.distsim.crf.ser.gz,edu/stanford/nlp/models/ner/english.conll.4class.distsim.crf.ser.gz");
-    } else {
-      props.put("pos.model", "edu/stanford/nlp/models/pos-tagger/english-caseless-left3words-distsim.tagger");
-      props.put("ner.model", "edu/stanford/nlp/models/ner/english.all.3class.caseless.distsim.crf.ser.gz,edu/stanford/nlp/models/ner/english.conll.4class.caseless.distsim.crf.ser.gz");
+    synchronized (CoreNLPAnalyzer.class) {
+      if (pipeline != null) return;
+      Properties props = new Properties();
+      props.put("annotators", Joiner.on(',').join(opts.annotators));
+      if (opts.caseSensitive) {
+        props.put("pos.model", "edu/stanford/nlp/models/pos-tagger/english-bidirectional/english-bidirectional-distsim.tagger");
+        props.put("ner.model", "edu/stanford/nlp/models/ner/english.all.3class.distsim.crf.ser.gz,edu/stanford/nlp/models/ner/english.conll.4class.distsim.crf.ser.gz");
+      } else {
+        props.put("pos.model", "edu/stanford/nlp/models/pos-tagger/english-caseless-left3words-distsim.tagger");
+        props.put("ner.model", "edu/stanford/nlp/models/ner/english.all.3class.caseless.distsim.crf.ser.gz,edu/stanford/nlp/models/ner/english.conll.4class.caseless.distsim.crf.ser.gz");
+      }
+      pipeline = new StanfordCoreNLP(props);
     }
-    pipeline = new StanfordCoreNLP(props);
   }
 
   // Stanford tokenizer doesn't break hyphens.
@@ -77,6 +81,11 @@ public class CoreNLPAnalyzer extends LanguageAnalyzer {
     return buf.toString();
   }
 
+  @Override
+  public String getCacheKey() {
+    return super.getCacheKey() + ";annotators=" + Joiner.on(',').join(opts.annotators) + ";caseSensitive=" + opts.caseSensitive;
+  }
+
   public LanguageInfo analyze(String utterance) {
     LanguageInfo languageInfo = new LanguageInfo();
 
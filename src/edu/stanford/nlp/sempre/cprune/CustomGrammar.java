@@ -130,16 +130,18 @@ public class CustomGrammar extends Grammar {
     return formula;
   }
 
+  private static final TempStateKey<CPruneDerivInfo> CPRUNE_INFO = new TempStateKey<>("cprune");
+
   /**
-   * Cache the symbols in deriv.tempState[cprune].treeSymbols
+   * Cache the symbols in the cprune temp state of deriv (treeSymbols)
    */
   private static CPruneDerivInfo aggregateSymbols(Derivation deriv) {
-    Map<String, Object> tempState = deriv.getTempState();
-    if (tempState.containsKey("cprune")) {
-      return (CPruneDerivInfo) tempState.get("cprune");
+    CPruneDerivInfo derivInfo = deriv.getTempState(CPRUNE_INFO);
+    if (derivInfo != null) {
+      return derivInfo;
     }
-    CPruneDerivInfo derivInfo = new CPruneDerivInfo();
-    tempState.put("cprune", derivInfo);
+    derivInfo = new CPruneDerivInfo();
+    deriv.setTempState(CPRUNE_INFO, derivInfo);
 
     Map<String, Symbol> treeSymbols = new LinkedHashMap<>();
     derivInfo.treeSymbols = treeSymbols;
@@ -162,7 +164,7 @@ public class CustomGrammar extends Grammar {
   }
 
   private CPruneDerivInfo computeCustomRules(Derivation deriv, Set<String> crossReferences) {
-    CPruneDerivInfo derivInfo = (CPruneDerivInfo) deriv.getTempState().get("cprune");
+    CPruneDerivInfo derivInfo = deriv.getTempState(CPRUNE_INFO);
     Map<String, Symbol> ruleSymbols = new LinkedHashMap<>();
     derivInfo.ruleSymbols = ruleSymbols;
     derivInfo.customRuleStrings = new ArrayList<>();
@@ -181,7 +183,7 @@ public class CustomGrammar extends Grammar {
       }
 
       for (Derivation child : deriv.children) {
-        CPruneDerivInfo childInfo = (CPruneDerivInfo) child.getTempState().get("cprune");
+        CPruneDerivInfo childInfo = child.getTempState(CPRUNE_INFO);
         ruleSymbols.putAll(childInfo.ruleSymbols);
         derivInfo.customRuleStrings.addAll(childInfo.customRuleStrings);
       }
@@ -62,8 +62,8 @@ public class DefinitionAligner {
       deriv = def;
       this.start = start;
       this.end = end;
-      deriv.grammarInfo.start = start;
-      deriv.grammarInfo.end = end;
+      deriv.getGrammarInfo().start = start;
+      deriv.getGrammarInfo().end = end;
     }
 
     Derivation deriv;
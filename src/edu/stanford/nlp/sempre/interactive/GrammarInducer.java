@@ -64,9 +64,9 @@ public class GrammarInducer {
   public GrammarInducer(List<String> headTokens, Derivation def, List<Derivation> chartList) {
     // grammarInfo start and end is used to indicate partial, when using aligner
     boolean allHead = false;
-    if (def.grammarInfo.start == -1) {
-      def.grammarInfo.start = 0;
-      def.grammarInfo.end = headTokens.size();
+    if (def.getGrammarInfo().start == -1) {
+      def.getGrammarInfo().start = 0;
+      def.getGrammarInfo().end = headTokens.size();
       allHead = true;
     }
 
@@ -74,7 +74,7 @@ public class GrammarInducer {
     if (headTokens == null || headTokens.isEmpty()) {
       throw new RuntimeException("The head is empty, refusing to define.");
     }
-    chartList.removeIf(d -> d.start == def.grammarInfo.start && d.end == def.grammarInfo.end);
+    chartList.removeIf(d -> d.start == def.getGrammarInfo().start && d.end == def.getGrammarInfo().end);
     this.def = def;
 
     this.headTokens = headTokens;
@@ -185,7 +185,7 @@ public class GrammarInducer {
   }
 
   private String varName(Derivation anchored) {
-    int s = def.grammarInfo.start;
+    int s = def.getGrammarInfo().start;
     return getNormalCat(anchored) + (anchored.start - s) + "_" + (anchored.end - s);
   }
 
@@ -202,8 +202,8 @@ public class GrammarInducer {
   private void addMatches(Derivation deriv, Map<String, List<Derivation>> chartMap) {
     String key = catFormulaKey(deriv);
     if (chartMap.containsKey(key)) {
-      deriv.grammarInfo.matches.addAll(chartMap.get(key));
-      deriv.grammarInfo.matched = true;
+      deriv.getGrammarInfo().matches.addAll(chartMap.get(key));
+      deriv.getGrammarInfo().matched = true;
       matches.addAll(chartMap.get(key));
     }
     for (Derivation d : deriv.children) {
@@ -312,26 +312,26 @@ public class GrammarInducer {
     if (replaceMap.containsKey(catFormulaKey(deriv))) {
       // LogInfo.logs("Found match %s, %s, %s", catFormulaKey(deriv),
       // replaceMap, deriv);
-      deriv.grammarInfo.formula = new VariableFormula(replaceMap.get(catFormulaKey(deriv)));
+      deriv.getGrammarInfo().formula = new VariableFormula(replaceMap.get(catFormulaKey(deriv)));
       return;
     }
     if (deriv.children.size() == 0) {
-      deriv.grammarInfo.formula = deriv.formula;
+      deriv.getGrammarInfo().formula = deriv.formula;
     }
 
     for (Derivation c : deriv.children) {
       buildFormula(c, replaceMap);
-      // deriv.grammarInfo.start = Math.min(deriv.grammarInfo.start,
-      // c.grammarInfo.start);
-      // deriv.grammarInfo.end = Math.max(deriv.grammarInfo.end,
-      // c.grammarInfo.end);
+      // deriv.getGrammarInfo().start = Math.min(deriv.getGrammarInfo().start,
+      // c.getGrammarInfo().start);
+      // deriv.getGrammarInfo().end = Math.max(deriv.getGrammarInfo().end,
+      // c.getGrammarInfo().end);
     }
     Rule rule = deriv.rule;
     List<Derivation> args = deriv.children;
 
     // cant use the standard DerivationStream because formula is final
     if (rule == null || rule.sem == null) {
-      deriv.grammarInfo.formula = deriv.formula;
+      deriv.getGrammarInfo().formula = deriv.formula;
     } else if (rule.sem instanceof ApplyFn) {
       Formula f = Formulas.fromLispTree(((ApplyFn) rule.sem).formula.toLispTree());
       for (Derivation arg : args) {
@@ -339,20 +339,20 @@ public class GrammarInducer {
           throw new RuntimeException("Expected LambdaFormula, but got " + f);
         Formula after = renameBoundVars(f, new HashSet<>());
         // LogInfo.logs("renameBoundVar %s === %s", after, f);
-        f = Formulas.lambdaApply((LambdaFormula) after, arg.grammarInfo.formula);
+        f = Formulas.lambdaApply((LambdaFormula) after, arg.getGrammarInfo().formula);
       }
-      deriv.grammarInfo.formula = f;
+      deriv.getGrammarInfo().formula = f;
     } else if (rule.sem instanceof IdentityFn) {
-      deriv.grammarInfo.formula = args.get(0).grammarInfo.formula;
+      deriv.getGrammarInfo().formula = args.get(0).getGrammarInfo().formula;
     } else if (rule.sem instanceof BlockFn) {
-      deriv.grammarInfo.formula = new ActionFormula(((BlockFn) rule.sem).mode,
-          args.stream().map(d -> d.grammarInfo.formula).collect(Collectors.toList()));
+      deriv.getGrammarInfo().formula = new ActionFormula(((BlockFn) rule.sem).mode,
+          args.stream().map(d -> d.getGrammarInfo().formula).collect(Collectors.toList()));
     } else {
-      deriv.grammarInfo.formula = deriv.formula;
+      deriv.getGrammarInfo().formula = deriv.formula;
     }
-    // LogInfo.logs("BUILT %s for %s", deriv.grammarInfo.formula,
+    // LogInfo.logs("BUILT %s for %s", deriv.getGrammarInfo().formula,
     // deriv.formula);
-    // LogInfo.log("built " + deriv.grammarInfo.formula);
+    // LogInfo.log("built " + deriv.getGrammarInfo().formula);
   }
 
   private String newName(String s) {
@@ -383,7 +383,7 @@ public class GrammarInducer {
   }
 
   private SemanticFn getSemantics(final Derivation def, List<Derivation> packings) {
-    Formula baseFormula = def.grammarInfo.formula;
+    Formula baseFormula = def.getGrammarInfo().formula;
     if (opts.verbose > 0)
       LogInfo.logs("getSemantics %s", baseFormula);
     if (packings.size() == 0) {
@@ -416,7 +416,7 @@ public class GrammarInducer {
         rhs.set(i, null);
       }
     }
-    return rhs.subList(def.grammarInfo.start, def.grammarInfo.end).stream().filter(s -> s != null)
+    return rhs.subList(def.getGrammarInfo().start, def.getGrammarInfo().end).stream().filter(s -> s != null)
         .collect(Collectors.toList());
   }
 
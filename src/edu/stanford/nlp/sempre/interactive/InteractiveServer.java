@@ -279,7 +279,8 @@ public class InteractiveServer {
           // Render answer
           Example ex = masterResponse.getExample();
           responseMap = makeJson(masterResponse);
-          out.println(Json.writeValueAsStringHard(responseMap));
+          Json.streamValueHard(out, responseMap);
+          out.println();
         }
         out.close();
       }
@@ -0,0 +1,515 @@
+package edu.stanford.nlp.sempre.tables;
+
+import java.util.*;
+
+import edu.stanford.nlp.sempre.*;
+import edu.stanford.nlp.sempre.tables.lambdadcs.BitSetUnaryDenotation;
+
+/**
+ * Columnar, primitive-typed storage of a TableKnowledgeGraph.
+ *
+ * - Rows are identified by their position (0, 1, ...) in the table.
+ * - Each unique cell (TableCellProperties) gets a graph-local integer id.
+ * - Each column is an int[] of cell ids indexed by row position.
+ * - Each cell id has a BitSet of the row positions where it occurs.
+ * - Cell properties are stored as Value[][] indexed by cell id.
+ *   In addition, fb:cell.cell.number and fb:cell.cell.num2 are stored as double[]
+ *   and fb:cell.cell.date as packed long[] so that lookups avoid boxed comparisons.
+ *
+ * The join and filter primitives iterate over these arrays and return ValuePairArrayLists.
+ * When the set of query values is finite, it is converted to a bitset (or a sorted
+ * primitive array) once instead of calling Collection.contains for every candidate.
+ *
+ * Rows and cells also share a single entity id space (rows first, then cells),
+ * which BitSetUnaryDenotation uses to represent sets of rows and cells.
+ */
+public class ColumnarTable {
+
+  public final int numRows, numColumns, numCells;
+
+  // Row position --> row NameValue / index NumberValue
+  final NameValue[] rowNames;
+  final NumberValue[] rowIndices;
+  // "fb:row.r5" --> row position
+  final Map<String, Integer> rowIdToPosition;
+
+  // Cell id --> TableCellProperties
+  final TableCellProperties[] cells;
+  // "fb:cell.palo_alto_ca" --> cell id
+  final Map<String, Integer> cellIdToIndex;
+  // Cell id --> column index
+  final int[] cellColumns;
+  // Cell id --> row positions where the cell occurs
+  final BitSet[] cellRows;
+
+  // Column index --> relation NameValue
+  final NameValue[] columnRelations, columnConsecutiveRelations;
+  // Relation id --> column index
+  final Map<Value, Integer> relationToColumn, consecutiveRelationToColumn;
+  // [column index][row position] --> cell id
+  final int[][] columnCells;
+  // [column index][row position] --> number of consecutive identical cells ending at the row
+  final int[][] columnConsecutiveCounts;
+  // count --> NumberValue (shared so that consecutive counts do not allocate)
+  final NumberValue[] countValues;
+
+  // Cell property --> [cell id] --> property values
+  final Map<Value, Value[][]> cellPropertyValues;
+  // Cell property --> [cell id] --> unitless number (NaN if absent)
+  final Map<Value, double[]> cellPropertyNumbers;
+  // [cell id] --> packed date (MISSING_DATE if absent; null if some cell has multiple dates)
+  final long[] cellDates;
+
+  static final Value[] NO_VALUES = new Value[0];
+  static final long MISSING_DATE = Long.MIN_VALUE;
+
+  public ColumnarTable(List<TableRow> rows, List<TableColumn> columns) {
+    numRows = rows.size();
+    numColumns = columns.size();
+    // Rows
+    rowNames = new NameValue[numRows];
+    rowIndices = new NumberValue[numRows];
+    rowIdToPosition = new HashMap<>();
+    for (int i = 0; i < numRows; i++) {
+      TableRow row = rows.get(i);
+      rowNames[i] = row.nameValue;
+      rowIndices[i] = row.indexValue;
+      rowIdToPosition.put(row.nameValue.id, i);
+    }
+    // Columns and cells
+    columnRelations = new NameValue[numColumns];
+    columnConsecutiveRelations = new NameValue[numColumns];
+    relationToColumn = new HashMap<>();
+    consecutiveRelationToColumn = new HashMap<>();
+    columnCells = new int[numColumns][numRows];
+    columnConsecutiveCounts = new int[numColumns][numRows];
+    cellIdToIndex = new HashMap<>();
+    List<TableCellProperties> cellList = new ArrayList<>();
+    List<Integer> cellColumnList = new ArrayList<>();
+    for (int j = 0; j < numColumns; j++) {
+      TableColumn column = columns.get(j);
+      columnRelations[j] = column.relationNameValue;
+      columnConsecutiveRelations[j] = column.relationConsecutiveNameValue;
+      relationToColumn.put(column.relationNameValue, j);
+      consecutiveRelationToColumn.put(column.relationConsecutiveNameValue, j);
+      int count = 0, lastCell = -1;
+      for (int i = 0; i < numRows; i++) {
+        TableCellProperties properties = rows.get(i).children.get(j).properties;
+        Integer cellIndex = cellIdToIndex.get(properties.id);
+        if (cellIndex == null) {
+          cellIndex = cellList.size();
+          cellIdToIndex.put(properties.id, cellIndex);
+          cellList.add(properties);
+          cellColumnList.add(j);
+        }
+        columnCells[j][i] = cellIndex;
+        count = (cellIndex == lastCell) ? count + 1 : 1;
+        lastCell = cellIndex;
+        columnConsecutiveCounts[j][i] = count;
+      }
+    }
+    numCells = cellList.size();
+    cells = cellList.toArray(new TableCellProperties[numCells]);
+    cellColumns = new int[numCells];
+    cellRows = new BitSet[numCells];
+    for (int c = 0; c < numCells; c++) {
+      cellColumns[c] = cellColumnList.get(c);
+      cellRows[c] = new BitSet(numRows);
+    }
+    for (int j = 0; j < numColumns; j++)
+      for (int i = 0; i < numRows; i++)
+        cellRows[columnCells[j][i]].set(i);
+    countValues = new NumberValue[numRows + 1];
+    for (int i = 0; i <= numRows; i++)
+      countValues[i] = new NumberValue(i);
+    // Cell properties
+    cellPropertyValues = new HashMap<>();
+    for (Value property : TableTypeSystem.CELL_PROPERTIES.keySet()) {
+      Value[][] values = new Value[numCells][];
+      for (int c = 0; c < numCells; c++) {
+        Collection<Value> metadata = cells[c].metadata.get(property);
+        values[c] = metadata.isEmpty() ? NO_VALUES : metadata.toArray(new Value[metadata.size()]);
+      }
+      cellPropertyValues.put(property, values);
+    }
+    cellPropertyNumbers = new HashMap<>();
+    cellPropertyNumbers.put(TableTypeSystem.CELL_NUMBER_VALUE, toNumberArray(TableTypeSystem.CELL_NUMBER_VALUE));
+    cellPropertyNumbers.put(TableTypeSystem.CELL_NUM2_VALUE, toNumberArray(TableTypeSystem.CELL_NUM2_VALUE));
+    cellDates = toDateArray();
+  }
+
+  // Return null if some cell has a non-unitless or multiple numbers for the property.
+  private double[] toNumberArray(Value property) {
+    Value[][] values = cellPropertyValues.get(property);
+    double[] numbers = new double[numCells];
+    for (int c = 0; c < numCells; c++) {
+      if (values[c].length == 0) {
+        numbers[c] = Double.NaN;
+      } else if (values[c].length == 1 && isUnitlessNumber(values[c][0])) {
+        numbers[c] = ((NumberValue) values[c][0]).value;
+      } else {
+        return null;
+      }
+    }
+    return numbers;
+  }
+
+  // Return null if some cell has multiple dates.
+  private long[] toDateArray() {
+    Value[][] values = cellPropertyValues.get(TableTypeSystem.CELL_DATE_VALUE);
+    long[] dates = new long[numCells];
+    for (int c = 0; c < numCells; c++) {
+      if (values[c].length == 0) {
+        dates[c] = MISSING_DATE;
+      } else if (values[c].length == 1) {
+        dates[c] = packDate((DateValue) values[c][0]);
+      } else {
+        return null;
+      }
+    }
+    return dates;
+  }
+
+  static boolean isUnitlessNumber(Value value) {
+    return value instanceof NumberValue && NumberValue.unitless.equals(((NumberValue) value).unit);
+  }
+
+  static long packDate(DateValue date) {
+    // month and day can be -1 (unspecified)
+    return ((long) date.year << 16) | ((date.month + 1) << 8) | (date.day + 1);
+  }
+
+  // ============================================================
+  // Lookup
+  // ============================================================
+
+  public NameValue getRowName(int position) { return rowNames[position]; }
+  public TableCellProperties getCell(int cellIndex) { return cells[cellIndex]; }
+  public int getCellIndex(int columnIndex, int rowPosition) { return columnCells[columnIndex][rowPosition]; }
+  public BitSet getRowsOfCell(int cellIndex) { return cellRows[cellIndex]; }
+
+  /** Return the row position of the row NameValue, or -1 if not a row. */
+  public int getRowPosition(Value value) {
+    if (!(value instanceof NameValue)) return -1;
+    Integer position = rowIdToPosition.get(((NameValue) value).id);
+    return position == null ? -1 : position;
+  }
+
+  /** Return the cell id of the cell NameValue, or -1 if not a cell. */
+  public int getCellIndex(Value value) {
+    return (value instanceof NameValue) ? getCellIndex(((NameValue) value).id) : -1;
+  }
+
+  public int getCellIndex(String nameValueId) {
+    Integer cellIndex = cellIdToIndex.get(nameValueId);
+    return cellIndex == null ? -1 : cellIndex;
+  }
+
+  /** Return the column index of the relation, or -1 if not found. */
+  public int getColumnIndex(Value relation) {
+    Integer columnIndex = relationToColumn.get(relation);
+    return columnIndex == null ? -1 : columnIndex;
+  }
+
+  /** Return the column index of the consecutive relation, or -1 if not found. */
+  public int getConsecutiveColumnIndex(Value relation) {
+    Integer columnIndex = consecutiveRelationToColumn.get(relation);
+    return columnIndex == null ? -1 : columnIndex;
+  }
+
+  // ============================================================
+  // Entity ids: rows are [0, numRows), cells are [numRows, numRows + numCells)
+  // ============================================================
+
+  public int numEntities() { return numRows + numCells; }
+
+  /** Return the entity id of the row or cell NameValue, or -1 if not found. */
+  public int getEntityId(Value value) {
+    if (!(value instanceof NameValue)) return -1;
+    String id = ((NameValue) value).id;
+    Integer position = rowIdToPosition.get(id);
+    if (position != null) return position;
+    Integer cellIndex = cellIdToIndex.get(id);
+    return cellIndex == null ? -1 : numRows + cellIndex;
+  }
+
+  public NameValue getEntity(int entityId) {
+    return entityId < numRows ? rowNames[entityId] : cells[entityId - numRows].nameValue;
+  }
+
+  private BitSet getBitSetOf(Collection<Value> values) {
+    if (values instanceof BitSetUnaryDenotation && ((BitSetUnaryDenotation) values).getTable() == this)
+      return ((BitSetUnaryDenotation) values).getIds();
+    return null;
+  }
+
+  // ============================================================
+  // Selections
+  // ============================================================
+
+  static boolean isInfinite(Collection<Value> values) {
+    return values.size() == Integer.MAX_VALUE;
+  }
+
+  /** Row positions of the rows in |values|. */
+  BitSet selectRows(Collection<Value> values) {
+    BitSet ids = getBitSetOf(values);
+    if (ids != null) return ids.get(0, numRows);
+    BitSet selected = new BitSet(numRows);
+    if (isInfinite(values)) {
+      for (int i = 0; i < numRows; i++)
+        if (values.contains(rowNames[i])) selected.set(i);
+    } else {
+      for (Value value : values) {
+        int i = getRowPosition(value);
+        if (i >= 0) selected.set(i);
+      }
+    }
+    return selected;
+  }
+
+  /** Ids of the cells in |values|. */
+  BitSet selectCells(Collection<Value> values) {
+    BitSet ids = getBitSetOf(values);
+    if (ids != null) return ids.get(numRows, numRows + numCells);
+    BitSet selected = new BitSet(numCells);
+    if (isInfinite(values)) {
+      for (int c = 0; c < numCells; c++)
+        if (values.contains(cells[c].nameValue)) selected.set(c);
+    } else {
+      for (Value value : values) {
+        int c = getCellIndex(value);
+        if (c >= 0) selected.set(c);
+      }
+    }
+    return selected;
+  }
+
+  // ============================================================
+  // Join and filter primitives
+  // ============================================================
+  // Following the KnowledgeGraph convention, each pair is (x, y) such that (x, r, y).
+
+  /** (!fb:row.row.next rows): pairs (next row, row) */
+  public ValuePairArrayList nextRows(Collection<Value> rows) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    if (isInfinite(rows)) {
+      for (int i = 0; i < numRows - 1; i++)
+        if (rows.contains(rowNames[i])) answer.add(rowNames[i + 1], rowNames[i]);
+    } else {
+      for (Value value : rows) {
+        int i = getRowPosition(value);
+        if (i < 0 || i + 1 >= numRows) continue;
+        answer.add(rowNames[i + 1], rowNames[i]);
+      }
+    }
+    return answer;
+  }
+
+  /** (fb:row.row.next rows): pairs (previous row, row) */
+  public ValuePairArrayList previousRows(Collection<Value> rows) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    if (isInfinite(rows)) {
+      for (int i = 1; i < numRows; i++)
+        if (rows.contains(rowNames[i])) answer.add(rowNames[i - 1], rowNames[i]);
+    } else {
+      for (Value value : rows) {
+        int i = getRowPosition(value);
+        if (i < 1) continue;
+        answer.add(rowNames[i - 1], rowNames[i]);
+      }
+    }
+    return answer;
+  }
+
+  /** (!fb:row.row.index rows): pairs (index, row) */
+  public ValuePairArrayList rowIndicesOf(Collection<Value> rows) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    if (isInfinite(rows)) {
+      for (int i = 0; i < numRows; i++)
+        if (rows.contains(rowNames[i])) answer.add(rowIndices[i], rowNames[i]);
+    } else {
+      for (Value value : rows) {
+        int i = getRowPosition(value);
+        if (i >= 0) answer.add(rowIndices[i], rowNames[i]);
+      }
+    }
+    return answer;
+  }
+
+  /** (fb:row.row.index indices): pairs (row, index) */
+  public ValuePairArrayList rowsOfIndices(Collection<Value> indices, boolean indexStartsAt1) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    if (isInfinite(indices)) {
+      for (int i = 0; i < numRows; i++)
+        if (indices.contains(rowIndices[i])) answer.add(rowNames[i], rowIndices[i]);
+    } else {
+      for (Value value : indices) {
+        if (!(value instanceof NumberValue)) continue;
+        double x = ((NumberValue) value).value;
+        if (Math.abs(x - Math.round(x)) > 1e-6) continue;    // Ignore non-integers
+        int i = (int) x;
+        if (indexStartsAt1) i--;
+        if (i < 0 || i >= numRows) continue;
+        answer.add(rowNames[i], rowIndices[i]);
+      }
+    }
+    return answer;
+  }
+
+  /** (!fb:row.row.[column] rows): pairs (cell, row) */
+  public ValuePairArrayList cellsOfRows(int columnIndex, Collection<Value> rows) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    int[] column = columnCells[columnIndex];
+    if (isInfinite(rows)) {
+      for (int i = 0; i < numRows; i++)
+        if (rows.contains(rowNames[i])) answer.add(cells[column[i]].nameValue, rowNames[i]);
+    } else {
+      for (Value value : rows) {
+        int i = getRowPosition(value);
+        if (i >= 0) answer.add(cells[column[i]].nameValue, rowNames[i]);
+      }
+    }
+    return answer;
+  }
+
+  /** (fb:row.row.[column] cells): pairs (row, cell) */
+  public ValuePairArrayList rowsOfCells(int columnIndex, Collection<Value> cellValues) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    int[] column = columnCells[columnIndex];
+    BitSet selectedRows;
+    if (isInfinite(cellValues)) {
+      selectedRows = new BitSet(numRows);
+      for (int i = 0; i < numRows; i++)
+        if (cellValues.contains(cells[column[i]].nameValue)) selectedRows.set(i);
+    } else {
+      selectedRows = new BitSet(numRows);
+      BitSet selectedCells = selectCells(cellValues);
+      for (int c = selectedCells.nextSetBit(0); c >= 0; c = selectedCells.nextSetBit(c + 1))
+        if (cellColumns[c] == columnIndex) selectedRows.or(cellRows[c]);
+    }
+    for (int i = selectedRows.nextSetBit(0); i >= 0; i = selectedRows.nextSetBit(i + 1))
+      answer.add(rowNames[i], cells[column[i]].nameValue);
+    return answer;
+  }
+
+  /** (!fb:row.consecutive.[column] rows): pairs (count, row) */
+  public ValuePairArrayList consecutiveCountsOfRows(int columnIndex, Collection<Value> rows) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    int[] counts = columnConsecutiveCounts[columnIndex];
+    BitSet selectedRows = selectRows(rows);
+    for (int i = selectedRows.nextSetBit(0); i >= 0; i = selectedRows.nextSetBit(i + 1))
+      answer.add(countValues[counts[i]], rowNames[i]);
+    return answer;
+  }
+
+  /** (fb:row.consecutive.[column] counts): pairs (row, count) */
+  public ValuePairArrayList rowsOfConsecutiveCounts(int columnIndex, Collection<Value> counts) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    int[] columnCounts = columnConsecutiveCounts[columnIndex];
+    // 0 = not yet checked, 1 = selected, 2 = not selected
+    byte[] selectedCounts = new byte[numRows + 1];
+    for (int i = 0; i < numRows; i++) {
+      int count = columnCounts[i];
+      if (selectedCounts[count] == 0)
+        selectedCounts[count] = counts.contains(countValues[count]) ? (byte) 1 : (byte) 2;
+      if (selectedCounts[count] == 1) answer.add(rowNames[i], countValues[count]);
+    }
+    return answer;
+  }
+
+  /** (!fb:cell.cell.[property] cells): pairs (property value, cell) */
+  public ValuePairArrayList propertiesOfCells(Value property, Collection<Value> cellValues) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    Value[][] values = cellPropertyValues.get(property);
+    if (values == null) return answer;
+    if (isInfinite(cellValues)) {
+      // One pair for each occurrence of the cell in the table
+      BitSet selectedCells = new BitSet(numCells);
+      for (int c = 0; c < numCells; c++)
+        if (values[c].length > 0 && cellValues.contains(cells[c].nameValue)) selectedCells.set(c);
+      for (int j = 0; j < numColumns; j++) {
+        for (int c : columnCells[j]) {
+          if (!selectedCells.get(c)) continue;
+          for (Value value : values[c])
+            answer.add(value, cells[c].nameValue);
+        }
+      }
+    } else {
+      for (Value cellValue : cellValues) {
+        int c = getCellIndex(cellValue);
+        if (c < 0) continue;
+        for (Value value : values[c])
+          answer.add(value, cells[c].nameValue);
+      }
+    }
+    return answer;
+  }
+
+  /** (fb:cell.cell.[property] values): pairs (cell, property value), once for each occurrence of the cell */
+  public ValuePairArrayList cellsOfProperties(Value property, Collection<Value> propertyValues) {
+    ValuePairArrayList answer = new ValuePairArrayList();
+    Value[][] values = cellPropertyValues.get(property);
+    if (values == null) return answer;
+    if (!isInfinite(propertyValues)) propertyValues = new HashSet<>(propertyValues);
+    BitSet selectedCells = selectCellsWithProperty(property, values, propertyValues);
+    for (int j = 0; j < numColumns; j++) {
+      for (int c : columnCells[j]) {
+        if (!selectedCells.get(c)) continue;
+        for (Value value : values[c])
+          if (values[c].length == 1 || propertyValues.contains(value))
+            answer.add(cells[c].nameValue, value);
+      }
+    }
+    return answer;
+  }
+
+  // Ids of cells with at least one property value in |propertyValues|.
+  private BitSet selectCellsWithProperty(Value property, Value[][] values, Collection<Value> propertyValues) {
+    BitSet selected = new BitSet(numCells);
+    if (!isInfinite(propertyValues)) {
+      // Typed fast paths: compare primitives against a sorted array of the targets
+      double[] numbers = cellPropertyNumbers.get(property);
+      if (numbers != null && allUnitlessNumbers(propertyValues)) {
+        double[] targets = new double[propertyValues.size()];
+        int k = 0;
+        for (Value value : propertyValues) targets[k++] = ((NumberValue) value).value;
+        Arrays.sort(targets);
+        for (int c = 0; c < numCells; c++)
+          if (!Double.isNaN(numbers[c]) && Arrays.binarySearch(targets, numbers[c]) >= 0) selected.set(c);
+        return selected;
+      }
+      if (cellDates != null && property.equals(TableTypeSystem.CELL_DATE_VALUE) && allDates(propertyValues)) {
+        long[] targets = new long[propertyValues.size()];
+        int k = 0;
+        for (Value value : propertyValues) targets[k++] = packDate((DateValue) value);
+        Arrays.sort(targets);
+        for (int c = 0; c < numCells; c++)
+          if (cellDates[c] != MISSING_DATE && Arrays.binarySearch(targets, cellDates[c]) >= 0) selected.set(c);
+        return selected;
+      }
+    }
+    for (int c = 0; c < numCells; c++) {
+      for (Value value : values[c]) {
+        if (propertyValues.contains(value)) {
+          selected.set(c);
+          break;
+        }
+      }
+    }
+    return selected;
+  }
+
+  private static boolean allUnitlessNumbers(Collection<Value> values) {
+    for (Value value : values)
+      if (!isUnitlessNumber(value)) return false;
+    return true;
+  }
+
+  private static boolean allDates(Collection<Value> values) {
+    for (Value value : values)
+      if (!(value instanceof DateValue)) return false;
+    return true;
+  }
+
+}
@@ -54,6 +54,8 @@ public class ScopedFormula extends Formula {
   @SuppressWarnings({"equalshashcode"})
   @Override
   public boolean equals(Object thatObj) {
+    if (this == thatObj) return true;
+    if (bothInterned(thatObj)) return false;
     if (!(thatObj instanceof ScopedFormula)) return false;
     ScopedFormula that = (ScopedFormula) thatObj;
     if (!this.head.equals(that.head)) return false;
@@ -42,8 +42,6 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
     public boolean cacheTableKnowledgeGraphs = true;
     @Option(gloss = "Forbid row.row.next on multiple rows")
     public boolean forbidNextOnManyRows = true;
-    @Option(gloss = "Set up executor cache for each graph (must manually clear, or else will get memory overflow)")
-    public boolean individualExecutorCache = false;
     @Option(gloss = "Have the row index starts at 1 instead of 0")
     public boolean rowIndexStartsAt1 = true;
   }
@@ -69,11 +67,13 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
   Map<String, String> partIdToOriginalString;
 
   FuzzyMatcher fuzzyMatcher;
+  // Columnar representation used by the join and filter primitives
+  ColumnarTable columnarTable;
   public ExecutorCache executorCache;
 
   @Override
   public void clean() {
-    if (executorCache != null) executorCache.clearCache(this);
+    executorCache.clearCache();
   }
 
   // ============================================================
@@ -155,7 +155,8 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
     }
     // Precompute normalized strings for fuzzy matching
     fuzzyMatcher = FuzzyMatcher.getFuzzyMatcher(this);
-    executorCache = opts.individualExecutorCache ? new ExecutorCache() : null;
+    columnarTable = new ColumnarTable(rows, columns);
+    executorCache = new ExecutorCache();
   }
 
   /**
@@ -258,7 +259,8 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
         cellParts.add((NameValue) part);
     // Precompute normalized strings for fuzzy matching
     fuzzyMatcher = FuzzyMatcher.getFuzzyMatcher(this);
-    executorCache = opts.individualExecutorCache ? new ExecutorCache() : null;
+    columnarTable = new ColumnarTable(rows, columns);
+    executorCache = new ExecutorCache();
   }
 
   // ============================================================
@@ -272,7 +274,7 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
       LispTree tree = LispTree.proto.newList();
       tree.addChild("graph");
       tree.addChild("tables.TableKnowledgeGraph");
-      if (filename.startsWith(opts.baseCSVDir))
+      if (opts.baseCSVDir != null && filename.startsWith(opts.baseCSVDir))
         tree.addChild(Paths.get(opts.baseCSVDir).relativize(Paths.get(filename)).toString());
       else {
         tree.addChild(filename);
@@ -344,16 +346,17 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
   /** Return all x such that y in seconds and (x,r,y) in graph */
   @Override
   public List<Value> joinSecond(Value r, Collection<Value> seconds) {
-    List<Value> answer = new ArrayList<>();
-    for (Pair<Value, Value> pair : filterSecond(r, seconds))
-      answer.add(pair.getFirst());
+    ValuePairArrayList pairs = filterSecond(r, seconds);
+    List<Value> answer = new ArrayList<>(pairs.size());
+    for (int i = 0; i < pairs.size(); i++)
+      answer.add(pairs.firstAt(i));
     return answer;
   }
 
   /** Return all (x,y) such that x in firsts and (x,r,y) in graph */
   @Override
   public List<Pair<Value, Value>> filterFirst(Value r, Collection<Value> firsts) {
-    return getReversedPairs(filterSecond(CanonicalNames.reverseProperty(r), firsts));
+    return filterSecond(CanonicalNames.reverseProperty(r), firsts).reversed();
   }
 
   /*
@@ -361,12 +364,12 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
    *   X-Y = row-row, row-primitive, primitive-row, row-cell, cell-primitive
    * - {one,many} to many: Remove duplicates first, then each X maps to possibly many Y's
    *   X-Y = cell-row, primitive-cell
+   *
+   * The actual computation is done on the columnar representation (see ColumnarTable).
    */
   /** Return all (x,y) such that y in seconds and (x,r,y) in graph */
-  // TODO(ice): Check correctness
   @Override
-  public List<Pair<Value, Value>> filterSecond(Value r, Collection<Value> seconds) {
-    List<Pair<Value, Value>> answer = new ArrayList<>();
+  public ValuePairArrayList filterSecond(Value r, Collection<Value> seconds) {
     if (CanonicalNames.isReverseProperty(r)) {
       r = CanonicalNames.reverseProperty(r);
       if (r.equals(TYPE)) {
@@ -377,197 +380,76 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
       } else if (r.equals(TableTypeSystem.ROW_NEXT_VALUE)) {
         ////////////////////////////////////////////////////////////
         // (!fb:row.row.next fb:row.r5) --> fb:row.r6
-        if (opts.forbidNextOnManyRows && seconds.size() != 1 && seconds != InfiniteUnaryDenotation.STAR_UNARY) {
-          throw new LambdaDCSException(Type.nonSingletonList, "cannot call next on " + seconds.size() + " rows.");
-        }
-        if (seconds.size() == Integer.MAX_VALUE) {
-          for (int i = 0; i < rows.size() - 1; i++) {
-            if (!seconds.contains(rows.get(i).nameValue)) continue;
-            answer.add(new Pair<>(rows.get(i + 1).nameValue, rows.get(i).nameValue));
-          }
-        } else {
-          for (Value value : seconds) {
-            if (!(value instanceof NameValue)) continue;
-            TableRow row = rowIdToTableRow.get(((NameValue) value).id);
-            if (row == null) continue;
-            int i = opts.rowIndexStartsAt1 ? row.index - 1 : row.index;
-            if (i + 1 >= rows.size()) continue;
-            answer.add(new Pair<>(rows.get(i + 1).nameValue, row.nameValue));
-          }
-        }
+        checkNextOnManyRows(seconds);
+        return columnarTable.nextRows(seconds);
       } else if (r.equals(TableTypeSystem.ROW_INDEX_VALUE)) {
         ////////////////////////////////////////////////////////////
         // (!fb:row.row.index fb:row.r5) --> (number 5)
-        if (seconds.size() == Integer.MAX_VALUE) {
-          for (TableRow row : rows) {
-            if (!seconds.contains(row.nameValue)) continue;
-            answer.add(new Pair<>(row.indexValue, row.nameValue));
-          }
-        } else {
-          for (Value value : seconds) {
-            if (!(value instanceof NameValue)) continue;
-            TableRow row = rowIdToTableRow.get(((NameValue) value).id);
-            if (row == null) continue;
-            answer.add(new Pair<>(row.indexValue, row.nameValue));
-          }
-        }
+        return columnarTable.rowIndicesOf(seconds);
       } else if (TableTypeSystem.isCellProperty(r)) {
         ////////////////////////////////////////////////////////////
         // (!fb:cell.cell.number fb:cell_id.5) --> 5
-        if (seconds.size() == Integer.MAX_VALUE) {
-          for (TableColumn column : columns) {
-            for (TableCell cell : column.children) {
-              for (Value property : cell.properties.metadata.get(r)) {
-                if (!seconds.contains(cell.properties.nameValue)) continue;
-                answer.add(new Pair<>(property, cell.properties.nameValue));
-              }
-            }
-          }
-        } else {
-          for (Value value : seconds) {
-            if (!(value instanceof NameValue)) continue;
-            TableCellProperties properties = cellIdToTableCellProperties.get(((NameValue) value).id);
-            if (properties == null) continue;
-            for (Value property : properties.metadata.get(r)) {
-              answer.add(new Pair<>(property, properties.nameValue));
-            }
-          }
-        }
+        return columnarTable.propertiesOfCells(r, seconds);
       } else if (TableTypeSystem.isRowProperty(r)) {
         ////////////////////////////////////////////////////////////
         // (!fb:row.row.nationality fb:row.r5) --> fb:cell.canada
-        if (seconds.size() == Integer.MAX_VALUE) {
-          for (int i = 0; i < columns.size(); i++) {
-            if (!r.equals(columns.get(i).relationNameValue)) continue;
-            for (TableRow row : rows) {
-              if (!seconds.contains(row.nameValue)) continue;
-              answer.add(new Pair<>(row.children.get(i).properties.nameValue, row.nameValue));
-            }
-          }
-        } else {
-          for (int i = 0; i < columns.size(); i++) {
-            if (!r.equals(columns.get(i).relationNameValue)) continue;
-            for (Value value : seconds) {
-              if (!(value instanceof NameValue)) continue;
-              TableRow row = rowIdToTableRow.get(((NameValue) value).id);
-              if (row == null) continue;
-              answer.add(new Pair<>(row.children.get(i).properties.nameValue, row.nameValue));
-            }
-          }
-        }
+        int columnIndex = columnarTable.getColumnIndex(r);
+        if (columnIndex >= 0)
+          return columnarTable.cellsOfRows(columnIndex, seconds);
       } else if (TableTypeSystem.isRowConsecutiveProperty(r)) {
         ////////////////////////////////////////////////////////////
         // (!fb:row.consecutive.nationality fb:row.r5) --> (number 2)
-        for (int i = 0; i < columns.size(); i++) {
-          if (!r.equals(columns.get(i).relationConsecutiveNameValue)) continue;
-          int count = 0;
-          NameValue lastCell = null;
-          for (TableRow row : rows) {
-            if (row.children.get(i).properties.nameValue.equals(lastCell))
-              count++;
-            else {
-              count = 1;
-              lastCell = row.children.get(i).properties.nameValue;
-            }
-            if (!seconds.contains(row.nameValue)) continue;
-            answer.add(new Pair<>(new NumberValue(count), row.nameValue));
-          }
-        }
+        int columnIndex = columnarTable.getConsecutiveColumnIndex(r);
+        if (columnIndex >= 0)
+          return columnarTable.consecutiveCountsOfRows(columnIndex, seconds);
       }
     } else {
       if (r.equals(TYPE)) {
         ////////////////////////////////////////////////////////////
         // (fb:type.object.type fb:type.row) --> {fb:row.r1, fb:row.r2, ...}
+        ValuePairArrayList answer = new ValuePairArrayList();
         for (Value second : seconds) {
           if (second.equals(ROW_TYPE)) {
             for (TableRow row : rows)
-              answer.add(new Pair<>(row.nameValue, second));
+              answer.add(row.nameValue, second);
           }
         }
+        return answer;
       } else if (r.equals(TableTypeSystem.ROW_NEXT_VALUE)) {
         ////////////////////////////////////////////////////////////
         // (fb:row.row.next fb:row.r5) --> fb:row.r4
-        if (opts.forbidNextOnManyRows && seconds.size() != 1 && seconds != InfiniteUnaryDenotation.STAR_UNARY) {
-          throw new LambdaDCSException(Type.nonSingletonList, "cannot call next on " + seconds.size() + " rows.");
-        }
-        if (seconds.size() == Integer.MAX_VALUE) {
-          for (int i = 1; i < rows.size(); i++) {
-            if (!seconds.contains(rows.get(i).nameValue)) continue;
-            answer.add(new Pair<>(rows.get(i - 1).nameValue, rows.get(i).nameValue));
-          }
-        } else {
-          for (Value value : seconds) {
-            if (!(value instanceof NameValue)) continue;
-            TableRow row = rowIdToTableRow.get(((NameValue) value).id);
-            if (row == null) continue;
-            int i = opts.rowIndexStartsAt1 ? row.index - 1 : row.index;
-            if (i - 1 < 0) continue;
-            answer.add(new Pair<>(rows.get(i - 1).nameValue, row.nameValue));
-          }
-        }
+        checkNextOnManyRows(seconds);
+        return columnarTable.previousRows(seconds);
       } else if (r.equals(TableTypeSystem.ROW_INDEX_VALUE)) {
         ////////////////////////////////////////////////////////////
         // (fb:row.row.index (number 5)) --> fb:row.r5
-        if (seconds.size() == Integer.MAX_VALUE) {
-          for (TableRow row : rows) {
-            if (!seconds.contains(row.indexValue)) continue;
-            answer.add(new Pair<>(row.nameValue, row.indexValue));
-          }
-        } else {
-          for (Value value : seconds) {
-            if (!(value instanceof NumberValue)) continue;
-            double x = ((NumberValue) value).value;
-            if (Math.abs(x - Math.round(x)) > 1e-6) continue;    // Ignore non-integers
-            int i = (int) x;
-            if (opts.rowIndexStartsAt1) i--;
-            if (i < 0 || i >= rows.size()) continue;
-            TableRow row = rows.get(i);
-            answer.add(new Pair<>(row.nameValue, row.indexValue));
-          }
-        }
+        return columnarTable.rowsOfIndices(seconds, opts.rowIndexStartsAt1);
       } else if (TableTypeSystem.isCellProperty(r)) {
         ////////////////////////////////////////////////////////////
         // (fb:cell.cell.number (number 5)) --> {fb:cell_id.5 fb:cell_population.5, ...}
         // Possibly with repeated id (if there are multiple cells with that id)
-        for (TableColumn column : columns) {
-          for (TableCell cell : column.children) {
-            for (Value property : cell.properties.metadata.get(r)) {
-              if (!seconds.contains(property)) continue;
-              answer.add(new Pair<>(cell.properties.nameValue, property));
-            }
-          }
-        }
+        return columnarTable.cellsOfProperties(r, seconds);
       } else if (TableTypeSystem.isRowProperty(r)) {
         ////////////////////////////////////////////////////////////
         // (fb:row.row.nationality fb:cell.canada) --> fb:row.r5
-        for (int i = 0; i < columns.size(); i++) {
-          if (!r.equals(columns.get(i).relationNameValue)) continue;
-          for (TableRow row : rows) {
-            if (!seconds.contains(row.children.get(i).properties.nameValue)) continue;
-            answer.add(new Pair<>(row.nameValue, row.children.get(i).properties.nameValue));
-          }
-        }
+        int columnIndex = columnarTable.getColumnIndex(r);
+        if (columnIndex >= 0)
+          return columnarTable.rowsOfCells(columnIndex, seconds);
       } else if (TableTypeSystem.isRowConsecutiveProperty(r)) {
         ////////////////////////////////////////////////////////////
         // (fb:row.consecutive.nationality (number 2)) --> fb:row.r5
-        for (int i = 0; i < columns.size(); i++) {
-          if (!r.equals(columns.get(i).relationConsecutiveNameValue)) continue;
-          int count = 0;
-          NameValue lastCell = null;
-          for (TableRow row : rows) {
-            if (row.children.get(i).properties.nameValue.equals(lastCell))
-              count++;
-            else {
-              count = 1;
-              lastCell = row.children.get(i).properties.nameValue;
-            }
-            if (!seconds.contains(new NumberValue(count))) continue;
-            answer.add(new Pair<>(row.nameValue, new NumberValue(count)));
-          }
-        }
+        int columnIndex = columnarTable.getConsecutiveColumnIndex(r);
+        if (columnIndex >= 0)
+          return columnarTable.rowsOfConsecutiveCounts(columnIndex, seconds);
       }
     }
-    return answer;
+    return new ValuePairArrayList();
+  }
+
+  private void checkNextOnManyRows(Collection<Value> seconds) {
+    if (opts.forbidNextOnManyRows && seconds.size() != 1 && seconds != InfiniteUnaryDenotation.STAR_UNARY) {
+      throw new LambdaDCSException(Type.nonSingletonList, "cannot call next on " + seconds.size() + " rows.");
+    }
   }
 
   // ============================================================
@@ -583,6 +465,7 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
   public int numRows() { return rows.size(); }
   public int numColumns() { return columns.size(); }
   public int numUniqueCells() { return cellProperties.size(); }
+  public ColumnarTable getColumnarTable() { return columnarTable; }
 
   public TableRow getRow(int rowIndex) {
     return rows.get(rowIndex);
@@ -662,10 +545,11 @@ public class TableKnowledgeGraph extends KnowledgeGraph implements FuzzyMatchabl
     TableColumn column = relationIdToTableColumn.get(property);
     if (column == null) return null;
     List<Integer> answer = new ArrayList<>();
-    for (int i = 0; i < column.children.size(); i++) {
-      if (column.children.get(i).properties.id.equals(nameValueId))
-        answer.add(i);
-    }
+    int cellIndex = columnarTable.getCellIndex(nameValueId);
+    if (cellIndex < 0) return answer;
+    BitSet cellRows = columnarTable.getRowsOfCell(cellIndex);
+    for (int i = cellRows.nextSetBit(0); i >= 0; i = cellRows.nextSetBit(i + 1))
+      answer.add(i);
     return answer;
   }
 
@@ -0,0 +1,80 @@
+package edu.stanford.nlp.sempre.tables;
+
+import java.util.*;
+
+import edu.stanford.nlp.sempre.*;
+import fig.basic.Pair;
+
+/**
+ * A compact list of (first, second) Value pairs backed by two parallel arrays.
+ *
+ * Returned by the join and filter primitives of ColumnarTable so that large joins
+ * do not allocate one Pair object per result. Pair objects are only created
+ * when the list is accessed through the java.util.List interface;
+ * hot loops should use firstAt(i) and secondAt(i) instead.
+ */
+public class ValuePairArrayList extends AbstractList<Pair<Value, Value>> implements RandomAccess {
+
+  private Value[] firsts, seconds;
+  private int size;
+
+  public ValuePairArrayList() {
+    this(8);
+  }
+
+  public ValuePairArrayList(int initialCapacity) {
+    initialCapacity = Math.max(initialCapacity, 1);
+    firsts = new Value[initialCapacity];
+    seconds = new Value[initialCapacity];
+  }
+
+  private ValuePairArrayList(Value[] firsts, Value[] seconds, int size) {
+    this.firsts = firsts;
+    this.seconds = seconds;
+    this.size = size;
+  }
+
+  public void add(Value first, Value second) {
+    if (size == firsts.length) {
+      int newCapacity = firsts.length * 2;
+      firsts = Arrays.copyOf(firsts, newCapacity);
+      seconds = Arrays.copyOf(seconds, newCapacity);
+    }
+    firsts[size] = first;
+    seconds[size] = second;
+    size++;
+  }
+
+  @Override
+  public boolean add(Pair<Value, Value> pair) {
+    add(pair.getFirst(), pair.getSecond());
+    return true;
+  }
+
+  public Value firstAt(int i) {
+    if (i >= size) throw new IndexOutOfBoundsException("" + i);
+    return firsts[i];
+  }
+
+  public Value secondAt(int i) {
+    if (i >= size) throw new IndexOutOfBoundsException("" + i);
+    return seconds[i];
+  }
+
+  @Override
+  public Pair<Value, Value> get(int i) {
+    if (i >= size) throw new IndexOutOfBoundsException("" + i);
+    return new Pair<>(firsts[i], seconds[i]);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** Return a new list of (second, first) pairs. */
+  public ValuePairArrayList reversed() {
+    return new ValuePairArrayList(Arrays.copyOf(seconds, Math.max(size, 1)), Arrays.copyOf(firsts, Math.max(size, 1)), size);
+  }
+
+}
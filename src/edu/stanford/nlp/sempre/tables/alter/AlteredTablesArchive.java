@@ -0,0 +1,143 @@
+package edu.stanford.nlp.sempre.tables.alter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import edu.stanford.nlp.sempre.tables.StringNormalizationUtils;
+import edu.stanford.nlp.sempre.tables.TableKnowledgeGraph;
+import edu.stanford.nlp.sempre.tables.serialize.TableWriter;
+import fig.basic.IOUtils;
+import fig.basic.LogInfo;
+
+/**
+ * A single file containing altered tables of many examples, with an index for random access.
+ *
+ * - The data file has the same format as the concat file (TableAltererCache.alteredTablesConcatCache):
+ *   each table is a line "[id] [alteredTableIndex] [numLines]" followed by numLines TSV lines.
+ * - The index file ([data file].index) has one line "[id] [alteredTableIndex] [byte offset] [byte length]"
+ *   for each table in the data file, and a line "[id] END" after all tables of an example are written.
+ *
+ * Both files are append-only. A table is added to the index only after its data is written,
+ * so an interrupted run leaves the archive in a usable state. An example interrupted halfway
+ * through its tables has no END line, so it is not considered present (see contains(id)).
+ * The archive can be shared by multiple threads.
+ */
+public class AlteredTablesArchive {
+
+  private final String path;
+  private final RandomAccessFile data;
+  private final PrintWriter indexOut;
+  // "id \t alteredTableIndex" => {offset, length}
+  private final Map<String, long[]> index = new HashMap<>();
+  // Examples whose tables are all written
+  private final Set<String> completeIds = new HashSet<>();
+  private static final String END_MARKER = "END";
+
+  public AlteredTablesArchive(String path) {
+    this.path = path;
+    File indexFile = new File(path + ".index");
+    try {
+      if (indexFile.exists()) {
+        for (String line : IOUtils.readLinesHard(indexFile.getPath())) {
+          String[] fields = line.split("\t");
+          if (fields.length == 2 && END_MARKER.equals(fields[1])) {
+            completeIds.add(fields[0]);
+          } else if (fields.length == 4) {
+            index.put(fields[0] + "\t" + fields[1], new long[] {Long.parseLong(fields[2]), Long.parseLong(fields[3])});
+          }     // Otherwise, the line was partially written
+        }
+        LogInfo.logs("Read index of %d tables from %s", index.size(), indexFile);
+      }
+      data = new RandomAccessFile(path, "rw");
+      indexOut = new PrintWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new RuntimeException("Error opening archive " + path + ": " + e);
+    }
+  }
+
+  /**
+   * Whether all tables of the example are in the archive (markComplete was called).
+   */
+  public synchronized boolean contains(String id) {
+    return completeIds.contains(id);
+  }
+
+  public synchronized boolean contains(String id, String alteredTableIndex) {
+    return index.containsKey(id + "\t" + alteredTableIndex);
+  }
+
+  /**
+   * Return the table, or null if the table is not in the archive.
+   */
+  public TableKnowledgeGraph load(String id, String alteredTableIndex) {
+    byte[] bytes;
+    synchronized (this) {
+      long[] location = index.get(id + "\t" + alteredTableIndex);
+      if (location == null) return null;
+      bytes = new byte[(int) location[1]];
+      try {
+        data.seek(location[0]);
+        data.readFully(bytes);
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading " + id + " " + alteredTableIndex + " from " + path + ": " + e);
+      }
+    }
+    String[] lines = new String(bytes, StandardCharsets.UTF_8).split("\r?\n", -1);
+    String[] metadata = lines[0].split("\t");
+    if (metadata.length != 3 || !id.equals(metadata[0]) || !alteredTableIndex.equals(metadata[1]))
+      throw new RuntimeException("Incorrect metadata. Expected " + id + " " + alteredTableIndex + " ___; found " + lines[0]);
+    int numLines = Integer.parseInt(metadata[2]);
+    List<String[]> records = new ArrayList<>();
+    for (int i = 1; i <= numLines; i++) {
+      String[] fields = lines[i].split("\t", -1);     // Include trailing spaces
+      for (int j = 0; j < fields.length; j++)
+        fields[j] = StringNormalizationUtils.unescapeTSV(fields[j]);
+      records.add(fields);
+    }
+    return new TableKnowledgeGraph(id + "/" + alteredTableIndex + ".tsv", records);
+  }
+
+  /**
+   * Append the table to the archive. If the table is already in the archive, the new one takes precedence.
+   */
+  public void write(TableKnowledgeGraph graph, String id, String alteredTableIndex) {
+    StringWriter tsv = new StringWriter();
+    try (PrintWriter out = new PrintWriter(tsv)) {
+      new TableWriter(graph).writeTSV(out);
+    }
+    String chunk = id + "\t" + alteredTableIndex + "\t" + (graph.numRows() + 1) + "\n" + tsv.toString();
+    byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+    synchronized (this) {
+      try {
+        long offset = data.length();
+        data.seek(offset);
+        data.write(bytes);
+        indexOut.println(id + "\t" + alteredTableIndex + "\t" + offset + "\t" + bytes.length);
+        indexOut.flush();
+        index.put(id + "\t" + alteredTableIndex, new long[] {offset, bytes.length});
+      } catch (IOException e) {
+        throw new RuntimeException("Error writing " + id + " " + alteredTableIndex + " to " + path + ": " + e);
+      }
+    }
+  }
+
+  /**
+   * Record that all tables of the example have been written.
+   */
+  public synchronized void markComplete(String id) {
+    indexOut.println(id + "\t" + END_MARKER);
+    indexOut.flush();
+    completeIds.add(id);
+  }
+
+  public synchronized void close() {
+    try {
+      data.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    indexOut.close();
+  }
+
+}
@@ -12,7 +12,7 @@ import fig.basic.*;
 import fig.exec.Execution;
 
 /**
- * For each example,
+ * For each example (in parallel if numThreads > 1),
  * - Generate altered tables
  * - Execute the formulas on altered tables.
  * - Select the most informative subset of tables to be sent to MTurk.
@@ -43,6 +43,11 @@ public class BatchTableAlterer implements Runnable {
     public boolean skipExistingSaveDirs = false;
     @Option(gloss = "whether to overwrite the saved altered tables")
     public boolean overwriteExistingSaveDirs = false;
+    @Option(gloss = "file listing the IDs of completed examples; skip these examples and append newly completed ones")
+    public String checkpointPath = null;
+    // Parallelization
+    @Option(gloss = "number of threads for processing examples")
+    public int numThreads = 1;
     // Choosing subset of altered tables
     @Option(gloss = "which subset chooser to use")
     public SubsetChooserSpec subsetChooser = SubsetChooserSpec.ENTROPY;
@@ -78,6 +83,8 @@ public class BatchTableAlterer implements Runnable {
   private AggregatedTurkData turkedData = null;
   private PrintWriter turkInfoWriter = null;
   private SerializedDumper turkMatchDumper = null;
+  private Set<String> completedIds = new HashSet<>();
+  private PrintWriter checkpointOut = null;
 
   @Override
   public void run() {
@@ -159,28 +166,61 @@ public class BatchTableAlterer implements Runnable {
     if (opts.subsetChooser != null)
       retainedTablesOut = IOUtils.openOutAppendEasy(Execution.getFile("retained-tables.tsv"));
 
+    // Checkpoint (optional)
+    if (opts.checkpointPath != null && !opts.checkpointPath.isEmpty()) {
+      if (new File(opts.checkpointPath).exists())
+        completedIds.addAll(IOUtils.readLinesHard(opts.checkpointPath));
+      LogInfo.logs("Checkpoint: %d completed examples", completedIds.size());
+      checkpointOut = IOUtils.openOutAppendEasy(opts.checkpointPath);
+    }
+
     // Go through the dataset
     Execution.putOutput("group", "train");
-    int index = -1;
-    for (Example ex : examples) {
-      Execution.putOutput("example", ++index);
-      if (!CustomExample.checkFilterExamples(index) ||
+    List<Integer> indices = new ArrayList<>();
+    for (int index = 0; index < examples.size(); index++) {
+      Example ex = examples.get(index);
+      if (!CustomExample.checkFilterExamples(index) || completedIds.contains(ex.id) ||
           (opts.skipExistingSaveDirs && tableAltererCache.existsSaveDir(ex.id))) {
         LogInfo.logs("SKIPPING %s", ex.id);
         continue;
       }
-      List<TableKnowledgeGraph> graphs = process(ex);
-      if (!tableAltererCache.existsSaveDir(ex.id) || opts.overwriteExistingSaveDirs)
-        tableAltererCache.dump(graphs, ex.id);
-      ex.predDerivations.clear();     // Save memory
+      indices.add(index);
+    }
+    final List<Example> allExamples = examples;
+    if (opts.numThreads > 1) {
+      if (tableAltererCache.isSequential())
+        LogInfo.fails("Cannot process examples in parallel when reading from alteredTablesConcatCache");
+      Parallelizer<Integer> paral = new Parallelizer<>(opts.numThreads);
+      LogInfo.begin_threads();
+      paral.process(indices, (index, i, n) -> processAndSave(allExamples.get(index), index));
+      LogInfo.end_threads();
+    } else {
+      for (int index : indices)
+        processAndSave(allExamples.get(index), index);
     }
 
+    tableAltererCache.close();
+    if (checkpointOut != null) checkpointOut.close();
     if (representativeDumper != null) representativeDumper.closeFile();
     if (retainedTablesOut != null) retainedTablesOut.close();
     if (turkInfoWriter != null) turkInfoWriter.close();
     if (turkMatchDumper != null) turkMatchDumper.closeFile();
   }
 
+  private void processAndSave(Example ex, int index) {
+    Execution.putOutput("example", index);
+    List<TableKnowledgeGraph> graphs = process(ex);
+    if (!tableAltererCache.existsSaveDir(ex.id) || opts.overwriteExistingSaveDirs)
+      tableAltererCache.dump(graphs, ex.id);
+    ex.predDerivations.clear();     // Save memory
+    if (checkpointOut != null) {
+      synchronized (checkpointOut) {
+        checkpointOut.println(ex.id);
+        checkpointOut.flush();
+      }
+    }
+  }
+
   private List<TableKnowledgeGraph> process(Example ex) {
     LogInfo.begin_track("Processing %s", ex.id);
     ex.log();
@@ -257,6 +297,8 @@ public class BatchTableAlterer implements Runnable {
           logGroups(DenotationData.groupByDenotation(denotationsForTable), annotatedValue, "ANNOTATED");
           LogInfo.end_track();
         }
+        // All formulas have been executed on this table (sharing its executor cache)
+        graph.clean();
       }
     }
     LogInfo.end_track();
@@ -286,7 +328,9 @@ public class BatchTableAlterer implements Runnable {
         for (int index : denotationData.getRepresentativeIndices())
           representatives.add(ex.predDerivations.get(index));
         LogInfo.logs("Dumping %d representatives", representatives.size());
-        representativeDumper.dumpExample(ex, representatives);
+        synchronized (this) {
+          representativeDumper.dumpExample(ex, representatives);
+        }
       }
 
       // Log the summary
@@ -315,8 +359,10 @@ public class BatchTableAlterer implements Runnable {
           LogInfo.logs("RETAINED TABLES: null");
           chosen = new Subset(ex.id);
         }
-        retainedTablesOut.println(chosen);
-        retainedTablesOut.flush();
+        synchronized (this) {
+          retainedTablesOut.println(chosen);
+          retainedTablesOut.flush();
+        }
       }
 
       // Check with Turked data
@@ -499,16 +545,20 @@ public class BatchTableAlterer implements Runnable {
         Subset chosen = subsetChooser.chooseSubset(ex.id, filtered, turked.keySet());
         if (chosen != null) {
           LogInfo.logs("RETAINED TABLES: %s", chosen.indices);
-          retainedTablesOut.println(chosen);
-          retainedTablesOut.flush();
+          synchronized (this) {
+            retainedTablesOut.println(chosen);
+            retainedTablesOut.flush();
+          }
         }
       } else {
         LogInfo.logs("Not choosing subset since turk matching equivalent classes = %d", info.numClassesMatched);
       }
     }
     // Dump stuff
-    info.dump(turkInfoWriter);
-    turkMatchDumper.dumpExample(ex, matchedDerivs);
+    synchronized (this) {
+      info.dump(turkInfoWriter);
+      turkMatchDumper.dumpExample(ex, matchedDerivs);
+    }
     LogInfo.end_track();
   }
 
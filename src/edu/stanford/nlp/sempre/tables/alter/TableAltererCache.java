@@ -18,20 +18,37 @@ public class TableAltererCache {
     public String baseAlteredTablesDir = null;
     @Option(gloss = "path for altered table concat file (to reduce file server load)")
     public String alteredTablesConcatCache = null;
+    @Option(gloss = "path for the indexed archive of altered tables (for both loading and saving)")
+    public String alteredTablesArchive = null;
   }
   public static Options opts = new Options();
 
   private BufferedReader concatCache = null;
+  private AlteredTablesArchive archive = null;
 
   public TableAltererCache() {
+    int numSpecified = (opts.baseAlteredTablesDir != null ? 1 : 0)
+        + (opts.alteredTablesConcatCache != null ? 1 : 0) + (opts.alteredTablesArchive != null ? 1 : 0);
+    if (numSpecified > 1)
+      throw new RuntimeException("Can only specify one of baseAlteredTablesDir, alteredTablesConcatCache, and alteredTablesArchive");
     if (opts.alteredTablesConcatCache != null) {
-      if (opts.baseAlteredTablesDir != null)
-        throw new RuntimeException("Cannot specify both baseAlteredTablesDir and alteredTablesConcatCache");
       concatCache = IOUtils.openInHard(opts.alteredTablesConcatCache);
     }
+    if (opts.alteredTablesArchive != null) {
+      archive = new AlteredTablesArchive(opts.alteredTablesArchive);
+    }
+  }
+
+  /**
+   * Whether the tables must be loaded in the order they were saved.
+   * (The concat file can only be read sequentially.)
+   */
+  public boolean isSequential() {
+    return concatCache != null;
   }
 
   public boolean existsSaveDir(String id) {
+    if (archive != null) return archive.contains(id);
     return opts.alteredTablesConcatCache != null
         || (opts.baseAlteredTablesDir != null && new File(opts.baseAlteredTablesDir, id).isDirectory());
   }
@@ -40,10 +57,15 @@ public class TableAltererCache {
     return load(id, "" + alteredTableIndex);
   }
 
-  // Load table from |baseAlteredTablesDir|/nt-??/??.tsv
-  // or the next chunk of |alteredTablesConcatCache|
+  // Load table from |baseAlteredTablesDir|/nt-??/??.tsv,
+  // the next chunk of |alteredTablesConcatCache|, or |alteredTablesArchive|
   public TableKnowledgeGraph load(String id, String alteredTableIndex) {
-    if (opts.baseAlteredTablesDir == null) {
+    if (archive != null) {
+      TableKnowledgeGraph graph = archive.load(id, alteredTableIndex);
+      if (graph != null && BatchTableAlterer.opts.verbose >= 1)
+        LogInfo.logs("Read %s %s from %s", id, alteredTableIndex, opts.alteredTablesArchive);
+      return graph;
+    } else if (opts.baseAlteredTablesDir == null) {
       if (concatCache == null) return null;
       try {
         String line = concatCache.readLine();
@@ -84,21 +106,36 @@ public class TableAltererCache {
     dump(graph, id, "" + alteredTableIndex);
   }
 
-  // Dump table to |baseAlteredTablesDir|/nt-??/??.tsv
+  // Dump table to |baseAlteredTablesDir|/nt-??/??.tsv or |alteredTablesArchive|
   public void dump(TableKnowledgeGraph graph, String id, String alteredTableIndex) {
+    if (archive != null) {
+      archive.write(graph, id, alteredTableIndex);
+      return;
+    }
     if (opts.baseAlteredTablesDir == null)
-      throw new RuntimeException("cannot dump if baseAlteredTablesDir = null");
+      throw new RuntimeException("cannot dump if baseAlteredTablesDir = null and alteredTablesArchive = null");
     File outDir = new File(opts.baseAlteredTablesDir, id);
     outDir.mkdirs();
     new TableWriter(graph).writeTSV(new File(outDir, alteredTableIndex + ".tsv").getPath());
   }
 
-  // Dump tables to |baseAlteredTablesDir|/nt-??/??.tsv
+  // Dump tables to |baseAlteredTablesDir|/nt-??/??.tsv or |alteredTablesArchive|
   public void dump(List<TableKnowledgeGraph> graphs, String id) {
     for (int i = 0; i < graphs.size(); i++) {
       dump(graphs.get(i), id, i);
     }
+    if (archive != null) archive.markComplete(id);
   }
 
+  public void close() {
+    if (concatCache != null) {
+      try {
+        concatCache.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    if (archive != null) archive.close();
+  }
 
 }
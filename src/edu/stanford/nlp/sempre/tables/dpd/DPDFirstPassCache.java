@@ -0,0 +1,104 @@
+package edu.stanford.nlp.sempre.tables.dpd;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import fig.basic.LogInfo;
+
+/**
+ * Persistent cache for the results of the first pass of DPDParser.
+ *
+ * The first pass does not depend on the parameters, so its result (the set of allowed ingredients)
+ * can be reused in later epochs and later runs. Each ingredient is stored as a 64-bit fingerprint.
+ *
+ * Each entry is a binary file [directory]/[key fingerprint].bin containing
+ * - the 128-bit fingerprint of the key (to detect collisions in the file name)
+ * - the number of ingredients
+ * - the sorted ingredient fingerprints
+ *
+ * The key should contain everything that the first pass depends on
+ * (example, target value, table, grammar, and relevant options).
+ */
+public class DPDFirstPassCache {
+
+  private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+  public static long fingerprint(String s) {
+    return fingerprint128(s).asLong();
+  }
+
+  public static HashCode fingerprint128(String s) {
+    return hashFunction.hashString(s, Charsets.UTF_8);
+  }
+
+  public static long fingerprint(long... parts) {
+    Hasher hasher = hashFunction.newHasher();
+    for (long part : parts)
+      hasher.putLong(part);
+    return hasher.hash().asLong();
+  }
+
+  private final String directory;
+
+  public DPDFirstPassCache(String directory) {
+    this.directory = directory;
+    new File(directory).mkdirs();
+    LogInfo.logs("Using DPD first pass cache at %s", directory);
+  }
+
+  private File getFile(HashCode keyHash) {
+    return new File(directory, String.format("%016x.bin", keyHash.asLong()));
+  }
+
+  /**
+   * Return the sorted fingerprints of the allowed ingredients, or null if the key is not in the cache.
+   */
+  public long[] load(String key) {
+    HashCode keyHash = hashFunction.hashString(key, Charsets.UTF_8);
+    File file = getFile(keyHash);
+    if (!file.exists()) return null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      byte[] storedHash = new byte[keyHash.bits() / 8];
+      in.readFully(storedHash);
+      if (!Arrays.equals(storedHash, keyHash.asBytes())) return null;
+      long[] fingerprints = new long[in.readInt()];
+      for (int i = 0; i < fingerprints.length; i++)
+        fingerprints[i] = in.readLong();
+      return fingerprints;
+    } catch (IOException e) {
+      LogInfo.warnings("Error reading %s: %s", file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Store the fingerprints of the allowed ingredients.
+   * The file is written to a temporary file first, so concurrent readers never see a partial entry.
+   */
+  public void save(String key, long[] fingerprints) {
+    HashCode keyHash = hashFunction.hashString(key, Charsets.UTF_8);
+    File file = getFile(keyHash);
+    long[] sorted = fingerprints.clone();
+    Arrays.sort(sorted);
+    try {
+      File tmp = File.createTempFile(file.getName(), ".tmp", new File(directory));
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.write(keyHash.asBytes());
+        out.writeInt(sorted.length);
+        for (long fingerprint : sorted)
+          out.writeLong(fingerprint);
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LogInfo.warnings("Error writing %s: %s", file, e);
+    }
+  }
+
+}
@@ -1,6 +1,9 @@
 package edu.stanford.nlp.sempre.tables.dpd;
 
 import java.util.*;
+import java.util.concurrent.*;
+
+import com.google.common.hash.HashCode;
 
 import edu.stanford.nlp.sempre.*;
 import edu.stanford.nlp.sempre.tables.DenotationTypeInference;
@@ -56,6 +59,10 @@ public class DPDParser extends FloatingParser {
         ));
     @Option(gloss = "Use all pruning strategies if only one formula can produce the denotation")
     public boolean aggressivelyPruneSingleFormulas = true;
+    @Option(gloss = "Directory for caching the first pass results across epochs and runs (null = don't cache)")
+    public String firstPassCacheDir = null;
+    @Option(gloss = "Number of threads for applying floating rules in the first pass (1 = no parallelism)")
+    public int numFirstPassThreads = 1;
     // Debugging flags
     @Option(gloss = "DEBUG: Put the cell name in the canonical utterance of final derivations")
     public boolean putCellNameInCanonicalUtterance = false;
@@ -74,8 +81,26 @@ public class DPDParser extends FloatingParser {
 
   public static enum DumpSpec { NONE, UNIQUE, NONERROR, ALL, FORMULA }
 
+  // Cache of first pass results (null if not used)
+  final DPDFirstPassCache firstPassCache;
+  // Fingerprint of the grammar (part of the first pass cache key)
+  final long grammarFingerprint;
+  // Workers for the parallel first pass (null if not used)
+  final ForkJoinPool firstPassPool;
+
   public DPDParser(Spec spec) {
     super(spec);
+    firstPassPool = opts.numFirstPassThreads > 1 ? new ForkJoinPool(opts.numFirstPassThreads) : null;
+    if (opts.firstPassCacheDir != null) {
+      firstPassCache = new DPDFirstPassCache(opts.firstPassCacheDir);
+      StringBuilder sb = new StringBuilder();
+      for (Rule rule : grammar.getRules())
+        sb.append(rule).append('\n');
+      grammarFingerprint = DPDFirstPassCache.fingerprint(sb.toString());
+    } else {
+      firstPassCache = null;
+      grammarFingerprint = 0;
+    }
   }
 
   @Override
@@ -111,7 +136,7 @@ class DPDParserState extends ParserState {
   private final CatSizeBound catSizeBound;
   private final ParserState backoffParserState;
   private long firstPassParseTime, secondPassParseTime;
-  private boolean timeout = false;
+  private volatile boolean timeout = false;
 
   private Map<Rule, Long> ruleTime;
 
@@ -126,6 +151,12 @@ class DPDParserState extends ParserState {
     beamSize = DPDParser.opts.dpdParserBeamSize > 0 ? DPDParser.opts.dpdParserBeamSize : Parser.opts.beamSize;
     catSizeBound = new CatSizeBound(maxDepth, parser.grammar);
     backoffParserState = backoff;
+    // Register the categories up front, so that worker threads can compute cell ids
+    for (Rule rule : parser.grammar.getRules()) {
+      getCatId(rule.lhs);
+      for (String item : rule.rhs)
+        if (Rule.isCat(item)) getCatId(item);
+    }
   }
 
   @Override
@@ -137,21 +168,112 @@ class DPDParserState extends ParserState {
       featurizeAndScoreDerivation(deriv);
   }
 
+  // ============================================================
+  // Cell and denotation ids
+  // ============================================================
+
+  // Category => id
+  private final Map<String, Integer> catToId = new HashMap<>();
+  private final List<String> idToCat = new ArrayList<>();
+
+  private int getCatId(String cat) {
+    Integer id = catToId.get(cat);
+    if (id == null) {
+      catToId.put(cat, id = idToCat.size());
+      idToCat.add(cat);
+    }
+    return id;
+  }
+
+  // A cell is identified by an int:
+  // - anchored cell (cat, start, end) => even number
+  // - floating cell (cat, depth) => odd number
+  //   (depth can be -1 when looking for the children of a depth-0 floating cell)
+  private int anchoredCell(String cat, int start, int end) {
+    return ((getCatId(cat) * (numTokens + 1) + start) * (numTokens + 1) + end) * 2;
+  }
+
+  private int floatingCell(String cat, int depth) {
+    return (getCatId(cat) * (maxDepth + 2) + depth + 1) * 2 + 1;
+  }
+
+  private boolean isAnchoredCell(int cell) {
+    return cell % 2 == 0;
+  }
+
+  private final Map<Integer, String> cellNames = new ConcurrentHashMap<>();
+
+  // Cell name such as "$Entity[0,2]" (anchored) or "$Entity:3" (floating)
+  private String cellName(int cell) {
+    String name = cellNames.get(cell);
+    if (name == null) {
+      int x = cell / 2;
+      if (isAnchoredCell(cell)) {
+        int end = x % (numTokens + 1), start = (x / (numTokens + 1)) % (numTokens + 1);
+        name = idToCat.get(x / (numTokens + 1) / (numTokens + 1)) + "[" + start + "," + end + "]";
+      } else {
+        name = idToCat.get(x / (maxDepth + 2)) + ":" + (x % (maxDepth + 2) - 1);
+      }
+      cellNames.put(cell, name = name.intern());
+    }
+    return name;
+  }
+
+  // Denotation => id
+  // Only the first Value object of each denotation is kept; the others can be garbage collected.
+  // Workers of the parallel first pass allocate ids concurrently, so the lists are guarded by
+  // the lock of idToDenotation.
+  private final Map<Value, Integer> denotationToId = new ConcurrentHashMap<>();
+  private final List<Value> idToDenotation = new ArrayList<>();
+  private final List<HashCode> denotationFingerprints = new ArrayList<>();
+
+  private int getDenotationId(Value value) {
+    Integer id = denotationToId.get(value);
+    if (id == null) {
+      synchronized (idToDenotation) {
+        id = denotationToId.get(value);
+        if (id == null) {
+          id = idToDenotation.size();
+          idToDenotation.add(value);
+          denotationFingerprints.add(null);
+          denotationToId.put(value, id);
+        }
+      }
+    }
+    return id;
+  }
+
+  private Value getDenotation(int id) {
+    synchronized (idToDenotation) {
+      return idToDenotation.get(id);
+    }
+  }
+
+  // 128-bit fingerprint of the denotation, which is stable across runs
+  private HashCode getDenotationFingerprint(int id) {
+    synchronized (idToDenotation) {
+      HashCode fingerprint = denotationFingerprints.get(id);
+      if (fingerprint == null)
+        denotationFingerprints.set(id, fingerprint = DPDFirstPassCache.fingerprint128(idToDenotation.get(id).toString()));
+      return fingerprint;
+    }
+  }
+
   // ============================================================
   // Dynamic programming cells
   // ============================================================
 
   // Pass 1: Just try to reach the correct denotation
-  //   state name => denotation => FirstPassData
-  private final Map<String, Map<Value, Metadata>> firstPassCells = new HashMap<>();
+  //   cell => denotation id => FirstPassData
+  private final Map<Integer, Map<Integer, Metadata>> firstPassCells = new HashMap<>();
   // Pass 2: Using results from Pass 1 to prune the possible formulas
-  //   state name => denotation => SecondPassData
-  private final Map<String, Map<Value, Metadata>> secondPassCells = new HashMap<>();
+  //   cell => denotation id => SecondPassData
+  private final Map<Integer, Map<Integer, Metadata>> secondPassCells = new HashMap<>();
 
   enum ParsingPass { FIRST, SECOND, DONE };
   ParsingPass currentPass = ParsingPass.FIRST;
 
-  private Map<String, Map<Value, Metadata>> getCellsForCurrentPass() {
+  private Map<Integer, Map<Integer, Metadata>> getCellsForCurrentPass() {
     return currentPass == ParsingPass.FIRST ? firstPassCells : secondPassCells;
   }
 
@@ -161,33 +283,33 @@ class DPDParserState extends ParserState {
 
   // Represents a possible method for creating a particular denotation in a particular cell.
   class Ingredient {
-    public final String parentCell;
+    public final int parentCell;
     public final Rule rule;
-    public final Value child1, child2;
+    // Denotation ids of the children (-1 = no child)
+    public final int child1, child2;
     private final int hashCode;
 
-    public Ingredient(String parentCell, Rule rule, Derivation deriv1, Derivation deriv2) {
+    public Ingredient(int parentCell, Rule rule, Derivation deriv1, Derivation deriv2) {
       this.parentCell = parentCell;
       this.rule = rule;
       if (deriv1 == null) {
-        this.child1 = null;
+        this.child1 = -1;
       } else {
         ensureExecuted(deriv1);
-        this.child1 = deriv1.value;
+        this.child1 = getDenotationId(deriv1.value);
       }
       if (deriv2 == null) {
-        this.child2 = null;
+        this.child2 = -1;
       } else {
         ensureExecuted(deriv2);
-        this.child2 = deriv2.value;
+        this.child2 = getDenotationId(deriv2.value);
       }
-      hashCode = parentCell.hashCode()
+      hashCode = parentCell
           + ((rule == null) ? 0 : rule.hashCode() * 1729)
-          + ((child1 == null) ? 0 : child1.hashCode() * 42)
-          + ((child2 == null) ? 0 : child2.hashCode() * 345);
+          + child1 * 42 + child2 * 345;
     }
 
-    public Ingredient(String parentCell) {
+    public Ingredient(int parentCell) {
       this(parentCell, null, null, null);
     }
 
@@ -195,30 +317,55 @@ class DPDParserState extends ParserState {
     public boolean equals(Object o) {
       if (!(o instanceof Ingredient)) return false;
       Ingredient that = (Ingredient) o;
-      if (!parentCell.equals(that.parentCell)) return false;
-      if (rule != that.rule) return false;    // Rules must be the same object
-      if ((child1 == null && that.child1 != null) || (child1 != null && !child1.equals(that.child1))) return false;
-      if ((child2 == null && that.child2 != null) || (child2 != null && !child2.equals(that.child2))) return false;
-      return true;
+      return parentCell == that.parentCell && rule == that.rule    // Rules must be the same object
+          && child1 == that.child1 && child2 == that.child2;
     }
 
     @Override
     public int hashCode() { return hashCode; }
 
+    // Fingerprint that is stable across runs (for the first pass cache)
+    public long fingerprint() {
+      return DPDFirstPassCache.fingerprint(getFingerprint(cellName(parentCell)),
+          rule == null ? 0 : getFingerprint(rule),
+          child1 < 0 ? 0 : getDenotationFingerprint(child1).asLong(),
+          child2 < 0 ? 0 : getDenotationFingerprint(child2).asLong());
+    }
+
     @Override
     public String toString() {
-      String cellName = parentCell;
+      String cellName = cellName(parentCell);
       if (cellName.contains(":")) {
         String[] parts = cellName.split(":");
         assert parts.length == 2;
         cellName = String.format("&%2s:%s", parts[1], parts[0]);
       }
       return new StringBuilder().append("[ ").append(cellName).append(" | ").append(rule)
-          .append(" | ").append(child1).append(" | ").append(child2).append(" ]").toString();
+          .append(" | ").append(child1 < 0 ? null : getDenotation(child1))
+          .append(" | ").append(child2 < 0 ? null : getDenotation(child2)).append(" ]").toString();
     }
   }
 
   private final Set<Ingredient> allowedIngredients = new HashSet<>();
+  // Sorted fingerprints of allowed ingredients (only when the first pass result is loaded from the cache)
+  private long[] allowedFingerprints = null;
+
+  // Cell name or rule => fingerprint
+  private final Map<Object, Long> fingerprints = new IdentityHashMap<>();
+
+  private long getFingerprint(Object o) {
+    Long fingerprint = fingerprints.get(o);
+    if (fingerprint == null)
+      fingerprints.put(o, fingerprint = DPDFirstPassCache.fingerprint(o.toString()));
+    return fingerprint;
+  }
+
+  private boolean isAllowed(Ingredient ingredient) {
+    if (ingredient == null) return false;
+    if (allowedFingerprints != null)
+      return Arrays.binarySearch(allowedFingerprints, ingredient.fingerprint()) >= 0;
+    return allowedIngredients.contains(ingredient);
+  }
 
   // ============================================================
   // BackPointer
@@ -226,40 +373,40 @@ class DPDParserState extends ParserState {
 
   // Back pointer for dynamic programming. Points to a child cell.
   class BackPointer {
-    public final String cell;
-    public final Value value;
+    public final int cell;
+    public final int denotation;
 
-    public BackPointer(String cell, Value denotation) {
+    public BackPointer(int cell, int denotation) {
       this.cell = cell;
-      this.value = denotation;
+      this.denotation = denotation;
     }
 
     @Override
     public boolean equals(Object o) {
       if (!(o instanceof BackPointer)) return false;
       BackPointer that = (BackPointer) o;
-      return cell.equals(that.cell) && value.equals(that.value);
+      return cell == that.cell && denotation == that.denotation;
     }
 
     @Override
     public int hashCode() {
-      return cell.hashCode() * 100 + value.hashCode();
+      return cell * 100 + denotation;
     }
 
     @Override
     public String toString() {
-      return cell + " " + value;
+      return cellName(cell) + " " + getDenotation(denotation);
     }
 
     public boolean isSingleFormula() {
-      return getCellsForCurrentPass().get(cell).get(value).singleFormula;
+      return getCellsForCurrentPass().get(cell).get(denotation).singleFormula;
     }
   }
 
-  public BackPointer getBackPointer(String cell, Derivation child) {
-    if (cell == null || child == null) return null;
+  public BackPointer getBackPointer(int cell, Derivation child) {
+    if (child == null) return null;
     ensureExecuted(child);
-    return new BackPointer(cell, child.value);
+    return new BackPointer(cell, getDenotationId(child.value));
   }
 
   // ============================================================
@@ -268,6 +415,7 @@ class DPDParserState extends ParserState {
 
   // Stores derivations and other data
   class Metadata {
+    public final int denotation;
     public final Value value;
     // List of possible parse paths to create this value
     public Set<Ingredient> possibleIngredients = new HashSet<>();
@@ -282,8 +430,9 @@ class DPDParserState extends ParserState {
     // If so, we can apply any pruning heuristic on the formulas built upon this formula.
     public boolean singleFormula = true;
 
-    public Metadata(Value value) {
-      this.value = value;
+    public Metadata(int denotation) {
+      this.denotation = denotation;
+      this.value = getDenotation(denotation);
     }
 
     public void add(Derivation deriv, Ingredient ingredient, BackPointer bp1, BackPointer bp2) {
@@ -321,26 +470,24 @@ class DPDParserState extends ParserState {
   private void addToChart(Derivation deriv, Ingredient ingredient,
       BackPointer bp1, BackPointer bp2) {
     if (Parser.opts.verbose >= 3)
-      LogInfo.logs("addToChart %s %s: %s", ingredient.parentCell, deriv.value, deriv);
+      LogInfo.logs("addToChart %s %s: %s", cellName(ingredient.parentCell), deriv.value, deriv);
     ensureExecuted(deriv);
-    Map<String, Map<Value, Metadata>> cells = getCellsForCurrentPass();
-    Map<Value, Metadata> denotationToData = cells.get(ingredient.parentCell);
+    ParallelTask task = currentParallelTask.get();
+    if (task != null) {
+      task.additions.add(new ChartAddition(deriv, ingredient, bp1, bp2));
+      return;
+    }
+    Map<Integer, Map<Integer, Metadata>> cells = getCellsForCurrentPass();
+    Map<Integer, Metadata> denotationToData = cells.get(ingredient.parentCell);
     if (denotationToData == null)
-      cells.put(ingredient.parentCell, denotationToData = new HashMap<>());
-    Metadata metadata = denotationToData.get(deriv.value);
+      cells.put(ingredient.parentCell, denotationToData = new LinkedHashMap<>());
+    int denotation = getDenotationId(deriv.value);
+    Metadata metadata = denotationToData.get(denotation);
     if (metadata == null)
-      denotationToData.put(deriv.value, metadata = new Metadata(deriv.value));
+      denotationToData.put(denotation, metadata = new Metadata(denotation));
     metadata.add(deriv, ingredient, bp1, bp2);
   }
 
-  private String anchoredCell(String cat, int start, int end) {
-    return (cat + "[" + start + "," + end + "]").intern();
-  }
-
-  private String floatingCell(String cat, int depth) {
-    return (cat + ":" + depth).intern();
-  }
-
   // ============================================================
   // Apply Rule
   // ============================================================
@@ -350,14 +497,14 @@ class DPDParserState extends ParserState {
   }
 
   private boolean applyRule(Rule rule, int start, int end, int depth,
-      String cell1, Derivation child1, String cell2, Derivation child2) {
+      int cell1, Derivation child1, int cell2, Derivation child2) {
     if (timeout && !isRootRule(rule)) return false;
     applyRuleActual(rule, start, end, depth, cell1, child1, cell2, child2);
     return true;
   }
 
   private void applyRuleActual(Rule rule, int start, int end, int depth,
-      String cell1, Derivation child1, String cell2, Derivation child2) {
+      int cell1, Derivation child1, int cell2, Derivation child2) {
     if (Parser.opts.verbose >= 5)
       LogInfo.logs("applyRule %s [%s:%s] depth=%s, %s %s", rule, start, end, depth, child1, child2);
 
@@ -370,8 +517,7 @@ class DPDParserState extends ParserState {
     }
     if (currentPass == ParsingPass.SECOND && !DPDParser.opts.ignoreFirstPass) {
       // Prune invalid ingredient
-      if (!allowedIngredients.contains(anchoredIngredient)
-          && !allowedIngredients.contains(floatingIngredient)) return;
+      if (!isAllowed(anchoredIngredient) && !isAllowed(floatingIngredient)) return;
     }
     BackPointer bp1 = getBackPointer(cell1, child1), bp2 = getBackPointer(cell2, child2);
     boolean singleFormula = (bp1 == null || bp1.isSingleFormula()) && (bp2 == null || bp2.isSingleFormula());
@@ -405,12 +551,12 @@ class DPDParserState extends ParserState {
       newDeriv = newDeriv.betaReduction();
       if (DPDParser.opts.aggressivelyPruneSingleFormulas) {
         if (currentPass == ParsingPass.FIRST && singleFormula) {
-          if (pruner.isPruned(newDeriv, null)) continue;
+          if (getPruner().isPruned(newDeriv, null)) continue;
         } else {
-          if (pruner.isPruned(newDeriv)) continue;
+          if (getPruner().isPruned(newDeriv)) continue;
         }
       } else {
-        if (pruner.isPruned(newDeriv)) continue;
+        if (getPruner().isPruned(newDeriv)) continue;
       }
       if (newDeriv.value instanceof ErrorValue) {
         // Assign canonical error value
@@ -428,26 +574,26 @@ class DPDParserState extends ParserState {
   }
 
   private boolean applyAnchoredRule(Rule rule, int start, int end) {
-    return applyRule(rule, start, end, -1, null, null, null, null);
+    return applyRule(rule, start, end, -1, -1, null, -1, null);
   }
   private boolean applyAnchoredRule(Rule rule, int start, int end,
-      String cell1, Derivation child1) {
-    return applyRule(rule, start, end, -1, cell1, child1, null, null);
+      int cell1, Derivation child1) {
+    return applyRule(rule, start, end, -1, cell1, child1, -1, null);
   }
   private boolean applyAnchoredRule(Rule rule, int start, int end,
-      String cell1, Derivation child1, String cell2, Derivation child2) {
+      int cell1, Derivation child1, int cell2, Derivation child2) {
     return applyRule(rule, start, end, -1, cell1, child1, cell2, child2);
   }
 
   private boolean applyFloatingRule(Rule rule, int depth) {
-    return applyRule(rule, -1, -1, depth, null, null, null, null);
+    return applyRule(rule, -1, -1, depth, -1, null, -1, null);
   }
   private boolean applyFloatingRule(Rule rule, int depth,
-      String cell1, Derivation child1) {
-    return applyRule(rule, -1, -1, depth, cell1, child1, null, null);
+      int cell1, Derivation child1) {
+    return applyRule(rule, -1, -1, depth, cell1, child1, -1, null);
   }
   private boolean applyFloatingRule(Rule rule, int depth,
-      String cell1, Derivation child1, String cell2, Derivation child2) {
+      int cell1, Derivation child1, int cell2, Derivation child2) {
     return applyRule(rule, -1, -1, depth, cell1, child1, cell2, child2);
   }
 
@@ -455,9 +601,9 @@ class DPDParserState extends ParserState {
   // Get derivations
   // ============================================================
 
-  private List<Derivation> getDerivations(Object cell) {
-    Map<String, Map<Value, Metadata>> cells = getCellsForCurrentPass();
-    Map<Value, Metadata> denotationToData = cells.get(cell);
+  private List<Derivation> getDerivations(int cell) {
+    Map<Integer, Map<Integer, Metadata>> cells = getCellsForCurrentPass();
+    Map<Integer, Metadata> denotationToData = cells.get(cell);
     if (denotationToData == null) return Collections.emptyList();
     List<Derivation> derivations = new ArrayList<>();
     for (Metadata metadata : denotationToData.values()) {
@@ -471,9 +617,9 @@ class DPDParserState extends ParserState {
    *
    * The rule should be applied on all derivations (or all pairs of derivations) in each ChildDerivationsGroup.
    */
-  private Collection<ChildDerivationsGroup> getFilteredDerivations(Rule rule, String cell1, String cell2) {
+  private Collection<ChildDerivationsGroup> getFilteredDerivations(Rule rule, int cell1, int cell2) {
     List<Derivation> derivations1 = getDerivations(cell1),
-        derivations2 = (cell2 == null) ? null : getDerivations(cell2);
+        derivations2 = (cell2 < 0) ? null : getDerivations(cell2);
     if (!FloatingParser.opts.filterChildDerivations)
       return Collections.singleton(new ChildDerivationsGroup(derivations1, derivations2));
     // Try to filter down the number of partial logical forms
@@ -482,8 +628,8 @@ class DPDParserState extends ParserState {
     return Collections.singleton(new ChildDerivationsGroup(derivations1, derivations2));
   }
 
-  private Collection<ChildDerivationsGroup> getFilteredDerivations(Rule rule, String cell) {
-    return getFilteredDerivations(rule, cell, null);
+  private Collection<ChildDerivationsGroup> getFilteredDerivations(Rule rule, int cell) {
+    return getFilteredDerivations(rule, cell, -1);
   }
 
   // ============================================================
@@ -520,14 +666,14 @@ class DPDParserState extends ParserState {
 
         if (!Rule.isCat(rhs1) && Rule.isCat(rhs2)) {  // token $Cat
           if (match1) {
-            String cell = anchoredCell(rhs2, mid, end);
+            int cell = anchoredCell(rhs2, mid, end);
             List<Derivation> derivations = getDerivations(cell);
             for (Derivation deriv : derivations)
               if (!applyAnchoredRule(rule, start, end, cell, deriv)) break;
           }
         } else if (Rule.isCat(rhs1) && !Rule.isCat(rhs2)) {  // $Cat token
           if (match2) {
-            String cell = anchoredCell(rhs1, start, mid);
+            int cell = anchoredCell(rhs1, start, mid);
             List<Derivation> derivations = getDerivations(cell);
             for (Derivation deriv : derivations)
               if (!applyAnchoredRule(rule, start, end, cell, deriv)) break;
@@ -536,8 +682,8 @@ class DPDParserState extends ParserState {
           if (match1 && match2)
             if (!applyAnchoredRule(rule, start, end)) break;
         } else {  // $Cat $Cat
-          String cell1 = anchoredCell(rhs1, start, mid);
-          String cell2 = anchoredCell(rhs2, mid, end);
+          int cell1 = anchoredCell(rhs1, start, mid);
+          int cell2 = anchoredCell(rhs2, mid, end);
           List<Derivation> derivations1 = getDerivations(cell1);
           List<Derivation> derivations2 = getDerivations(cell2);
           derivLoop:
@@ -556,7 +702,7 @@ class DPDParserState extends ParserState {
       if (!rule.isAnchored()) continue;
 
       StopWatch stopWatch = new StopWatch().start();
-      String cell = anchoredCell(rule.rhs.get(0), start, end);
+      int cell = anchoredCell(rule.rhs.get(0), start, end);
       List<Derivation> derivations = getDerivations(cell);
       for (Derivation deriv : derivations) {
         if (!applyAnchoredRule(rule, start, end, cell, deriv)) break;
@@ -585,19 +731,16 @@ class DPDParserState extends ParserState {
       }
     }
 
+    // The remaining rules only read cells of smaller depths,
+    // so they can be applied in any order (or in parallel).
+    List<FloatingRuleTask> tasks = new ArrayList<>();
+
     // Apply unary categories on spans (rule $A ($B))
     for (Rule rule : parser.getCatUnaryRules()) {
       if (timeout && !isRootRule(rule)) continue;
       if (!rule.isFloating()) continue;
       if (catSizeBound.getBound(rule.lhs) < depth) continue;
-
-      StopWatch stopWatch = new StopWatch().start();
-      String cell = floatingCell(rule.rhs.get(0), depth - 1);
-      derivLoop:
-        for (ChildDerivationsGroup group : getFilteredDerivations(rule, cell))
-          for (Derivation deriv : group.derivations1)
-            if (!applyFloatingRule(rule, depth, cell, deriv)) break derivLoop;
-      ruleTime.put(rule, ruleTime.getOrDefault(rule, 0L) + stopWatch.stop().ms);
+      tasks.add(new FloatingRuleTask(rule, depth, floatingCell(rule.rhs.get(0), depth - 1), -1));
     }
 
     // Apply binaries on spans (rule $A ($B $C)), ...
@@ -607,49 +750,151 @@ class DPDParserState extends ParserState {
       if (rule.rhs.size() != 2) continue;
       if (catSizeBound.getBound(rule.lhs) < depth) continue;
 
-      StopWatch stopWatch = new StopWatch().start();
       String rhs1 = rule.rhs.get(0);
       String rhs2 = rule.rhs.get(1);
       if (!Rule.isCat(rhs1) || !Rule.isCat(rhs2))
         throw new RuntimeException("Floating rules with > 1 arguments cannot have tokens on the RHS: " + rule);
 
       if (FloatingParser.opts.useSizeInsteadOfDepth) {
-        derivLoop:
-          for (int depth1 = 0; depth1 < depth; depth1++) {  // sizes must add up to depth-1 (actually size-1)
-            int depth2 = depth - 1 - depth1;
-            String cell1 = floatingCell(rhs1, depth1);
-            String cell2 = floatingCell(rhs2, depth2);
-            for (ChildDerivationsGroup group : getFilteredDerivations(rule, cell1, cell2))
-              for (Derivation deriv1 : group.derivations1)
-                for (Derivation deriv2 : group.derivations2)
-                  if (!applyFloatingRule(rule, depth, cell1, deriv1, cell2, deriv2)) break derivLoop;
-          }
+        for (int depth1 = 0; depth1 < depth; depth1++) {  // sizes must add up to depth-1 (actually size-1)
+          int depth2 = depth - 1 - depth1;
+          tasks.add(new FloatingRuleTask(rule, depth, floatingCell(rhs1, depth1), floatingCell(rhs2, depth2)));
+        }
       } else {
-        {
-          derivLoop:
-            for (int subDepth = 0; subDepth < depth; subDepth++) {  // depth-1 <=depth-1
-              String cell1 = floatingCell(rhs1, depth - 1);
-              String cell2 = floatingCell(rhs2, subDepth);
-              for (ChildDerivationsGroup group : getFilteredDerivations(rule, cell1, cell2))
-                for (Derivation deriv1 : group.derivations1)
-                  for (Derivation deriv2 : group.derivations2)
-                    if (!applyFloatingRule(rule, depth, cell1, deriv1, cell2, deriv2)) break derivLoop;
-            }
+        for (int subDepth = 0; subDepth < depth; subDepth++)  // depth-1 <=depth-1
+          tasks.add(new FloatingRuleTask(rule, depth, floatingCell(rhs1, depth - 1), floatingCell(rhs2, subDepth)));
+        for (int subDepth = 0; subDepth < depth - 1; subDepth++)  // <depth-1 depth-1
+          tasks.add(new FloatingRuleTask(rule, depth, floatingCell(rhs1, subDepth), floatingCell(rhs2, depth - 1)));
+      }
+    }
+
+    ForkJoinPool pool = ((DPDParser) parser).firstPassPool;
+    if (pool != null && currentPass == ParsingPass.FIRST) {
+      runInParallel(pool, tasks);
+    } else {
+      for (FloatingRuleTask task : tasks) {
+        task.run();
+        ruleTime.put(task.rule, ruleTime.getOrDefault(task.rule, 0L) + task.time);
+      }
+    }
+  }
+
+  // Apply a floating rule on the derivations of one cell (or one pair of cells)
+  class FloatingRuleTask {
+    public final Rule rule;
+    public final int depth, cell1, cell2;
+    public long time;
+
+    public FloatingRuleTask(Rule rule, int depth, int cell1, int cell2) {
+      this.rule = rule;
+      this.depth = depth;
+      this.cell1 = cell1;
+      this.cell2 = cell2;
+    }
+
+    public void run() {
+      if (timeout && !isRootRule(rule)) return;
+      StopWatch stopWatch = new StopWatch().start();
+      derivLoop:
+        for (ChildDerivationsGroup group : getFilteredDerivations(rule, cell1, cell2)) {
+          if (cell2 < 0) {
+            for (Derivation deriv : group.derivations1)
+              if (!applyFloatingRule(rule, depth, cell1, deriv)) break derivLoop;
+          } else {
+            for (Derivation deriv1 : group.derivations1)
+              for (Derivation deriv2 : group.derivations2)
+                if (!applyFloatingRule(rule, depth, cell1, deriv1, cell2, deriv2)) break derivLoop;
+          }
         }
-        {
-          derivLoop:
-            for (int subDepth = 0; subDepth < depth - 1; subDepth++) {  // <depth-1 depth-1
-              String cell1 = floatingCell(rhs1, subDepth);
-              String cell2 = floatingCell(rhs2, depth - 1);
-              for (ChildDerivationsGroup group : getFilteredDerivations(rule, cell1, cell2))
-                for (Derivation deriv1 : group.derivations1)
-                  for (Derivation deriv2 : group.derivations2)
-                    if (!applyFloatingRule(rule, depth, cell1, deriv1, cell2, deriv2)) break derivLoop;
-            }
+      time = stopWatch.stop().ms;
+    }
+  }
+
+  // ============================================================
+  // Parallel first pass
+  // ============================================================
+
+  // The first pass does not use the parameters, and the floating rules of the same depth
+  // only read the cells of smaller depths. So the rule applications can be distributed
+  // to worker threads, as long as the chart is not modified until all of them finish.
+
+  // Chart additions made by a worker, to be applied to the chart later
+  class ChartAddition {
+    public final Derivation deriv;
+    public final Ingredient ingredient;
+    public final BackPointer bp1, bp2;
+
+    public ChartAddition(Derivation deriv, Ingredient ingredient, BackPointer bp1, BackPointer bp2) {
+      this.deriv = deriv;
+      this.ingredient = ingredient;
+      this.bp1 = bp1;
+      this.bp2 = bp2;
+    }
+  }
+
+  class ParallelTask {
+    public final List<ChartAddition> additions = new ArrayList<>();
+    // DerivationPruner temporarily changes its allowed strategies, so each worker needs its own.
+    public final DerivationPruner pruner;
+
+    public ParallelTask(DerivationPruner pruner) {
+      this.pruner = pruner;
+    }
+  }
+
+  private final ThreadLocal<ParallelTask> currentParallelTask = new ThreadLocal<>();
+  private final Queue<DerivationPruner> workerPruners = new ConcurrentLinkedQueue<>();
+
+  private DerivationPruner getPruner() {
+    ParallelTask task = currentParallelTask.get();
+    return task == null ? pruner : task.pruner;
+  }
+
+  private List<ChartAddition> runWorkerTask(FloatingRuleTask task) {
+    DerivationPruner workerPruner = workerPruners.poll();
+    if (workerPruner == null) {
+      workerPruner = new DerivationPruner(this);
+      workerPruner.setCustomAllowedPruningStrategies(DPDParser.opts.allowedPrunersInFirstPass);
+    }
+    ParallelTask parallelTask = new ParallelTask(workerPruner);
+    currentParallelTask.set(parallelTask);
+    try {
+      task.run();
+    } finally {
+      currentParallelTask.remove();
+      workerPruners.add(workerPruner);
+    }
+    return parallelTask.additions;
+  }
+
+  // Run the tasks on the pool, then add the results to the chart in the same order as the serial version.
+  private void runInParallel(ForkJoinPool pool, List<FloatingRuleTask> tasks) {
+    List<Callable<List<ChartAddition>>> callables = new ArrayList<>();
+    for (FloatingRuleTask task : tasks)
+      callables.add(() -> runWorkerTask(task));
+    List<Future<List<ChartAddition>>> futures = pool.invokeAll(callables);
+    boolean interrupted = false;
+    for (int i = 0; i < tasks.size(); i++) {
+      List<ChartAddition> additions = null;
+      while (additions == null) {
+        try {
+          additions = futures.get(i).get();
+        } catch (InterruptedException e) {
+          // runParsingPass interrupts the parsing thread when maxDPDParsingTime is exceeded.
+          // Like the serial version, keep the results: the workers stop applying non-root rules
+          // once timeout is set, so waiting for them does not take long.
+          interrupted = true;
+          timeout = true;
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
         }
       }
-      ruleTime.put(rule, ruleTime.getOrDefault(rule, 0L) + stopWatch.stop().ms);
+      for (ChartAddition addition : additions)
+        addToChart(addition.deriv, addition.ingredient, addition.bp1, addition.bp2);
+      Rule rule = tasks.get(i).rule;
+      ruleTime.put(rule, ruleTime.getOrDefault(rule, 0L) + tasks.get(i).time);
     }
+    if (interrupted) Thread.currentThread().interrupt();
   }
 
   // ============================================================
@@ -660,7 +905,15 @@ class DPDParserState extends ParserState {
     LogInfo.begin_track("DPDParser.infer()");
     StopWatch watch;
     // First pass
-    if (!DPDParser.opts.ignoreFirstPass) {
+    String firstPassCacheKey = null;
+    if (!DPDParser.opts.ignoreFirstPass && ((DPDParser) parser).firstPassCache != null) {
+      firstPassCacheKey = getFirstPassCacheKey();
+      allowedFingerprints = ((DPDParser) parser).firstPassCache.load(firstPassCacheKey);
+      if (allowedFingerprints != null)
+        LogInfo.logs("Loaded %d allowed ingredients from the first pass cache", allowedFingerprints.length);
+      evaluation.add("firstPassCacheHit", allowedFingerprints != null);
+    }
+    if (!DPDParser.opts.ignoreFirstPass && allowedFingerprints == null) {
       LogInfo.begin_track("First pass");
       StopWatchSet.begin("DPDParser.firstPass");
       watch = new StopWatch().start();
@@ -670,6 +923,14 @@ class DPDParserState extends ParserState {
       ApplyFn.exactScopeHead = true;
       if (DPDParser.opts.summarizeCountUseful) countUseful();
       collectPossibleIngredients();
+      // A first pass cut short by maxDPDParsingTime is incomplete, so it is not cached
+      if (firstPassCacheKey != null && !timeout) {
+        long[] computed = new long[allowedIngredients.size()];
+        int i = 0;
+        for (Ingredient ingredient : allowedIngredients)
+          computed[i++] = ingredient.fingerprint();
+        ((DPDParser) parser).firstPassCache.save(firstPassCacheKey, computed);
+      }
       firstPassParseTime = watch.stop().getCurrTimeLong();
       StopWatchSet.end();
       LogInfo.end_track();
@@ -696,6 +957,16 @@ class DPDParserState extends ParserState {
     LogInfo.end_track();
   }
 
+  // Everything the first pass depends on (but not the parameters)
+  private String getFirstPassCacheKey() {
+    return String.join("\t", ex.id, ex.utterance, "" + ex.targetValue,
+        ex.context == null || ex.context.graph == null ? "" : ex.context.graph.toLispTree().toString(),
+        "" + ((DPDParser) parser).grammarFingerprint, "" + maxDepth,
+        "" + FloatingParser.opts.useSizeInsteadOfDepth, "" + DPDParser.opts.firstPassBeamSize,
+        "" + DPDParser.opts.maxNumCellDenotations, "" + DPDParser.opts.allowedPrunersInFirstPass,
+        "" + DPDParser.opts.aggressivelyPruneSingleFormulas);
+  }
+
   private void runParsingPass() {
     // Create a parsing thread and run for some time
     timeout = false;
@@ -782,25 +1053,25 @@ class DPDParserState extends ParserState {
   }
 
   // Prune to the beam size
-  private void pruneBeam(String cell) {
+  private void pruneBeam(int cell) {
     if (currentPass == ParsingPass.FIRST && DPDParser.opts.firstPassBeamSize > 0) {
-      Map<String, Map<Value, Metadata>> cells = getCellsForCurrentPass();
-      Map<Value, Metadata> denotationToData = cells.get(cell);
+      Map<Integer, Map<Integer, Metadata>> cells = getCellsForCurrentPass();
+      Map<Integer, Metadata> denotationToData = cells.get(cell);
       if (denotationToData == null || denotationToData.size() <= DPDParser.opts.firstPassBeamSize) return;
       // TODO: Prune based on some criteria
       if (Parser.opts.verbose >= 1)
         LogInfo.logs("Pruning first pass beam: %d => %d", denotationToData.entrySet().size(), DPDParser.opts.firstPassBeamSize);
-      List<Map.Entry<Value, Metadata>> pruned = new ArrayList<>(denotationToData.entrySet());
-      denotationToData = new HashMap<>();
-      for (Map.Entry<Value, Metadata> entry : pruned.subList(0, DPDParser.opts.firstPassBeamSize))
+      List<Map.Entry<Integer, Metadata>> pruned = new ArrayList<>(denotationToData.entrySet());
+      denotationToData = new LinkedHashMap<>();
+      for (Map.Entry<Integer, Metadata> entry : pruned.subList(0, DPDParser.opts.firstPassBeamSize))
         denotationToData.put(entry.getKey(), entry.getValue());
       cells.put(cell, denotationToData);
     } else if (currentPass == ParsingPass.SECOND) {
-      Map<String, Map<Value, Metadata>> cells = getCellsForCurrentPass();
-      Map<Value, Metadata> denotationToData = cells.get(cell);
+      Map<Integer, Map<Integer, Metadata>> cells = getCellsForCurrentPass();
+      Map<Integer, Metadata> denotationToData = cells.get(cell);
       if (denotationToData == null) return;
       for (Metadata metadata : denotationToData.values()) {
-        pruneCell(cell, metadata.derivations);
+        pruneCell(cellName(cell), metadata.derivations);
       }
     }
   }
@@ -827,17 +1098,17 @@ class DPDParserState extends ParserState {
     }
   }
 
-  private void collectPossibleIngredients(String cell, Set<BackPointer> usedBps) {
+  private void collectPossibleIngredients(int cell, Set<BackPointer> usedBps) {
     if (Parser.opts.verbose >= 4)
-      LogInfo.logs("DPDParserState.collectPossibleIngredients(%s)", cell);
-    Map<Value, Metadata> denotationToMetadata = firstPassCells.get(cell);
+      LogInfo.logs("DPDParserState.collectPossibleIngredients(%s)", cellName(cell));
+    Map<Integer, Metadata> denotationToMetadata = firstPassCells.get(cell);
     if (denotationToMetadata == null) return;
-    for (Value denotation : denotationToMetadata.keySet()) {
-      double compatibility = parser.valueEvaluator.getCompatibility(ex.targetValue, denotation);
+    for (Metadata metadata : denotationToMetadata.values()) {
+      double compatibility = parser.valueEvaluator.getCompatibility(ex.targetValue, metadata.value);
       if (compatibility != 1) continue;
       if (Parser.opts.verbose >= 2)
-        LogInfo.logs("[%f] %s", compatibility, denotationToMetadata.get(denotation).derivations.get(0));
-      BackPointer bp = new BackPointer(cell, denotation);
+        LogInfo.logs("[%f] %s", compatibility, metadata.derivations.get(0));
+      BackPointer bp = new BackPointer(cell, metadata.denotation);
       if (!usedBps.contains(bp))
         collectPossibleIngredients(bp, usedBps, 0);
     }
@@ -847,9 +1118,9 @@ class DPDParserState extends ParserState {
     if (Parser.opts.verbose >= 4)
       LogInfo.logs("DPDParserState.collectPossibleIngredients(%s)", bp);
     usedBps.add(bp);
-    Map<Value, Metadata> denotationToMetadata = firstPassCells.get(bp.cell);
+    Map<Integer, Metadata> denotationToMetadata = firstPassCells.get(bp.cell);
     if (denotationToMetadata == null) return;
-    Metadata metadata = denotationToMetadata.get(bp.value);
+    Metadata metadata = denotationToMetadata.get(bp.denotation);
     if (metadata == null) return;
     allowedIngredients.addAll(metadata.possibleIngredients);
     if (Parser.opts.verbose >= 4)
@@ -866,15 +1137,15 @@ class DPDParserState extends ParserState {
   // ============================================================
 
   private void collectFinalDerivations() {
-    String cellName = anchoredCell(Rule.rootCat, 0, numTokens);
-    for (Derivation deriv : getDerivations(cellName)) {
+    String cellName = cellName(anchoredCell(Rule.rootCat, 0, numTokens));
+    for (Derivation deriv : getDerivations(anchoredCell(Rule.rootCat, 0, numTokens))) {
       if (DPDParser.opts.putCellNameInCanonicalUtterance)
         deriv.canonicalUtterance = cellName;
       predDerivations.add(deriv);
     }
     for (int depth = 0; depth <= maxDepth; depth++) {
-      cellName = floatingCell(Rule.rootCat, depth);
-      for (Derivation deriv : getDerivations(cellName)) {
+      cellName = cellName(floatingCell(Rule.rootCat, depth));
+      for (Derivation deriv : getDerivations(floatingCell(Rule.rootCat, depth))) {
         if (DPDParser.opts.putCellNameInCanonicalUtterance)
           deriv.canonicalUtterance = cellName;
         predDerivations.add(deriv);
@@ -908,26 +1179,26 @@ class DPDParserState extends ParserState {
     for (Map.Entry<String, Integer> entry : countNumCells(secondPassCells).entrySet())
       evaluation.add("secondPass" + entry.getKey(), entry.getValue());
     // Number of possible ingredients
-    evaluation.add("allowedIngredients", allowedIngredients.size());
+    evaluation.add("allowedIngredients",
+        allowedFingerprints != null ? allowedFingerprints.length : allowedIngredients.size());
   }
 
-  private Map<String, Integer> countNumCells(Map<String, Map<Value, Metadata>> cells) {
+  private Map<String, Integer> countNumCells(Map<Integer, Map<Integer, Metadata>> cells) {
     int numAnchored = 0, numFloating = 0, numDenotations = 0,
         numErrorDenotations = 0, numUniqueErrorDenotations = 0, numDerivations = 0;
-    Set<Value> uniqueDenotations = new HashSet<>();
-    for (Map.Entry<String, Map<Value, Metadata>> entry : cells.entrySet()) {
-      if (entry.getKey().contains(",")) numAnchored++; else numFloating++;
-      for (Map.Entry<Value, Metadata> subentry : entry.getValue().entrySet()) {
-        Value denotation = subentry.getKey();
+    Set<Integer> uniqueDenotations = new HashSet<>();
+    for (Map.Entry<Integer, Map<Integer, Metadata>> entry : cells.entrySet()) {
+      if (isAnchoredCell(entry.getKey())) numAnchored++; else numFloating++;
+      for (Metadata metadata : entry.getValue().values()) {
         numDenotations++;
-        uniqueDenotations.add(denotation);
-        if (denotation instanceof ErrorValue)
+        uniqueDenotations.add(metadata.denotation);
+        if (metadata.value instanceof ErrorValue)
           numErrorDenotations++;
-        numDerivations += subentry.getValue().derivations.size();
+        numDerivations += metadata.derivations.size();
       }
     }
-    for (Value denotation : uniqueDenotations) {
-      if (denotation instanceof ErrorValue)
+    for (int denotation : uniqueDenotations) {
+      if (getDenotation(denotation) instanceof ErrorValue)
         numUniqueErrorDenotations++;
     }
     Map<String, Integer> statistics = new HashMap<>();
@@ -944,7 +1215,7 @@ class DPDParserState extends ParserState {
 
   private int getNumCellDenotations() {
     int numDenotations = 0;
-    for (Map<Value, Metadata> value : getCellsForCurrentPass().values()) {
+    for (Map<Integer, Metadata> value : getCellsForCurrentPass().values()) {
       numDenotations += value.size();
     }
     return numDenotations;
@@ -954,18 +1225,18 @@ class DPDParserState extends ParserState {
   // Debug: print all denotations in all cells
   // ============================================================
 
-  protected void dumpDenotations(Map<String, Map<Value, Metadata>> cells) {
+  protected void dumpDenotations(Map<Integer, Map<Integer, Metadata>> cells) {
     Map<String, Formula> denotationToSampleFormula = new TreeMap<>();
-    for (Map.Entry<String, Map<Value, Metadata>> entry : cells.entrySet()) {
-      String cellName = entry.getKey();
+    for (Map.Entry<Integer, Map<Integer, Metadata>> entry : cells.entrySet()) {
+      String cellName = cellName(entry.getKey());
       if (DPDParser.opts.dumpDenotations == DPDParser.DumpSpec.NONERROR && Grammar.isIntermediate(cellName)) continue;
       if (cellName.contains(":")) {
         String[] parts = cellName.split(":");
         assert parts.length == 2;
         cellName = String.format("&%2s:%s", parts[1], parts[0]);
       }
-      for (Map.Entry<Value, Metadata> subentry : entry.getValue().entrySet()) {
-        Value denotation = subentry.getKey();
+      for (Metadata metadata : entry.getValue().values()) {
+        Value denotation = metadata.value;
         String key = null;
         switch (DPDParser.opts.dumpDenotations) {
           case UNIQUE:
@@ -982,7 +1253,7 @@ class DPDParserState extends ParserState {
             throw new RuntimeException("Unknown dump option: " + DPDParser.opts.dumpDenotations);
         }
         if (!denotationToSampleFormula.containsKey(key))
-          denotationToSampleFormula.put(key, subentry.getValue().derivations.get(0).formula);
+          denotationToSampleFormula.put(key, metadata.derivations.get(0).formula);
       }
     }
     LogInfo.begin_track("%s DENOTATIONS", DPDParser.opts.dumpDenotations);
@@ -995,12 +1266,12 @@ class DPDParserState extends ParserState {
   // Debug: classify unique-denotations by attributes
   // ============================================================
 
-  protected void classifyUniqueDenotations(Map<String, Map<Value, Metadata>> cells) {
+  protected void classifyUniqueDenotations(Map<Integer, Map<Integer, Metadata>> cells) {
     Set<String> denotations = new HashSet<>();
     Map<String, Integer> attributeCounter = new TreeMap<>();
-    for (Map.Entry<String, Map<Value, Metadata>> entry : cells.entrySet()) {
-      for (Map.Entry<Value, Metadata> subentry : entry.getValue().entrySet()) {
-        Value denotation = subentry.getKey();
+    for (Map<Integer, Metadata> denotationToMetadata : cells.values()) {
+      for (Metadata metadata : denotationToMetadata.values()) {
+        Value denotation = metadata.value;
         String key = denotation.toString();
         if (denotations.contains(key)) continue;
         MapUtils.incr(attributeCounter, getDenotationAttributes(denotation));
@@ -1077,13 +1348,13 @@ class DPDParserState extends ParserState {
         allCellDenotations = new HashSet<>(), usefulCellDenotations = new HashSet<>();
     Set<BackPointer> usedBps = new HashSet<>();
     // All cells and denotations
-    for (Map.Entry<String, Map<Value, Metadata>> entry : firstPassCells.entrySet()) {
-      for (Value value : entry.getValue().keySet()) {
+    for (Map.Entry<Integer, Map<Integer, Metadata>> entry : firstPassCells.entrySet()) {
+      for (Metadata metadata : entry.getValue().values()) {
         // Unique-denotations
-        String denotation = value.toString();
+        String denotation = metadata.value.toString();
         allUniqueDenotations.add(denotation);
         // Cell-denotations
-        String cellDenotation = entry.getKey() + " | " + denotation;
+        String cellDenotation = cellName(entry.getKey()) + " | " + denotation;
         allCellDenotations.add(cellDenotation);
       }
     }
@@ -1100,11 +1371,11 @@ class DPDParserState extends ParserState {
     LogInfo.end_track();
   }
 
-  private void findUseful(String cell, Set<BackPointer> usedBps,
+  private void findUseful(int cell, Set<BackPointer> usedBps,
       Set<String> usefulUniqueDenotations, Set<String> usefulCellDenotations) {
-    Map<Value, Metadata> denotationToMetadata = firstPassCells.get(cell);
+    Map<Integer, Metadata> denotationToMetadata = firstPassCells.get(cell);
     if (denotationToMetadata == null) return;
-    for (Value denotation : denotationToMetadata.keySet()) {
+    for (int denotation : denotationToMetadata.keySet()) {
       BackPointer bp = new BackPointer(cell, denotation);
       findUseful(bp, usedBps, usefulUniqueDenotations, usefulCellDenotations);
     }
@@ -1114,15 +1385,15 @@ class DPDParserState extends ParserState {
       Set<String> usefulUniqueDenotations, Set<String> usefulCellDenotations) {
     usedBps.add(bp);
     // Unique-denotations
-    String denotation = bp.value.toString();
+    String denotation = getDenotation(bp.denotation).toString();
     usefulUniqueDenotations.add(denotation);
     // Cell-denotations
-    String cellDenotation = bp.cell + " | " + denotation;
+    String cellDenotation = cellName(bp.cell) + " | " + denotation;
     usefulCellDenotations.add(cellDenotation);
     // Recurse
-    Map<Value, Metadata> denotationToMetadata = firstPassCells.get(bp.cell);
+    Map<Integer, Metadata> denotationToMetadata = firstPassCells.get(bp.cell);
     if (denotationToMetadata == null) return;
-    Metadata metadata = denotationToMetadata.get(bp.value);
+    Metadata metadata = denotationToMetadata.get(bp.denotation);
     if (metadata == null) return;
     for (BackPointer childBp : metadata.backPointers) {
       if (!usedBps.contains(childBp))
@@ -0,0 +1,109 @@
+package edu.stanford.nlp.sempre.tables.features;
+
+import java.util.*;
+
+/**
+ * Index over the lemmatized phrases (PhraseInfo.lemmaText) of an example.
+ *
+ * Given a predicate string, find the phrases that
+ * - are equal to the predicate string,
+ * - are a prefix / suffix of the predicate string, or
+ * - have the predicate string as a prefix / suffix
+ * by walking a trie of the phrases (forward) and a trie of the reversed phrases (backward)
+ * instead of comparing the predicate string against every phrase.
+ */
+public class PhraseIndex {
+  // Match flags (the result of match() is a bitwise OR of these for each phrase)
+  public static final int EXACT = 1;
+  public static final int PHRASE_IS_PREFIX = 2;       // predicateString.startsWith(phraseString)
+  public static final int PHRASE_IS_SUFFIX = 4;       // predicateString.endsWith(phraseString)
+  public static final int PREDICATE_IS_PREFIX = 8;    // phraseString.startsWith(predicateString)
+  public static final int PREDICATE_IS_SUFFIX = 16;   // phraseString.endsWith(predicateString)
+
+  private static class TrieNode {
+    final Map<Character, TrieNode> children = new HashMap<>();
+    final List<Integer> ends = new ArrayList<>();     // Phrases that end at this node
+    int[] subtree;                                     // Phrases that end at this node or below
+  }
+
+  public final List<PhraseInfo> phraseInfos;
+  private final TrieNode forward = new TrieNode(), backward = new TrieNode();
+
+  public PhraseIndex(List<PhraseInfo> phraseInfos) {
+    this.phraseInfos = phraseInfos;
+    for (int i = 0; i < phraseInfos.size(); i++) {
+      String s = phraseInfos.get(i).lemmaText;
+      TrieNode node = forward;
+      for (int j = 0; j < s.length(); j++)
+        node = getOrCreateChild(node, s.charAt(j));
+      node.ends.add(i);
+      node = backward;
+      for (int j = s.length() - 1; j >= 0; j--)
+        node = getOrCreateChild(node, s.charAt(j));
+      node.ends.add(i);
+    }
+    collectSubtree(forward);
+    collectSubtree(backward);
+  }
+
+  private static TrieNode getOrCreateChild(TrieNode node, char c) {
+    TrieNode child = node.children.get(c);
+    if (child == null)
+      node.children.put(c, child = new TrieNode());
+    return child;
+  }
+
+  private static List<Integer> collectSubtree(TrieNode node) {
+    List<Integer> subtree = new ArrayList<>(node.ends);
+    for (TrieNode child : node.children.values())
+      subtree.addAll(collectSubtree(child));
+    node.subtree = new int[subtree.size()];
+    for (int i = 0; i < node.subtree.length; i++)
+      node.subtree[i] = subtree.get(i);
+    return subtree;
+  }
+
+  /**
+   * Return the match flags between one phrase and |predicateString| by comparing the strings directly.
+   */
+  public static int match(String phraseString, String predicateString) {
+    int flags = 0;
+    if (phraseString.equals(predicateString)) flags |= EXACT;
+    if (predicateString.startsWith(phraseString)) flags |= PHRASE_IS_PREFIX;
+    if (predicateString.endsWith(phraseString)) flags |= PHRASE_IS_SUFFIX;
+    if (phraseString.startsWith(predicateString)) flags |= PREDICATE_IS_PREFIX;
+    if (phraseString.endsWith(predicateString)) flags |= PREDICATE_IS_SUFFIX;
+    return flags;
+  }
+
+  /**
+   * Return the match flags between |predicateString| and each phrase (in the order of phraseInfos).
+   */
+  public int[] match(String predicateString) {
+    int[] flags = new int[phraseInfos.size()];
+    int n = predicateString.length();
+    // Forward: phrases that are prefixes of the predicate, and phrases with the predicate as a prefix
+    TrieNode node = forward;
+    for (int j = 0; node != null; j++) {
+      if (j == n) {
+        for (int i : node.ends) flags[i] |= EXACT | PHRASE_IS_PREFIX;
+        for (int i : node.subtree) flags[i] |= PREDICATE_IS_PREFIX;
+        break;
+      }
+      for (int i : node.ends) flags[i] |= PHRASE_IS_PREFIX;
+      node = node.children.get(predicateString.charAt(j));
+    }
+    // Backward: the same for suffixes
+    node = backward;
+    for (int j = n - 1; node != null; j--) {
+      if (j < 0) {
+        for (int i : node.ends) flags[i] |= PHRASE_IS_SUFFIX;
+        for (int i : node.subtree) flags[i] |= PREDICATE_IS_SUFFIX;
+        break;
+      }
+      for (int i : node.ends) flags[i] |= PHRASE_IS_SUFFIX;
+      node = node.children.get(predicateString.charAt(j));
+    }
+    return flags;
+  }
+}
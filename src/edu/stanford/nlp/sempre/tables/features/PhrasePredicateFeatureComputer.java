@@ -1,6 +1,10 @@
 package edu.stanford.nlp.sempre.tables.features;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.*;
 
 import edu.stanford.nlp.sempre.*;
 import edu.stanford.nlp.sempre.tables.features.PredicateInfo.PredicateType;
@@ -39,6 +43,8 @@ public class PhrasePredicateFeatureComputer implements FeatureComputer {
     public double phraseCategoryWeightThreshold = 0.8;
     @Option(gloss = "phrase-category: Use binary features instead of continuous ones")
     public boolean phraseCategoryBinary = true;
+    @Option(gloss = "Match phrases and predicates with PhraseIndex (instead of comparing with every phrase)")
+    public boolean usePhraseIndex = true;
 
   }
   public static Options opts = new Options();
@@ -49,6 +55,9 @@ public class PhrasePredicateFeatureComputer implements FeatureComputer {
     maxNforLexicalizeAllPairs = Math.min(opts.maxNforLexicalizeAllPairs, PhraseInfo.opts.maxPhraseLength);
   }
 
+  // Predicates of the derivation (used to find the predicates added by the last rule)
+  private static final TempStateKey<List<PredicateInfo>> PREDICATE_INFOS = new TempStateKey<>("p-p");
+
   @Override
   public void extractLocal(Example ex, Derivation deriv) {
     if (!(FeatureExtractor.containsDomain("phrase-predicate")
@@ -56,7 +65,8 @@ public class PhrasePredicateFeatureComputer implements FeatureComputer {
         || FeatureExtractor.containsDomain("phrase-category"))) return;
     // Only compute features at the root, except when the partial option is set.
     if (!opts.defineOnPartialDerivs && !deriv.isRoot(ex.numTokens())) return;
-    List<PhraseInfo> phraseInfos = PhraseInfo.getPhraseInfos(ex);
+    ExampleMatches matches = getExampleMatches(ex);
+    List<PhraseInfo> phraseInfos = matches.index.phraseInfos;
     List<PredicateInfo> predicateInfos = PredicateInfo.getPredicateInfos(ex, deriv);
     if (opts.verbose >= 2) {
       LogInfo.logs("Example: %s", ex.utterance);
@@ -67,30 +77,37 @@ public class PhrasePredicateFeatureComputer implements FeatureComputer {
     if (FeatureExtractor.containsDomain("phrase-predicate")
         || FeatureExtractor.containsDomain("phrase-category")) {
       if (opts.defineOnPartialDerivs) {
-        deriv.getTempState().put("p-p", new ArrayList<>(predicateInfos));
+        deriv.setTempState(PREDICATE_INFOS, new ArrayList<>(predicateInfos));
         // Subtract predicates from children
         Map<PredicateInfo, Integer> predicateInfoCounts = new HashMap<>();
         for (PredicateInfo predicateInfo : predicateInfos)
           MapUtils.incr(predicateInfoCounts, predicateInfo);
         if (deriv.children != null) {
           for (Derivation child : deriv.children) {
-            @SuppressWarnings("unchecked")
-            List<PredicateInfo> childPredicateInfos = (List<PredicateInfo>) child.getTempState().get("p-p");
+            List<PredicateInfo> childPredicateInfos = child.getTempState(PREDICATE_INFOS);
             for (PredicateInfo predicateInfo : childPredicateInfos)
               MapUtils.incr(predicateInfoCounts, predicateInfo, -1);
           }
         }
-        for (PhraseInfo phraseInfo : phraseInfos) {
-          for (Map.Entry<PredicateInfo, Integer> entry : predicateInfoCounts.entrySet()) {
-            if (entry.getValue() != 0)
-              extractMatch(ex, deriv, phraseInfo, entry.getKey(), entry.getValue());
+        List<Map.Entry<PredicateInfo, Integer>> changed = new ArrayList<>();
+        List<List<List<PairFeature>>> changedFeatures = new ArrayList<>();
+        for (Map.Entry<PredicateInfo, Integer> entry : predicateInfoCounts.entrySet()) {
+          if (entry.getValue() != 0) {
+            changed.add(entry);
+            changedFeatures.add(matches.getPairFeatures(ex, entry.getKey()));
           }
         }
+        for (int i = 0; i < phraseInfos.size(); i++) {
+          for (int j = 0; j < changed.size(); j++)
+            addPairFeatures(deriv, changedFeatures.get(j).get(i), changed.get(j).getValue());
+        }
       } else {
-        for (PhraseInfo phraseInfo : phraseInfos) {
-          for (PredicateInfo predicateInfo : predicateInfos) {
-            extractMatch(ex, deriv, phraseInfo, predicateInfo, 1);
-          }
+        List<List<List<PairFeature>>> allFeatures = new ArrayList<>();
+        for (PredicateInfo predicateInfo : predicateInfos)
+          allFeatures.add(matches.getPairFeatures(ex, predicateInfo));
+        for (int i = 0; i < phraseInfos.size(); i++) {
+          for (List<List<PairFeature>> features : allFeatures)
+            addPairFeatures(deriv, features.get(i), 1);
         }
       }
     }
@@ -103,47 +120,127 @@ public class PhrasePredicateFeatureComputer implements FeatureComputer {
   // Matching
   // ============================================================
 
-  private void extractMatch(Example ex, Derivation deriv, PhraseInfo phraseInfo, PredicateInfo predicateInfo, double factor) {
+  // A feature defined on a (phrase, predicate) pair.
+  // If |scaled| is true, the value is multiplied by the count of the predicate in the derivation.
+  private static class PairFeature {
+    final String domain, name;
+    final double value;
+    final boolean scaled;
+
+    PairFeature(String domain, String name, double value, boolean scaled) {
+      this.domain = domain;
+      this.name = name;
+      this.value = value;
+      this.scaled = scaled;
+    }
+  }
+
+  private static void addPairFeatures(Derivation deriv, List<PairFeature> features, double factor) {
+    for (PairFeature feature : features)
+      deriv.addFeature(feature.domain, feature.name, feature.scaled ? feature.value * factor : feature.value);
+  }
+
+  // The pair features of an example only depend on the predicate,
+  // so they are computed once for each predicate and shared by all derivations.
+  private class ExampleMatches {
+    final PhraseIndex index;
+    final Map<PredicateInfo, List<List<PairFeature>>> predicateToFeatures = new ConcurrentHashMap<>();
+
+    ExampleMatches(Example ex) {
+      index = new PhraseIndex(PhraseInfo.getPhraseInfos(ex));
+    }
+
+    // Return the list of features for each phrase.
+    List<List<PairFeature>> getPairFeatures(Example ex, PredicateInfo predicateInfo) {
+      if (opts.verbose >= 2) return computePairFeatures(ex, index, predicateInfo);   // Log every time
+      List<List<PairFeature>> features = predicateToFeatures.get(predicateInfo);
+      if (features == null) {
+        features = computePairFeatures(ex, index, predicateInfo);
+        predicateToFeatures.put(predicateInfo, features);
+      }
+      return features;
+    }
+  }
+
+  private final LoadingCache<Example, ExampleMatches> exampleMatchesCache = CacheBuilder.newBuilder()
+      .maximumSize(20)
+      .build(
+          new CacheLoader<Example, ExampleMatches>() {
+            @Override
+            public ExampleMatches load(Example ex) throws Exception {
+              return new ExampleMatches(ex);
+            }
+          });
+
+  private ExampleMatches getExampleMatches(Example ex) {
+    try {
+      return exampleMatchesCache.get(ex);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private List<List<PairFeature>> computePairFeatures(Example ex, PhraseIndex index, PredicateInfo predicateInfo) {
+    String predicateString, predicateType;
     if (predicateInfo.originalString != null) {
-      extractMatch(ex, deriv, phraseInfo, phraseInfo.lemmaText, "",
-          predicateInfo, predicateInfo.originalString, "(o)", factor);
+      predicateString = predicateInfo.originalString;
+      predicateType = "(o)";
     } else {
-      extractMatch(ex, deriv, phraseInfo, phraseInfo.lemmaText, "",
-          predicateInfo, predicateInfo.predicate, "(i)", factor);
+      predicateString = predicateInfo.predicate;
+      predicateType = "(i)";
+    }
+    int[] flags = null;
+    if (FeatureExtractor.containsDomain("phrase-predicate") && opts.unlexicalizedPhrasePredicate) {
+      if (opts.usePhraseIndex) {
+        flags = index.match(predicateString);
+      } else {
+        flags = new int[index.phraseInfos.size()];
+        for (int i = 0; i < flags.length; i++)
+          flags[i] = PhraseIndex.match(index.phraseInfos.get(i).lemmaText, predicateString);
+      }
+    }
+    List<List<PairFeature>> features = new ArrayList<>();
+    for (int i = 0; i < index.phraseInfos.size(); i++) {
+      PhraseInfo phraseInfo = index.phraseInfos.get(i);
+      List<PairFeature> phraseFeatures = new ArrayList<>();
+      extractMatch(ex, phraseFeatures, phraseInfo, phraseInfo.lemmaText, "",
+          predicateInfo, predicateString, predicateType, flags == null ? 0 : flags[i]);
+      features.add(phraseFeatures.isEmpty() ? Collections.<PairFeature>emptyList() : phraseFeatures);
     }
+    return features;
   }
 
-  private void extractMatch(Example ex, Derivation deriv,
+  private void extractMatch(Example ex, List<PairFeature> features,
       PhraseInfo phraseInfo, String phraseString, String phraseType,
-      PredicateInfo predicateInfo, String predicateString, String predicateType, double factor) {
+      PredicateInfo predicateInfo, String predicateString, String predicateType, int flags) {
     if (FeatureExtractor.containsDomain("phrase-predicate") && opts.unlexicalizedPhrasePredicate) {
-      if (phraseString.equals(predicateString)) {
-        defineFeatures(ex, deriv, phraseInfo, predicateInfo, phraseType + "=" + predicateType,
-            phraseString, predicateString, factor);
+      if ((flags & PhraseIndex.EXACT) != 0) {
+        defineFeatures(features, phraseInfo, predicateInfo, phraseType + "=" + predicateType,
+            phraseString, predicateString);
       } else if (opts.usePrefixSuffixMatch) {
-        if (predicateString.startsWith(phraseString)) {
-          defineFeatures(ex, deriv, phraseInfo, predicateInfo, "*_" + phraseType + "=" + predicateType,
-              phraseString, predicateString, factor);
+        if ((flags & PhraseIndex.PHRASE_IS_PREFIX) != 0) {
+          defineFeatures(features, phraseInfo, predicateInfo, "*_" + phraseType + "=" + predicateType,
+              phraseString, predicateString);
         }
-        if (predicateString.endsWith(phraseString)) {
-          defineFeatures(ex, deriv, phraseInfo, predicateInfo, "_*" + phraseType + "=" + predicateType,
-              phraseString, predicateString, factor);
+        if ((flags & PhraseIndex.PHRASE_IS_SUFFIX) != 0) {
+          defineFeatures(features, phraseInfo, predicateInfo, "_*" + phraseType + "=" + predicateType,
+              phraseString, predicateString);
         }
-        if (phraseString.startsWith(predicateString)) {
-          defineFeatures(ex, deriv, phraseInfo, predicateInfo, phraseType + "=_*" + predicateType,
-              phraseString, predicateString, factor);
+        if ((flags & PhraseIndex.PREDICATE_IS_PREFIX) != 0) {
+          defineFeatures(features, phraseInfo, predicateInfo, phraseType + "=_*" + predicateType,
+              phraseString, predicateString);
         }
-        if (phraseString.endsWith(predicateString)) {
-          defineFeatures(ex, deriv, phraseInfo, predicateInfo, phraseType + "=*_" + predicateType,
-              phraseString, predicateString, factor);
+        if ((flags & PhraseIndex.PREDICATE_IS_SUFFIX) != 0) {
+          defineFeatures(features, phraseInfo, predicateInfo, phraseType + "=*_" + predicateType,
+              phraseString, predicateString);
         }
       }
     }
     if (FeatureExtractor.containsDomain("phrase-predicate") && opts.lexicalizedPhrasePredicate
         && phraseInfo.end - phraseInfo.start <= maxNforLexicalizeAllPairs
         && (!PhraseInfo.opts.forbidBorderStopWordInLexicalizedFeatures || !phraseInfo.isBorderStopWord)) {
-      deriv.addFeature("p-p",
-          phraseType + phraseString + ";" + predicateType + predicateString, factor);
+      features.add(new PairFeature("p-p",
+          phraseType + phraseString + ";" + predicateType + predicateString, 1, true));
     }
     if (FeatureExtractor.containsDomain("phrase-category") && predicateInfo.type == PredicateType.BINARY
         && (!PhraseInfo.opts.forbidBorderStopWordInLexicalizedFeatures || !phraseInfo.isBorderStopWord)) {
@@ -153,29 +250,29 @@ public class PhrasePredicateFeatureComputer implements FeatureComputer {
         for (Pair<String, Double> pair : categories) {
           if (pair.getSecond() >= opts.phraseCategoryWeightThreshold) {
             if (opts.phraseCategoryBinary)
-              deriv.addFeature("p-c", phraseType + phraseString + ";" + pair.getFirst());
+              features.add(new PairFeature("p-c", phraseType + phraseString + ";" + pair.getFirst(), 1, false));
             else
-              deriv.addFeature("p-c", phraseType + phraseString + ";" + pair.getFirst(), pair.getSecond());
+              features.add(new PairFeature("p-c", phraseType + phraseString + ";" + pair.getFirst(), pair.getSecond(), false));
           }
         }
       }
     }
   }
 
-  private void defineFeatures(Example ex, Derivation deriv, PhraseInfo phraseInfo, PredicateInfo predicateInfo,
-      String featurePrefix, String phraseString, String predicateString, double factor) {
-    defineFeatures(ex, deriv, phraseInfo, predicateInfo, featurePrefix, factor);
+  private void defineFeatures(List<PairFeature> features, PhraseInfo phraseInfo, PredicateInfo predicateInfo,
+      String featurePrefix, String phraseString, String predicateString) {
+    defineFeatures(features, phraseInfo, predicateInfo, featurePrefix);
     if (opts.usePosFeatures)
-      defineFeatures(ex, deriv, phraseInfo, predicateInfo,
-          featurePrefix + "," + phraseInfo.canonicalPosSeq, factor);
+      defineFeatures(features, phraseInfo, predicateInfo,
+          featurePrefix + "," + phraseInfo.canonicalPosSeq);
   }
 
-  private void defineFeatures(Example ex, Derivation deriv, PhraseInfo phraseInfo, PredicateInfo predicateInfo,
-      String featurePrefix, double factor) {
+  private void defineFeatures(List<PairFeature> features, PhraseInfo phraseInfo, PredicateInfo predicateInfo,
+      String featurePrefix) {
     if (opts.verbose >= 2) LogInfo.logs("defineFeatures: %s %s %s %s",
         featurePrefix, phraseInfo, predicateInfo, predicateInfo.type);
-    deriv.addFeature("p-p", featurePrefix, factor);
-    deriv.addFeature("p-p", featurePrefix + "," + predicateInfo.type, factor);
+    features.add(new PairFeature("p-p", featurePrefix, 1, true));
+    features.add(new PairFeature("p-p", featurePrefix + "," + predicateInfo.type, 1, true));
   }
 
   // ============================================================
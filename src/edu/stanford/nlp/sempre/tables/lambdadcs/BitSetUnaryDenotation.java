@@ -0,0 +1,194 @@
+package edu.stanford.nlp.sempre.tables.lambdadcs;
+
+import java.util.*;
+
+import edu.stanford.nlp.sempre.*;
+import edu.stanford.nlp.sempre.tables.ColumnarTable;
+import edu.stanford.nlp.sempre.tables.TableKnowledgeGraph;
+import edu.stanford.nlp.sempre.tables.lambdadcs.LambdaDCSException.Type;
+import fig.basic.*;
+
+/**
+ * A finite set of rows and cells of a single table, represented as a bitset
+ * over the graph-local entity ids of the ColumnarTable.
+ *
+ * Merging two such sets from the same table is a bitwise operation.
+ * Merging with other finite unaries looks up each value in O(1).
+ *
+ * Since a bitset cannot hold duplicates, use create(...) to build a unary:
+ * if the values contain a duplicate or a non-entity value (e.g., a number),
+ * it falls back to ExplicitUnaryDenotation.
+ */
+public class BitSetUnaryDenotation extends UnaryDenotation {
+
+  protected final ColumnarTable table;
+  protected final BitSet ids;
+  private int size = -1;
+
+  public BitSetUnaryDenotation(ColumnarTable table, BitSet ids) {
+    this.table = table;
+    this.ids = ids;
+  }
+
+  /**
+   * Return a BitSetUnaryDenotation if the graph is a table and |values| is a set of
+   * rows and cells in that table. Otherwise, return an ExplicitUnaryDenotation.
+   */
+  public static UnaryDenotation create(KnowledgeGraph graph, Collection<Value> values) {
+    if (!LambdaDCSExecutor.opts.useBitSetUnary || !(graph instanceof TableKnowledgeGraph) || values.isEmpty())
+      return new ExplicitUnaryDenotation(values);
+    ColumnarTable table = ((TableKnowledgeGraph) graph).getColumnarTable();
+    BitSet ids = new BitSet(table.numEntities());
+    for (Value value : values) {
+      int id = table.getEntityId(value);
+      if (id < 0 || ids.get(id))
+        return new ExplicitUnaryDenotation(values);
+      ids.set(id);
+    }
+    return new BitSetUnaryDenotation(table, ids);
+  }
+
+  public ColumnarTable getTable() { return table; }
+
+  /** The underlying bitset. Should not be modified. */
+  public BitSet getIds() { return ids; }
+
+  @Override
+  public LispTree toLispTree() {
+    LispTree tree = LispTree.proto.newList();
+    tree.addChild("unary");
+    for (Value value : this)
+      tree.addChild(value.toLispTree());
+    return tree;
+  }
+
+  protected ListValue cachedValue;
+
+  @Override
+  public ListValue toValue() {
+    if (cachedValue != null) return cachedValue;
+    ListValue result = new ListValue(new ArrayList<>(this));
+    if (LambdaDCSExecutor.opts.sortResults)
+      result = result.getSorted();
+    cachedValue = result;
+    return result;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof Value)) return false;
+    int id = table.getEntityId((Value) o);
+    return id >= 0 && ids.get(id);
+  }
+
+  @Override
+  public boolean containsAll(Collection<?> c) {
+    for (Object o : c)
+      if (!contains(o)) return false;
+    return true;
+  }
+
+  @Override
+  public Object[] toArray() {
+    return toArray(new Value[size()]);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override public <T> T[] toArray(T[] a) {
+    int n = size();
+    if (a.length < n)
+      a = (T[]) java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), n);
+    int k = 0;
+    for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1))
+      a[k++] = (T) table.getEntity(i);
+    if (a.length > n) a[n] = null;
+    return a;
+  }
+
+  @Override
+  public Iterator<Value> iterator() {
+    return new Iterator<Value>() {
+      private int next = ids.nextSetBit(0);
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      public Value next() {
+        if (next < 0) throw new NoSuchElementException();
+        Value value = table.getEntity(next);
+        next = ids.nextSetBit(next + 1);
+        return value;
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    if (size < 0) size = ids.cardinality();
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return ids.isEmpty();
+  }
+
+  @Override
+  public UnaryDenotation merge(UnaryDenotation that, MergeFormula.Mode mode) {
+    if (that instanceof BitSetUnaryDenotation && ((BitSetUnaryDenotation) that).table == table) {
+      BitSet merged = (BitSet) ids.clone();
+      switch (mode) {
+        case and: merged.and(((BitSetUnaryDenotation) that).ids); break;
+        case or: merged.or(((BitSetUnaryDenotation) that).ids); break;
+        default: throw new LambdaDCSException(Type.invalidFormula, "Unknown merge mode: %s", mode);
+      }
+      return new BitSetUnaryDenotation(table, merged);
+    }
+    switch (mode) {
+      case and:
+        // The result is a subset of this set
+        return filter(that);
+      case or:
+        if (that.size() == Integer.MAX_VALUE) return that.merge(this, mode);
+        BitSet merged = (BitSet) ids.clone();
+        for (Value value : that) {
+          int id = table.getEntityId(value);
+          if (id < 0) {
+            Set<Value> values = new HashSet<>(this);
+            values.addAll(that);
+            return new ExplicitUnaryDenotation(values);
+          }
+          merged.set(id);
+        }
+        return new BitSetUnaryDenotation(table, merged);
+      default: throw new LambdaDCSException(Type.invalidFormula, "Unknown merge mode: %s", mode);
+    }
+  }
+
+  @Override
+  public UnaryDenotation aggregate(AggregateFormula.Mode mode) {
+    if (mode == AggregateFormula.Mode.count)
+      return new ExplicitUnaryDenotation(new NumberValue(size()));
+    return new ExplicitUnaryDenotation(DenotationUtils.aggregate(this, mode));
+  }
+
+  @Override
+  public UnaryDenotation filter(UnaryDenotation upperBound) {
+    if (upperBound instanceof BitSetUnaryDenotation && ((BitSetUnaryDenotation) upperBound).table == table) {
+      BitSet filtered = (BitSet) ids.clone();
+      filtered.and(((BitSetUnaryDenotation) upperBound).ids);
+      return new BitSetUnaryDenotation(table, filtered);
+    }
+    if (upperBound == InfiniteUnaryDenotation.STAR_UNARY) return this;
+    BitSet filtered = new BitSet(table.numEntities());
+    for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+      if (upperBound.contains(table.getEntity(i)))
+        filtered.set(i);
+    }
+    return new BitSetUnaryDenotation(table, filtered);
+  }
+
+}
@@ -1,70 +1,100 @@
 package edu.stanford.nlp.sempre.tables.lambdadcs;
 
 import java.util.*;
+import java.util.concurrent.*;
 
+import edu.stanford.nlp.sempre.*;
 import fig.basic.*;
 
 /**
  * Cache the executed values of an executor.
  *
- * The cache should be cleared once the parser finishes each example.
- * The metakey Object specifies the current example.
- * When the metakey is changed, the cache is cleared.
+ * Each knowledge graph has its own cache, which can be shared by threads
+ * executing formulas on the same graph. The cache is cleared when the graph is
+ * cleaned (i.e., when the parser finishes each example).
+ *
+ * The cache holds at most maxCacheSize entries; the oldest entries are evicted first.
+ * To bound the total memory when graphs are not cleaned, at most maxActiveCaches
+ * caches can be non-empty at a time; the least recently activated one is cleared.
  *
  * @author ppasupat
  */
 public final class ExecutorCache {
   public static class Options {
-    @Option(gloss = "maximum number of values to retain")
+    @Option(gloss = "maximum number of values to retain per graph")
     public int maxCacheSize = 1000000;
-    @Option(gloss = "minimum number of values evicted before garbage collection")
-    public int cacheGCThreshold = 10000000;
+    @Option(gloss = "maximum number of graphs with non-empty caches")
+    public int maxActiveCaches = 16;
     @Option public int verbose = 0;
   }
   public static Options opts = new Options();
 
-  // Default cache
-  public static final ExecutorCache singleton = new ExecutorCache();
+  // Caches of graphs that do not keep their own cache
+  private static final Map<KnowledgeGraph, ExecutorCache> graphToCache =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  public static ExecutorCache forGraph(KnowledgeGraph graph) {
+    return graphToCache.computeIfAbsent(graph, g -> new ExecutorCache());
+  }
 
-  private Object currentMetakey = null;
-  private final Map<Object, Object> cache;
-  private int accumSize = 0;
+  // Non-empty caches in the order of activation
+  private static final LinkedHashSet<ExecutorCache> activeCaches = new LinkedHashSet<>();
 
-  public ExecutorCache() {
-    cache = new HashMap<>();
+  private static void activate(ExecutorCache executorCache) {
+    ExecutorCache toClear = null;
+    synchronized (activeCaches) {
+      if (!activeCaches.add(executorCache)) return;
+      if (activeCaches.size() > opts.maxActiveCaches) {
+        toClear = activeCaches.iterator().next();
+        activeCaches.remove(toClear);
+      }
+    }
+    if (toClear != null) toClear.clearCache();
   }
 
-  public synchronized Object get(Object metakey, Object key) {
-    if (currentMetakey != metakey) {
-      clearCache(metakey);
+  private static void deactivate(ExecutorCache executorCache) {
+    synchronized (activeCaches) {
+      activeCaches.remove(executorCache);
     }
+  }
+
+  private final ConcurrentMap<Object, Object> cache = new ConcurrentHashMap<>();
+  // Keys in insertion order (for eviction)
+  private final Queue<Object> keys = new ConcurrentLinkedQueue<>();
+
+  public Object get(Object key) {
     Object value = cache.get(key);
     if (opts.verbose >= 1)
       LogInfo.logs("[GET =>] %s => %s", key, value);
     return value;
   }
 
-  public synchronized void put(Object metakey, Object key, Object value) {
-    if (currentMetakey != metakey) {
-      clearCache(metakey);
-    }
+  /**
+   * Add the key-value pair and return the number of evicted entries.
+   */
+  public int put(Object key, Object value) {
     if (opts.verbose >= 1)
       LogInfo.logs("[<= PUT] %s <= %s", key, value);
-    if (cache.size() < opts.maxCacheSize)
-      cache.put(key, value);
+    if (cache.putIfAbsent(key, value) != null) return 0;
+    if (keys.isEmpty()) activate(this);
+    keys.add(key);
+    int evicted = 0;
+    while (cache.size() > opts.maxCacheSize) {
+      Object oldest = keys.poll();
+      if (oldest == null) break;
+      if (cache.remove(oldest) != null) evicted++;
+    }
+    return evicted;
   }
 
-  public void clearCache(Object metakey) {
-    accumSize += cache.size();
+  public void clearCache() {
+    deactivate(this);
     cache.clear();
-    // Garbage collect
-    if (accumSize >= opts.cacheGCThreshold) {
-      System.gc();
-      accumSize = 0;
-    }
+    keys.clear();
     if (opts.verbose >= 1)
-      LogInfo.logs("[clearCache] metakey = %s", metakey);
-    currentMetakey = metakey;
+      LogInfo.logs("[clearCache]");
   }
 
+  public int size() { return cache.size(); }
+
 }
@@ -4,6 +4,7 @@ import java.util.*;
 
 import edu.stanford.nlp.sempre.*;
 import edu.stanford.nlp.sempre.AggregateFormula.Mode;
+import edu.stanford.nlp.sempre.tables.ValuePairArrayList;
 import fig.basic.LispTree;
 import fig.basic.MapUtils;
 import fig.basic.Pair;
@@ -40,9 +41,18 @@ public class ExplicitPairList implements PairList {
   public ExplicitPairList(List<Pair<Value, Value>> pairs) {
     this.pairs = pairs;
     Map<Value, List<Value>> mappingBuilder = new HashMap<>(), reverseMappingBuilder = new HashMap<>();
-    for (Pair<Value, Value> pair : pairs) {
-      MapUtils.addToList(mappingBuilder, pair.getSecond(), pair.getFirst());
-      MapUtils.addToList(reverseMappingBuilder, pair.getFirst(), pair.getSecond());
+    if (pairs instanceof ValuePairArrayList) {
+      // Avoid creating Pair objects
+      ValuePairArrayList pairArray = (ValuePairArrayList) pairs;
+      for (int i = 0; i < pairArray.size(); i++) {
+        MapUtils.addToList(mappingBuilder, pairArray.secondAt(i), pairArray.firstAt(i));
+        MapUtils.addToList(reverseMappingBuilder, pairArray.firstAt(i), pairArray.secondAt(i));
+      }
+    } else {
+      for (Pair<Value, Value> pair : pairs) {
+        MapUtils.addToList(mappingBuilder, pair.getSecond(), pair.getFirst());
+        MapUtils.addToList(reverseMappingBuilder, pair.getFirst(), pair.getSecond());
+      }
     }
     mapping = new HashMap<>();
     for (Map.Entry<Value, List<Value>> entry : mappingBuilder.entrySet())
@@ -149,6 +159,8 @@ public class ExplicitPairList implements PairList {
 
   @Override
   public ExplicitPairList reverse() {
+    if (pairs instanceof ValuePairArrayList)
+      return new ExplicitPairList(((ValuePairArrayList) pairs).reversed());
     List<Pair<Value, Value>> reversed = new ArrayList<>();
     for (Pair<Value, Value> pair : pairs) {
       reversed.add(new Pair<>(pair.getSecond(), pair.getFirst()));
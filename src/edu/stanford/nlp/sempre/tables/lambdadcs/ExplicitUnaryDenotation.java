@@ -85,6 +85,8 @@ public class ExplicitUnaryDenotation extends UnaryDenotation {
   @Override
   public UnaryDenotation merge(UnaryDenotation that, MergeFormula.Mode mode) {
     if (that.size() == Integer.MAX_VALUE) return that.merge(this, mode);
+    // Merging is commutative; let the bitset handle it
+    if (that instanceof BitSetUnaryDenotation) return that.merge(this, mode);
     Set<Value> merged = new HashSet<>(values);
     switch (mode) {
       case and: merged.retainAll(that); break;
@@ -20,6 +20,8 @@ public class LambdaDCSExecutor extends Executor {
     @Option(gloss = "Use caching") public boolean useCache = true;
     @Option(gloss = "Sort the resulting values (may slow down execution)")
     public boolean sortResults = true;
+    @Option(gloss = "Represent sets of rows and cells of a table as bitsets")
+    public boolean useBitSetUnary = true;
     @Option(gloss = "Allow the return value to be an implicit value")
     public boolean allowImplicitValues = true;
     @Option(gloss = "Allow the root formula to be a binary")
@@ -54,9 +56,13 @@ public class LambdaDCSExecutor extends Executor {
     StopWatch stopWatch = new StopWatch();
     stopWatch.start();
     formula = Formulas.betaReduction(formula);
+    // Interned sub-formulas are cache keys with constant-time equality
+    if (opts.useCache) formula = FormulaInterner.intern(formula);
     Value answer = logic.execute(formula);
     stopWatch.stop();
-    stats.addCumulative("execTime", stopWatch.ms);
+    synchronized (stats) {
+      stats.addCumulative("execTime", stopWatch.ms);
+    }
     if (stopWatch.ms >= 10 && opts.verbose >= 1)
       LogInfo.logs("long time (%d ms): %s => %s", stopWatch.ms, formula, answer);
     return new Response(answer);
@@ -107,8 +113,25 @@ class LambdaDCSCoreLogic {
       throw new RuntimeException("Cannot call LambdaDCSExecutor when context graph is null");
     if (graph instanceof TableKnowledgeGraph)
       cache = ((TableKnowledgeGraph) graph).executorCache;
-    if (cache == null)
-      cache = ExecutorCache.singleton;
+    else
+      cache = ExecutorCache.forGraph(graph);
+  }
+
+  void putCache(Object key, Object value) {
+    int evicted = cache.put(key, value);
+    if (evicted > 0) {
+      synchronized (stats) {
+        stats.addCumulative("cacheEvictions", evicted);
+      }
+    }
+  }
+
+  // The stats are shared by all threads using the executor
+  void addCacheHitStats(boolean normalCacheHit, boolean scopedCacheHit) {
+    synchronized (stats) {
+      stats.addCumulative("normalCacheHit", normalCacheHit);
+      stats.addCumulative("scopedCacheHit", scopedCacheHit);
+    }
   }
 
   public Value execute(Formula formula) {
@@ -131,8 +154,7 @@ class LambdaDCSCoreLogic {
           UnaryDenotation results = (UnaryDenotation) computeUnary(lambdaRelation.body,
               TypeHint.UNRESTRICTED_UNARY.withVar(lambdaRelation.var, varValue));
           if (LambdaDCSExecutor.opts.useCache) {
-            cache.put(graph,
-                new Pair<>(lambdaRelation.body, new Pair<>(lambdaRelation.var, varValue)), results);
+            putCache(new Pair<>(lambdaRelation.body, new Pair<>(lambdaRelation.var, varValue)), results);
           }
           if (!results.isEmpty())
             collapsedPairs.add(new Pair<>(varValue, results.toValue()));
@@ -145,10 +167,8 @@ class LambdaDCSCoreLogic {
     } else {
       // Unaries and Binaries
       try {
+        // The denotation is cached by computeUnary
         Unarylike denotation = computeUnary(formula, TypeHint.UNRESTRICTED_UNARY);
-        if (LambdaDCSExecutor.opts.useCache) {
-          cache.put(graph, formula, denotation);
-        }
         answer = denotation.toValue();
         if (answer instanceof ListValue) {
           answer = ((ListValue) answer).getUnique();
@@ -179,24 +199,32 @@ class LambdaDCSCoreLogic {
       throw new LambdaDCSException(Type.notUnary, "[Unary] Not a unary %s", formula);
     }
 
-    if (LambdaDCSExecutor.opts.useCache) {
-      Object object = cache.get(graph, formula);
+    // The cached denotations were computed without bounds. Superlatives depend on the bound
+    // (the bound restricts the head), so they cannot reuse them.
+    if (LambdaDCSExecutor.opts.useCache && (typeHint.isUnbounded() || !(formula instanceof SuperlativeFormula))) {
+      Object object = cache.get(formula);
       if (object != null && object instanceof Unarylike) {
-        stats.addCumulative("normalCacheHit", true);
-        stats.addCumulative("scopedCacheHit", false);
-        return (Unarylike) object;
+        addCacheHitStats(true, false);
+        return typeHint.isUnbounded() ? (Unarylike) object : typeHint.applyBound((Unarylike) object);
       } else if (typeHint.getIfSingleVar() != null) {
-        object = cache.get(graph, new Pair<>(formula, typeHint.getIfSingleVar()));
+        object = cache.get(new Pair<>(formula, typeHint.getIfSingleVar()));
         if (object != null && object instanceof Unarylike) {
-          stats.addCumulative("normalCacheHit", false);
-          stats.addCumulative("scopedCacheHit", true);
-          return (Unarylike) object;
+          addCacheHitStats(false, true);
+          return typeHint.isUnbounded() ? (Unarylike) object : typeHint.applyBound((Unarylike) object);
         }
       }
-      stats.addCumulative("normalCacheHit", false);
-      stats.addCumulative("scopedCacheHit", false);
+      addCacheHitStats(false, false);
     }
 
+    Unarylike denotation = computeUnaryWithoutCache(formula, typeHint);
+    // Only the denotations under the unrestricted type hint can be reused by other formulas
+    if (LambdaDCSExecutor.opts.useCache && typeHint.isUnrestricted())
+      putCache(formula, denotation);
+    return denotation;
+  }
+
+  private Unarylike computeUnaryWithoutCache(Formula formula, UnarylikeTypeHint typeHint) {
+
     if (formula instanceof ValueFormula) {
       // ============================================================
       // ValueFormula
@@ -248,6 +248,34 @@ public class LambdaDCSExecutorTest {
     }
   }
 
+  @Test(groups = "lambdaCSV") public void lambdaOnGraphBitSetTest() {
+    KnowledgeGraph graph = getKnowledgeGraph("csv");
+    ContextValue context = new ContextValue(graph);
+    String[] formulas = {
+        "(and (fb:row.row.result fb:cell_result.win) (fb:row.row.opponent fb:cell_opponent.austria))",
+        "(or (fb:row.row.result fb:cell_result.win) (fb:row.row.opponent fb:cell_opponent.austria))",
+        "(!fb:row.row.opponent (and (fb:type.object.type fb:type.row) (fb:row.row.result fb:cell_result.win)))",
+        "(and (!= fb:cell_opponent.austria) (!fb:row.row.opponent (fb:type.object.type fb:type.row)))",
+        "(count (fb:row.row.next (fb:row.row.result fb:cell_result.win)))",
+    };
+    boolean useBitSetUnary = LambdaDCSExecutor.opts.useBitSetUnary, useCache = LambdaDCSExecutor.opts.useCache;
+    LambdaDCSExecutor.opts.useCache = false;
+    try {
+      for (String formula : formulas) {
+        Formula f = Formulas.fromLispTree(LispTree.proto.parseFromString(formula));
+        LambdaDCSExecutor.opts.useBitSetUnary = false;
+        Value expected = executor.execute(f, context).value;
+        LambdaDCSExecutor.opts.useBitSetUnary = true;
+        Value actual = executor.execute(f, context).value;
+        if (!expected.equals(actual))
+          throw new RuntimeException("Expected " + expected + ", but got " + actual + " for " + formula);
+      }
+    } finally {
+      LambdaDCSExecutor.opts.useBitSetUnary = useBitSetUnary;
+      LambdaDCSExecutor.opts.useCache = useCache;
+    }
+  }
+
   @Test(groups = "lambdaCSV2") public void lambdaOnGraphCSV2Test() {
     KnowledgeGraph graph = getKnowledgeGraph("csv2");
     runFormula(executor,
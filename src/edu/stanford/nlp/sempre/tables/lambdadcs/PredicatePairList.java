@@ -176,7 +176,7 @@ public class PredicatePairList implements PairList {
       case COMPARISON:
         return InfiniteUnaryDenotation.create(predicateId, keys);
       default:
-        return new ExplicitUnaryDenotation(graph.joinSecond(predicate, keys));
+        return BitSetUnaryDenotation.create(graph, graph.joinSecond(predicate, keys));
     }
   }
 
@@ -190,7 +190,7 @@ public class PredicatePairList implements PairList {
       case COMPARISON:
         return InfiniteUnaryDenotation.create(CanonicalNames.COMPARATOR_REVERSE.get(predicateId), values);
       default:
-        return new ExplicitUnaryDenotation(graph.joinFirst(predicate, values));
+        return BitSetUnaryDenotation.create(graph, graph.joinFirst(predicate, values));
     }
   }
 
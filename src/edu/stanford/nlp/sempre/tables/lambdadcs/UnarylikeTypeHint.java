@@ -32,6 +32,18 @@ public class UnarylikeTypeHint extends TypeHint {
     return denotation.filter(upperBound, domainUpperBound);
   }
 
+  public boolean isUnbounded() {
+    return upperBound == InfiniteUnaryDenotation.STAR_UNARY && domainUpperBound == InfiniteUnaryDenotation.STAR_UNARY;
+  }
+
+  /**
+   * Whether the type hint imposes no bound and binds no variable.
+   * The denotation of a formula under such a type hint does not depend on the context.
+   */
+  public boolean isUnrestricted() {
+    return isUnbounded() && variableMap.mapping.isEmpty() && variableMap.freeVar == null;
+  }
+
   // ============================================================
   // Derive a new type hint
   // ============================================================
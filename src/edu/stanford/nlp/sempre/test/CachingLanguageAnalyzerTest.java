@@ -0,0 +1,102 @@
+package edu.stanford.nlp.sempre.test;
+
+import edu.stanford.nlp.sempre.*;
+import org.testng.annotations.Test;
+
+import java.io.*;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+
+/**
+ * Test the memory and file caches of CachingLanguageAnalyzer.
+ */
+public class CachingLanguageAnalyzerTest {
+  private static final String UTTERANCE = "How many Cities are there in Greece?";
+
+  // SimpleAnalyzer that counts its calls (and optionally uppercases the tokens)
+  private static class CountingAnalyzer extends LanguageAnalyzer {
+    final boolean upperCase;
+    int numCalls = 0;
+
+    CountingAnalyzer(boolean upperCase) {
+      this.upperCase = upperCase;
+    }
+
+    @Override public LanguageInfo analyze(String utterance) {
+      numCalls++;
+      LanguageInfo languageInfo = new SimpleAnalyzer().analyze(utterance);
+      if (upperCase)
+        languageInfo.tokens.replaceAll(String::toUpperCase);
+      return languageInfo;
+    }
+
+    @Override public String getCacheKey() {
+      return super.getCacheKey() + ";upperCase=" + upperCase;
+    }
+  }
+
+  private static String createCachePath() throws IOException {
+    File file = File.createTempFile("analyzer", ".cache");
+    file.delete();
+    file.deleteOnExit();
+    return file.getPath();
+  }
+
+  private static String toJson(LanguageInfo languageInfo) {
+    return Json.writeValueAsStringHard(languageInfo);
+  }
+
+  @Test public void fileRoundTrip() throws IOException {
+    String path = createCachePath();
+    CountingAnalyzer base = new CountingAnalyzer(false);
+    LanguageInfo expected = new CachingLanguageAnalyzer(base, path, 10).analyze(UTTERANCE);
+    assertEquals(1, base.numCalls);
+    assertEquals(toJson(new SimpleAnalyzer().analyze(UTTERANCE)), toJson(expected));
+
+    // A new analyzer reads the entry from the file
+    CountingAnalyzer newBase = new CountingAnalyzer(false);
+    LanguageInfo loaded = new CachingLanguageAnalyzer(newBase, path, 10).analyze(UTTERANCE);
+    assertEquals(0, newBase.numCalls);
+    assertEquals(toJson(expected), toJson(loaded));
+    assertEquals(expected.tokens, loaded.tokens);
+    assertEquals(expected.lemmaTokens, loaded.lemmaTokens);
+    assertEquals(expected.posTags, loaded.posTags);
+    assertEquals(expected.nerTags, loaded.nerTags);
+    assertEquals(expected.nerValues, loaded.nerValues);
+  }
+
+  @Test public void separateEntriesForCacheKeys() throws IOException {
+    String path = createCachePath();
+    CountingAnalyzer lower = new CountingAnalyzer(false), upper = new CountingAnalyzer(true);
+    LanguageInfo lowerInfo = new CachingLanguageAnalyzer(lower, path, 10).analyze(UTTERANCE);
+    LanguageInfo upperInfo = new CachingLanguageAnalyzer(upper, path, 10).analyze(UTTERANCE);
+    assertEquals(1, lower.numCalls);
+    assertEquals(1, upper.numCalls);
+    assertFalse(toJson(lowerInfo).equals(toJson(upperInfo)));
+
+    // Both entries are in the file
+    CountingAnalyzer newLower = new CountingAnalyzer(false), newUpper = new CountingAnalyzer(true);
+    assertEquals(toJson(lowerInfo), toJson(new CachingLanguageAnalyzer(newLower, path, 10).analyze(UTTERANCE)));
+    assertEquals(toJson(upperInfo), toJson(new CachingLanguageAnalyzer(newUpper, path, 10).analyze(UTTERANCE)));
+    assertEquals(0, newLower.numCalls + newUpper.numCalls);
+  }
+
+  @Test public void hitReturnsCopy() throws IOException {
+    for (String path : new String[] {null, createCachePath()}) {
+      CountingAnalyzer base = new CountingAnalyzer(false);
+      CachingLanguageAnalyzer analyzer = new CachingLanguageAnalyzer(base, path, 10);
+      LanguageInfo first = analyzer.analyze(UTTERANCE);
+      String expected = toJson(first);
+      // Modify the returned object
+      first.tokens.set(0, "modified");
+      first.lemmaTokens.add("extra");
+      first.posTags.clear();
+      LanguageInfo second = analyzer.analyze(UTTERANCE);
+      assertEquals(1, base.numCalls);
+      assertEquals(expected, toJson(second));
+      second.nerTags.clear();
+      assertEquals(expected, toJson(analyzer.analyze(UTTERANCE)));
+    }
+  }
+}
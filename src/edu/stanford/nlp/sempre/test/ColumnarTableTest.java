@@ -0,0 +1,220 @@
+package edu.stanford.nlp.sempre.test;
+
+import edu.stanford.nlp.sempre.*;
+import edu.stanford.nlp.sempre.tables.*;
+import edu.stanford.nlp.sempre.tables.lambdadcs.InfiniteUnaryDenotation;
+import fig.basic.Pair;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Test that the columnar join and filter primitives (used by TableKnowledgeGraph.filterSecond)
+ * give the same results as a direct search over the rows and columns of the table.
+ */
+public class ColumnarTableTest {
+
+  // ============================================================
+  // Reference implementation (search over TableRow and TableColumn objects)
+  // ============================================================
+
+  private static List<Pair<Value, Value>> referenceFilterSecond(TableKnowledgeGraph graph, Value r, Collection<Value> seconds) {
+    List<Pair<Value, Value>> answer = new ArrayList<>();
+    boolean reverse = CanonicalNames.isReverseProperty(r);
+    if (reverse) r = CanonicalNames.reverseProperty(r);
+    List<TableRow> rows = graph.rows;
+    if (r.equals(TableTypeSystem.ROW_NEXT_VALUE)) {
+      for (int i = 0; i + 1 < rows.size(); i++) {
+        if (reverse && seconds.contains(rows.get(i).nameValue))
+          answer.add(new Pair<>(rows.get(i + 1).nameValue, rows.get(i).nameValue));
+        if (!reverse && seconds.contains(rows.get(i + 1).nameValue))
+          answer.add(new Pair<>(rows.get(i).nameValue, rows.get(i + 1).nameValue));
+      }
+    } else if (r.equals(TableTypeSystem.ROW_INDEX_VALUE)) {
+      for (TableRow row : rows) {
+        if (reverse && seconds.contains(row.nameValue))
+          answer.add(new Pair<>(row.indexValue, row.nameValue));
+        if (!reverse && seconds.contains(row.indexValue))
+          answer.add(new Pair<>(row.nameValue, row.indexValue));
+      }
+    } else if (TableTypeSystem.isCellProperty(r)) {
+      // For a finite set of cells, each cell is only used once
+      Set<String> usedCellIds = new HashSet<>();
+      for (TableColumn column : graph.columns) {
+        for (TableCell cell : column.children) {
+          if (reverse && seconds.size() != Integer.MAX_VALUE && !usedCellIds.add(cell.properties.id)) continue;
+          for (Value property : cell.properties.metadata.get(r)) {
+            if (reverse && seconds.contains(cell.properties.nameValue))
+              answer.add(new Pair<>(property, cell.properties.nameValue));
+            if (!reverse && seconds.contains(property))
+              answer.add(new Pair<>(cell.properties.nameValue, property));
+          }
+        }
+      }
+    } else {
+      for (int j = 0; j < graph.columns.size(); j++) {
+        TableColumn column = graph.columns.get(j);
+        boolean consecutive = r.equals(column.relationConsecutiveNameValue);
+        if (!consecutive && !r.equals(column.relationNameValue)) continue;
+        int count = 0;
+        NameValue lastCell = null;
+        for (TableRow row : rows) {
+          NameValue cell = row.children.get(j).properties.nameValue;
+          count = cell.equals(lastCell) ? count + 1 : 1;
+          lastCell = cell;
+          Value y = consecutive ? new NumberValue(count) : cell;
+          if (reverse && seconds.contains(row.nameValue))
+            answer.add(new Pair<>(y, row.nameValue));
+          if (!reverse && seconds.contains(y))
+            answer.add(new Pair<>(row.nameValue, y));
+        }
+      }
+    }
+    return answer;
+  }
+
+  // Pairs as a sorted list of strings (the order of the pairs may differ)
+  private static List<String> toSortedStrings(List<Pair<Value, Value>> pairs) {
+    List<String> strings = new ArrayList<>();
+    for (Pair<Value, Value> pair : pairs)
+      strings.add(pair.getFirst() + " " + pair.getSecond());
+    Collections.sort(strings);
+    return strings;
+  }
+
+  // ============================================================
+  // Queries
+  // ============================================================
+
+  private static List<Value> getRelations(TableKnowledgeGraph graph) {
+    List<Value> relations = new ArrayList<>();
+    relations.add(TableTypeSystem.ROW_NEXT_VALUE);
+    relations.add(TableTypeSystem.ROW_INDEX_VALUE);
+    relations.addAll(TableTypeSystem.CELL_PROPERTIES.keySet());
+    for (TableColumn column : graph.columns) {
+      relations.add(column.relationNameValue);
+      relations.add(column.relationConsecutiveNameValue);
+    }
+    List<Value> withReversed = new ArrayList<>();
+    for (Value relation : relations) {
+      withReversed.add(relation);
+      withReversed.add(CanonicalNames.reverseProperty(relation));
+    }
+    return withReversed;
+  }
+
+  private static List<Collection<Value>> getQueries(TableKnowledgeGraph graph) {
+    List<Value> rows = new ArrayList<>(), someRows = new ArrayList<>(), cells = new ArrayList<>(),
+        someCells = new ArrayList<>(), properties = new ArrayList<>(), numbers = new ArrayList<>();
+    for (int i = 0; i < graph.rows.size(); i++) {
+      TableRow row = graph.rows.get(i);
+      rows.add(row.nameValue);
+      if (i % 2 == 1) someRows.add(row.nameValue);
+      for (TableCell cell : row.children) {
+        if (!cells.contains(cell.properties.nameValue)) {
+          cells.add(cell.properties.nameValue);
+          if (cells.size() % 3 == 0) someCells.add(cell.properties.nameValue);
+        }
+        for (Value property : cell.properties.metadata.values())
+          if (!properties.contains(property)) properties.add(property);
+      }
+    }
+    for (int i = 0; i <= graph.rows.size() + 1; i++)
+      numbers.add(new NumberValue(i));
+    List<Value> someProperties = new ArrayList<>();
+    for (int i = 0; i < properties.size(); i += 2)
+      someProperties.add(properties.get(i));
+    someProperties.add(new DateValue(1066, -1, -1));
+    someRows.add(new NameValue("fb:row.r1000"));
+    return Arrays.asList(rows, someRows, cells, someCells, properties, someProperties, numbers,
+        Collections.<Value>emptyList(), InfiniteUnaryDenotation.STAR_UNARY);
+  }
+
+  private static void checkFilterSecond(TableKnowledgeGraph graph) {
+    boolean oldForbidNextOnManyRows = TableKnowledgeGraph.opts.forbidNextOnManyRows;
+    TableKnowledgeGraph.opts.forbidNextOnManyRows = false;
+    try {
+      for (Value relation : getRelations(graph)) {
+        for (Collection<Value> seconds : getQueries(graph)) {
+          assertEquals(relation + " " + seconds,
+              toSortedStrings(referenceFilterSecond(graph, relation, seconds)),
+              toSortedStrings(graph.filterSecond(relation, seconds)));
+        }
+      }
+    } finally {
+      TableKnowledgeGraph.opts.forbidNextOnManyRows = oldForbidNextOnManyRows;
+    }
+  }
+
+  private static TableKnowledgeGraph createDateTable() {
+    List<String[]> records = new ArrayList<>();
+    records.add(new String[] {"Year", "Date", "Score"});
+    records.add(new String[] {"1990", "10 March 1993", "3"});
+    records.add(new String[] {"1991", "12 October 1993", "3"});
+    records.add(new String[] {"1990", "10 March 1993", "5"});
+    records.add(new String[] {"1992", "1 May 1994", "2"});
+    return new TableKnowledgeGraph("dates.tsv", records);
+  }
+
+  // ============================================================
+  // Tests
+  // ============================================================
+
+  @Test public void filterSecond() {
+    checkFilterSecond(TableKnowledgeGraph.fromFilename("tables/toy-examples/nikos_machlas.csv"));
+    checkFilterSecond(createDateTable());
+  }
+
+  @Test public void cellsWithMultipleDates() {
+    TableKnowledgeGraph graph = createDateTable();
+    // Give the first cell a second date
+    DateValue extraDate = new DateValue(2000, 1, 2);
+    graph.rows.get(0).children.get(0).properties.metadata.put(TableTypeSystem.CELL_DATE_VALUE, extraDate);
+    ColumnarTable table = new ColumnarTable(graph.rows, graph.columns);
+    for (Collection<Value> dates : Arrays.<Collection<Value>>asList(
+        Collections.singletonList(extraDate), Arrays.asList(extraDate, new DateValue(1991, -1, -1)))) {
+      List<String> expected = toSortedStrings(referenceFilterSecond(graph, TableTypeSystem.CELL_DATE_VALUE, dates));
+      assertTrue(!expected.isEmpty());
+      assertEquals(expected, toSortedStrings(table.cellsOfProperties(TableTypeSystem.CELL_DATE_VALUE, dates)));
+    }
+  }
+
+  @Test public void valuePairArrayList() {
+    ValuePairArrayList list = new ValuePairArrayList(1);
+    List<Pair<Value, Value>> expected = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Value first = new NumberValue(i), second = new StringValue("s" + i);
+      if (i % 2 == 0)
+        list.add(first, second);
+      else
+        list.add(new Pair<>(first, second));
+      expected.add(new Pair<>(first, second));
+    }
+    assertEquals(expected.size(), list.size());
+    for (int i = 0; i < list.size(); i++) {
+      assertEquals(expected.get(i).getFirst(), list.firstAt(i));
+      assertEquals(expected.get(i).getSecond(), list.secondAt(i));
+      assertEquals(expected.get(i), list.get(i));
+    }
+    ValuePairArrayList reversed = list.reversed();
+    assertEquals(list.size(), reversed.size());
+    for (int i = 0; i < list.size(); i++) {
+      assertEquals(list.firstAt(i), reversed.secondAt(i));
+      assertEquals(list.secondAt(i), reversed.firstAt(i));
+    }
+    // Adding to the reversed list does not change the original
+    reversed.add(new NumberValue(-1), new NumberValue(-1));
+    assertEquals(expected.size(), list.size());
+    assertEquals(0, new ValuePairArrayList().reversed().size());
+  }
+
+  @Test(expectedExceptions = IndexOutOfBoundsException.class)
+  public void valuePairArrayListBounds() {
+    ValuePairArrayList list = new ValuePairArrayList();
+    list.add(new NumberValue(1), new NumberValue(2));
+    list.firstAt(1);
+  }
+}
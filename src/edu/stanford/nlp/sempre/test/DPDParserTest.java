@@ -0,0 +1,233 @@
+package edu.stanford.nlp.sempre.test;
+
+import edu.stanford.nlp.sempre.*;
+import edu.stanford.nlp.sempre.tables.*;
+import edu.stanford.nlp.sempre.tables.dpd.DPDParser;
+import edu.stanford.nlp.sempre.tables.lambdadcs.LambdaDCSExecutor;
+import edu.stanford.nlp.sempre.tables.match.FuzzyMatcher;
+import fig.basic.LispTree;
+import fig.basic.Pair;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Test the first pass of DPDParser (parallelism and the first pass cache) on a toy table.
+ */
+public class DPDParserTest {
+  private static final String TABLE = "tables/toy-examples/nikos_machlas.csv";
+
+  // Set the global options for parsing tables, and restore() the old ones so that other tests are not affected
+  private static class TableOptions {
+    final LanguageAnalyzer analyzer = LanguageAnalyzer.setSingleton(new SimpleAnalyzer());
+    final TypeLookup typeLookup = TypeInference.setTypeLookup(new TableTypeLookup());
+    final String fuzzyMatcher = FuzzyMatcher.opts.fuzzyMatcher;
+    final List<String> inPaths = Grammar.opts.inPaths, tags = Grammar.opts.tags;
+    final List<String> pruningStrategies = DerivationPruner.opts.pruningStrategies;
+    final List<String> pruningComputers = DerivationPruner.opts.pruningComputers;
+    final Set<String> featureDomains = FeatureExtractor.opts.featureDomains;
+    final int maxDepth = FloatingParser.opts.maxDepth;
+    final int numFirstPassThreads = DPDParser.opts.numFirstPassThreads;
+    final String firstPassCacheDir = DPDParser.opts.firstPassCacheDir;
+    final int maxDPDParsingTime = DPDParser.opts.maxDPDParsingTime;
+
+    TableOptions() {
+      FuzzyMatcher.opts.fuzzyMatcher = "tables.match.OriginalMatcher";
+      Grammar.opts.inPaths = Collections.singletonList("tables/grammars/combined.grammar");
+      Grammar.opts.tags = new ArrayList<>(Arrays.asList(
+          "alternative movement comparison count aggregate superlative arithmetic merge".split(" ")));
+      DerivationPruner.opts.pruningStrategies = new ArrayList<>(DPDParser.opts.allowedPrunersInFirstPass);
+      DerivationPruner.opts.pruningComputers = Collections.singletonList("tables.TableDerivationPruningComputer");
+      FloatingParser.opts.maxDepth = 5;
+    }
+
+    void restore() {
+      LanguageAnalyzer.setSingleton(analyzer);
+      TypeInference.setTypeLookup(typeLookup);
+      FuzzyMatcher.opts.fuzzyMatcher = fuzzyMatcher;
+      Grammar.opts.inPaths = inPaths;
+      Grammar.opts.tags = tags;
+      DerivationPruner.opts.pruningStrategies = pruningStrategies;
+      DerivationPruner.opts.pruningComputers = pruningComputers;
+      FeatureExtractor.opts.featureDomains = featureDomains;
+      FloatingParser.opts.maxDepth = maxDepth;
+      DPDParser.opts.numFirstPassThreads = numFirstPassThreads;
+      DPDParser.opts.firstPassCacheDir = firstPassCacheDir;
+      DPDParser.opts.maxDPDParsingTime = maxDPDParsingTime;
+    }
+  }
+
+  /**
+   * Semantic function of the rule ($HookTest ($RowSet $Binary)), which is the last floating rule
+   * applied on each depth. It produces nothing, but counts its calls, and can make the pass
+   * time out at a known point by sleeping past maxDPDParsingTime when the $RowSet is tall enough.
+   */
+  public static class HookFn extends SemanticFn {
+    static final AtomicInteger numCalls = new AtomicInteger();
+    static volatile int sleepAtHeight = 0;   // 0 = never sleep
+
+    private static int height(Derivation deriv) {
+      int height = 0;
+      for (Derivation child : deriv.children)
+        height = Math.max(height, height(child));
+      return height + 1;
+    }
+
+    public DerivationStream call(Example ex, Callable c) {
+      numCalls.incrementAndGet();
+      if (sleepAtHeight > 0 && height(c.child(0)) >= sleepAtHeight) {
+        sleepAtHeight = 0;
+        try {
+          Thread.sleep(DPDParser.opts.maxDPDParsingTime * 1000L + 500);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();   // The serial first pass is interrupted here
+        }
+      }
+      return SingleDerivationStream.constant(null);
+    }
+  }
+
+  private static DPDParser createParser() {
+    Grammar grammar = new Grammar();
+    grammar.read();
+    HookFn hookFn = new HookFn();
+    hookFn.init(LispTree.proto.parseFromString("(HookFn)"));
+    Rule hook = new Rule("$HookTest", Arrays.asList("$RowSet", "$Binary"), hookFn);
+    hook.addInfo("floating", 1);
+    grammar.addRule(hook);
+    Executor executor = new LambdaDCSExecutor();
+    return new DPDParser(new Parser.Spec(grammar, new FeatureExtractor(executor), executor, new TableValueEvaluator()));
+  }
+
+  private static Example parse(DPDParser parser, Params params) {
+    Example ex = new Example.Builder().setId("ex").setUtterance("how many games were played in athens")
+        .setContext(new ContextValue(TableKnowledgeGraph.fromFilename(TABLE)))
+        .setTargetValue(Values.fromString("(list (number 6))")).createExample();
+    ex.preprocess();
+    parser.parse(params, ex, true);
+    return ex;
+  }
+
+  private static List<String> getPredictions(Example ex) {
+    List<String> predictions = new ArrayList<>();
+    for (Derivation deriv : ex.predDerivations)
+      predictions.add(deriv.formula + " => " + deriv.value + " : " + deriv.getScore());
+    return predictions;
+  }
+
+  private static File createTempDir() throws IOException {
+    File dir = Files.createTempDirectory("dpd").toFile();
+    dir.deleteOnExit();
+    return dir;
+  }
+
+  // Cache entries (file name => content) in the directory
+  private static Map<String, List<Byte>> readCacheEntries(File dir) throws IOException {
+    Map<String, List<Byte>> entries = new TreeMap<>();
+    for (File file : dir.listFiles()) {
+      file.deleteOnExit();
+      List<Byte> content = new ArrayList<>();
+      for (byte b : Files.readAllBytes(file.toPath()))
+        content.add(b);
+      entries.put(file.getName(), content);
+    }
+    return entries;
+  }
+
+  // Parse with the given number of first pass threads, and return the cached allowed ingredients
+  private static Map<String, List<Byte>> getAllowedIngredients(int numThreads, List<String> predictions)
+      throws IOException {
+    File dir = createTempDir();
+    DPDParser.opts.numFirstPassThreads = numThreads;
+    DPDParser.opts.firstPassCacheDir = dir.getPath();
+    predictions.addAll(getPredictions(parse(createParser(), new Params())));
+    return readCacheEntries(dir);
+  }
+
+  @Test public void parallelFirstPass() throws IOException {
+    TableOptions options = new TableOptions();
+    try {
+      List<String> serialPredictions = new ArrayList<>(), parallelPredictions = new ArrayList<>();
+      Map<String, List<Byte>> serial = getAllowedIngredients(1, serialPredictions);
+      Map<String, List<Byte>> parallel = getAllowedIngredients(4, parallelPredictions);
+      assertEquals(1, serial.size());
+      assertEquals(serial, parallel);
+      assertTrue(!serialPredictions.isEmpty());
+      assertEquals(serialPredictions, parallelPredictions);
+    } finally {
+      options.restore();
+    }
+  }
+
+  // A first pass that times out in the hook is not cached
+  @Test public void timeoutIsNotCached() throws IOException {
+    TableOptions options = new TableOptions();
+    DPDParser.opts.maxDPDParsingTime = 1;
+    HookFn.sleepAtHeight = 1;
+    try {
+      assertEquals(0, getAllowedIngredients(1, new ArrayList<>()).size());
+      assertEquals(0, HookFn.sleepAtHeight);
+    } finally {
+      HookFn.sleepAtHeight = 0;
+      options.restore();
+    }
+  }
+
+  private static final int TIMEOUT_HEIGHT = 4;
+
+  // When the first pass times out, the parallel version keeps the chart built so far like the serial version
+  @Test public void parallelTimeout() throws IOException {
+    TableOptions options = new TableOptions();
+    DPDParser.opts.maxDPDParsingTime = 1;
+    try {
+      List<String> serialPredictions = new ArrayList<>(), parallelPredictions = new ArrayList<>();
+      HookFn.sleepAtHeight = TIMEOUT_HEIGHT;
+      assertEquals(0, getAllowedIngredients(1, serialPredictions).size());
+      HookFn.sleepAtHeight = TIMEOUT_HEIGHT;
+      assertEquals(0, getAllowedIngredients(4, parallelPredictions).size());
+      assertTrue(!serialPredictions.isEmpty());
+      assertEquals(serialPredictions, parallelPredictions);
+    } finally {
+      HookFn.sleepAtHeight = 0;
+      options.restore();
+    }
+  }
+
+  // The second pass gives the same predictions and scores with a cached first pass
+  @Test public void cacheHitMatchesFreshFirstPass() throws IOException {
+    TableOptions options = new TableOptions();
+    FeatureExtractor.opts.featureDomains = new HashSet<>(Collections.singletonList("rule"));
+    try {
+      // Parameters with different weights for different rules
+      Map<String, Double> features = new HashMap<>();
+      for (Derivation deriv : parse(createParser(), new Params()).predDerivations)
+        deriv.incrementAllFeatureVector(1, features);
+      List<Pair<String, Double>> weights = new ArrayList<>();
+      for (String feature : features.keySet())
+        weights.add(new Pair<>(feature, (feature.hashCode() % 10) / 10.0));
+      Params params = new Params();
+      params.init(weights);
+
+      File dir = createTempDir();
+      DPDParser.opts.firstPassCacheDir = dir.getPath();
+      HookFn.numCalls.set(0);
+      List<String> fresh = getPredictions(parse(createParser(), params));
+      int freshCalls = HookFn.numCalls.getAndSet(0);
+      assertEquals(1, readCacheEntries(dir).size());
+      List<String> cached = getPredictions(parse(createParser(), params));
+      // The first pass was skipped
+      assertTrue(HookFn.numCalls.get() < freshCalls);
+      assertTrue(!fresh.isEmpty());
+      assertEquals(fresh, cached);
+    } finally {
+      options.restore();
+    }
+  }
+}
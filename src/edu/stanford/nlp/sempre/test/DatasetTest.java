@@ -0,0 +1,141 @@
+package edu.stanford.nlp.sempre.test;
+
+import edu.stanford.nlp.sempre.*;
+import fig.basic.Pair;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * Test that reading a Dataset with several preprocessing threads (Dataset.opts.numPreprocessThreads)
+ * gives the same examples as reading it serially.
+ */
+public class DatasetTest {
+  private static final String[] WORDS = {"how", "many", "Cities", "are", "in", "Greece", "2", "plus", "3", "?"};
+
+  // SimpleAnalyzer that sleeps for a random time, so that the threads finish out of order
+  private static class SlowAnalyzer extends SimpleAnalyzer {
+    @Override public LanguageInfo analyze(String utterance) {
+      try {
+        Thread.sleep(new Random().nextInt(5));
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return super.analyze(utterance);
+    }
+  }
+
+  private static List<String> createUtterances(int numExamples) {
+    Random random = new Random(1);
+    List<String> utterances = new ArrayList<>();
+    for (int i = 0; i < numExamples; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int j = random.nextInt(8); j >= 0; j--)
+        sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+      utterances.add(sb.toString().trim());
+    }
+    return utterances;
+  }
+
+  private static String writeJson(String group, List<String> utterances) throws IOException {
+    File file = File.createTempFile(group, ".json");
+    file.deleteOnExit();
+    List<Example> examples = new ArrayList<>();
+    for (int i = 0; i < utterances.size(); i++)
+      examples.add(new Example.Builder().setId(group + i).setUtterance(utterances.get(i))
+          .setTargetValue(new NumberValue(i)).createExample());
+    ExampleUtils.writeJson(examples, file.getPath());
+    return file.getPath();
+  }
+
+  private static String writeLispTree(String group, List<String> utterances) throws IOException {
+    File file = File.createTempFile(group, ".examples");
+    file.deleteOnExit();
+    try (PrintWriter out = new PrintWriter(file)) {
+      for (int i = 0; i < utterances.size(); i++)
+        out.println("(example (utterance \"" + utterances.get(i) + "\") (targetValue (number " + i + ")))");
+    }
+    return file.getPath();
+  }
+
+  // Read the dataset and describe each example (id, utterance, language info, and target value)
+  private static List<String> read(List<Pair<String, String>> pathPairs, int numPreprocessThreads) {
+    Dataset.opts.numPreprocessThreads = numPreprocessThreads;
+    Dataset dataset = new Dataset();
+    dataset.readFromPathPairs(pathPairs);
+    List<String> descriptions = new ArrayList<>();
+    for (String group : dataset.groups())
+      for (Example ex : dataset.examples(group))
+        descriptions.add(group + " " + ex.id + " " + ex.utterance + " " +
+            Json.writeValueAsStringHard(ex.languageInfo) + " " + ex.targetValue);
+    return descriptions;
+  }
+
+  private static void checkSameAsSerial(List<Pair<String, String>> pathPairs, int numExamples) {
+    List<String> serial = read(pathPairs, 1);
+    assertEquals(numExamples, serial.size());
+    for (int numThreads : new int[] {2, 4}) {
+      for (int batchSize : new int[] {1, 3, 100}) {
+        Dataset.opts.preprocessBatchSize = batchSize;
+        assertEquals(serial, read(pathPairs, numThreads));
+      }
+    }
+  }
+
+  private interface Check {
+    void run() throws IOException;
+  }
+
+  private static void withOptions(Check check) throws IOException {
+    LanguageAnalyzer oldAnalyzer = LanguageAnalyzer.setSingleton(new SlowAnalyzer());
+    int oldNumPreprocessThreads = Dataset.opts.numPreprocessThreads;
+    int oldPreprocessBatchSize = Dataset.opts.preprocessBatchSize;
+    int oldMaxTokens = Dataset.opts.maxTokens;
+    ArrayList<Pair<String, Integer>> oldMaxExamples = Dataset.opts.maxExamples;
+    try {
+      check.run();
+    } finally {
+      LanguageAnalyzer.setSingleton(oldAnalyzer);
+      Dataset.opts.numPreprocessThreads = oldNumPreprocessThreads;
+      Dataset.opts.preprocessBatchSize = oldPreprocessBatchSize;
+      Dataset.opts.maxTokens = oldMaxTokens;
+      Dataset.opts.maxExamples = oldMaxExamples;
+    }
+  }
+
+  @Test public void parallelJsonMatchesSerial() throws IOException {
+    withOptions(() -> {
+      List<Pair<String, String>> pathPairs = new ArrayList<>();
+      pathPairs.add(Pair.newPair("dev", writeJson("dev", createUtterances(20))));
+      pathPairs.add(Pair.newPair("test", writeJson("test", createUtterances(7))));
+      checkSameAsSerial(pathPairs, 27);
+    });
+  }
+
+  @Test public void parallelLispTreeMatchesSerial() throws IOException {
+    withOptions(() -> {
+      List<Pair<String, String>> pathPairs = new ArrayList<>();
+      pathPairs.add(Pair.newPair("dev", writeLispTree("dev", createUtterances(20))));
+      checkSameAsSerial(pathPairs, 20);
+    });
+  }
+
+  // Long examples are skipped and maxExamples counts the kept examples only
+  @Test public void parallelFilteringMatchesSerial() throws IOException {
+    withOptions(() -> {
+      List<String> utterances = createUtterances(40);
+      int numShort = 0;
+      for (String utterance : utterances)
+        if (utterance.split(" ").length <= 4) numShort++;
+      Dataset.opts.maxTokens = 4;
+      Dataset.opts.maxExamples = new ArrayList<>();
+      Dataset.opts.maxExamples.add(Pair.newPair("dev", numShort - 2));
+      List<Pair<String, String>> pathPairs = new ArrayList<>();
+      pathPairs.add(Pair.newPair("dev", writeJson("dev", utterances)));
+      checkSameAsSerial(pathPairs, numShort - 2);
+    });
+  }
+}
@@ -1,10 +1,27 @@
 package edu.stanford.nlp.sempre.test;
 
 import edu.stanford.nlp.sempre.Formula;
+import edu.stanford.nlp.sempre.FormulaInterner;
+import edu.stanford.nlp.sempre.FormulaReader;
 import edu.stanford.nlp.sempre.Formulas;
+import edu.stanford.nlp.sempre.JoinFormula;
+import edu.stanford.nlp.sempre.NotFormula;
+import edu.stanford.nlp.sempre.Value;
+import edu.stanford.nlp.sempre.Values;
+import fig.basic.LispTree;
 import org.testng.annotations.Test;
 
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
 
 /**
  * Test Formulas.
@@ -26,4 +43,75 @@ public class FormulaTest {
     assertEquals(F("((lambda x (f (var x))) a)"),
                  Formulas.substituteVar(F("((lambda x (f (var x))) (var y))"), "y", F("a")));
   }
+
+  @Test
+  public void internFormula() {
+    Formula a = FormulaInterner.intern(F("(and (f a) (!g (h b)))"));
+    Formula b = FormulaInterner.intern(F("(and (f a) (!g (h b)))"));
+    Formula c = FormulaInterner.intern(F("(and (f a) (!g (h c)))"));
+    assertTrue(a.isInterned());
+    assertSame(a, b);
+    assertFalse(a.equals(c));
+    assertEquals(F("(and (f a) (!g (h c)))"), c);
+    // Sub-formulas are shared
+    assertSame(((JoinFormula) FormulaInterner.intern(F("(!g (h b))"))).child, FormulaInterner.intern(F("(h b)")));
+  }
+
+  @Test
+  public void internFormulaConcurrently() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<Formula>>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(executor.submit(() -> {
+          List<Formula> interned = new ArrayList<>();
+          for (int i = 0; i < 200; i++)
+            interned.add(FormulaInterner.intern(F("(and (f a" + i + ") (!g (h b" + (i % 10) + ")))")));
+          return interned;
+        }));
+      }
+      List<Formula> first = futures.get(0).get();
+      for (Future<List<Formula>> future : futures) {
+        List<Formula> interned = future.get();
+        for (int i = 0; i < interned.size(); i++)
+          assertSame(first.get(i), interned.get(i));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void readFormula() {
+    String[] formulas = {
+        "fb:en.barack_obama",
+        "(number 3)", "(number 2.5 fb:en.meter)", "(string \"a (b) \\\"c\\\"\")", "(name fb:en.x \"X Y\")", "(boolean true)",
+        "(date 2012 1 -1)", "(list (name a) (number 1))",
+        "((lambda x (f (var x))) a)", "(mark x (and (f (var x)) (g (var x))))", "(not (f a))",
+        "(reverse (lambda x (f (var x))))", "(call + (number 1) (number 2))",
+        "(count (fb:type.object.type fb:people.person))", "(argmax 1 1 (f a) (reverse g))",
+        "(argmin (var k) 2 (f a) (reverse g))", "(- (!f (var x)) (number 1))",
+        "(or (f a) ((reverse g) (string b)))",
+    };
+    for (String s : formulas)
+      assertEquals(s, Formulas.fromLispTree(LispTree.proto.parseFromString(s)), FormulaReader.parseFormula(s));
+    for (String s : new String[] {"(number 3)", "(name fb:en.x)", "(string \"x\")", "(list (name a) (boolean false))"}) {
+      Value value = FormulaReader.parseValue(s);
+      assertEquals(s, Values.fromLispTree(LispTree.proto.parseFromString(s)), value);
+    }
+
+    // Several expressions from a Reader, with comments
+    FormulaReader reader = new FormulaReader(new StringReader("# comment\n(f a)\n\n(g (number 1)) # another\n"));
+    assertTrue(reader.hasNext());
+    assertEquals(F("(f a)"), reader.readFormula());
+    assertEquals(F("(g (number 1))"), reader.readFormula());
+    assertFalse(reader.hasNext());
+
+    // Deep nesting
+    StringBuilder deep = new StringBuilder("a");
+    for (int i = 0; i < 100000; i++) deep.insert(0, "(not ").append(')');
+    Formula formula = FormulaReader.parseFormula(deep.toString());
+    for (int i = 0; i < 100000; i++) formula = ((NotFormula) formula).child;
+    assertEquals(F("a"), formula);
+  }
 }
@@ -4,6 +4,12 @@ import edu.stanford.nlp.sempre.*;
 import fig.basic.LogInfo;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.testng.AssertJUnit.assertEquals;
+
 /**
  * Test JSON serialization and deserialization.
  */
@@ -70,4 +76,54 @@ public class JsonTest {
     assert there.equals(thereAgain);
     assert exampleEquals(ex, back);
   }
+
+  @Test
+  public void testStreamingDataset() throws IOException {
+    List<Example> examples = new ArrayList<>();
+    for (int i = 0; i < 5; i++)
+      examples.add(new Example.Builder()
+          .setId(i == 2 ? null : "ex" + i)
+          .setUtterance("example " + i)
+          .setTargetValue(new NumberValue(i))
+          .createExample());
+    File file = File.createTempFile("examples", ".json");
+    file.deleteOnExit();
+    ExampleUtils.writeJson(examples.subList(0, 3), file.getPath());
+    Dataset.appendExampleToFile(file.getPath(), examples.get(3));
+    Dataset.appendExampleToFile(file.getPath(), examples.get(4));
+
+    for (int lookahead : new int[] {0, 2}) {
+      StreamingExampleList streamed = new StreamingExampleList(Collections.singletonList(file.getPath()), 4, lookahead);
+      assertEquals(4, streamed.size());
+      int i = 0;
+      for (Example ex : streamed) {
+        assertEquals(i == 2 ? file.getPath() + ":2" : "ex" + i, ex.id);
+        assertEquals(examples.get(i).utterance, ex.utterance);
+        assertEquals(examples.get(i).targetValue, ex.targetValue);
+        assert ex.languageInfo != null;
+        i++;
+      }
+      assertEquals(4, i);
+      assertEquals("example 3", streamed.get(3).utterance);
+      assertEquals("example 1", streamed.get(1).utterance);
+    }
+  }
+
+  @Test
+  public void testStreamValue() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("candidates", Arrays.asList("a", 1, 2.5));
+    map.put("value", new NumberValue(3));
+    java.io.StringWriter w = new java.io.StringWriter();
+    Json.streamValueHard(w, map);
+    w.write("\n");  // The writer is still open
+    Json.streamValueHard(w, map);
+    assertEquals(S(map) + "\n" + S(map), w.toString());
+    // Cached readers and writers give the same results
+    Example ex = new Example.Builder().setId("id").setUtterance("a b").createExample();
+    for (int i = 0; i < 2; i++) {
+      assertEquals(S(ex), S(D(S(ex), Example.class)));
+      assertEquals(S(ex), S(D(S(ex), Example.class, Object.class)));
+    }
+  }
 }
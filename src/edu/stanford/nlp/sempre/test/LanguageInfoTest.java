@@ -0,0 +1,90 @@
+package edu.stanford.nlp.sempre.test;
+
+import edu.stanford.nlp.sempre.*;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * Test that the span strings of LanguageInfo (phrase, lemmaPhrase, posSeq, ...) are the
+ * tokens or tags joined with spaces.
+ */
+public class LanguageInfoTest {
+  private static final String[] POS_TAGS = {"NN", "NNS", "NNP", "VBD", "VBZ", "JJ", "IN", "CD"};
+  private static final String[] NER_TAGS = {"O", "DATE", "NUMBER", "LOCATION"};
+
+  // Join items[start, end) with spaces, one span at a time
+  private static String join(List<String> items, int start, int end) {
+    StringBuilder out = new StringBuilder();
+    for (int i = start; i < end; i++) {
+      if (out.length() > 0) out.append(' ');
+      out.append(items.get(i));
+    }
+    return out.toString();
+  }
+
+  private static LanguageInfo createLanguageInfo(Random random, int numTokens) {
+    LanguageInfo languageInfo = new LanguageInfo();
+    for (int i = 0; i < numTokens; i++)
+      addToken(random, languageInfo);
+    return languageInfo;
+  }
+
+  private static void addToken(Random random, LanguageInfo languageInfo) {
+    String token = "w" + random.nextInt(5);
+    languageInfo.tokens.add(random.nextBoolean() ? token : token.toUpperCase());
+    languageInfo.lemmaTokens.add(token);
+    languageInfo.posTags.add(POS_TAGS[random.nextInt(POS_TAGS.length)]);
+    languageInfo.nerTags.add(NER_TAGS[random.nextInt(NER_TAGS.length)]);
+    languageInfo.nerValues.add(null);
+  }
+
+  private static void checkSpans(LanguageInfo languageInfo) {
+    List<String> canonicalPosTags = new ArrayList<>();
+    for (String posTag : languageInfo.posTags)
+      canonicalPosTags.add(LanguageInfo.LanguageUtils.getCanonicalPos(posTag));
+    int n = languageInfo.numTokens();
+    for (int start = 0; start < n; start++) {
+      for (int end = start + 1; end <= n; end++) {
+        assertEquals(join(languageInfo.tokens, start, end), languageInfo.phrase(start, end));
+        assertEquals(join(languageInfo.lemmaTokens, start, end), languageInfo.lemmaPhrase(start, end));
+        assertEquals(join(languageInfo.posTags, start, end), languageInfo.posSeq(start, end));
+        assertEquals(join(canonicalPosTags, start, end), languageInfo.canonicalPosSeq(start, end));
+        assertEquals(join(languageInfo.nerTags, start, end), languageInfo.nerSeq(start, end));
+        assertEquals(languageInfo.phrase(start, end), languageInfo.getPhraseTable()[start][end]);
+        assertEquals(languageInfo.lemmaPhrase(start, end), languageInfo.getLemmaPhraseTable()[start][end]);
+      }
+    }
+  }
+
+  @Test public void spansMatchJoinedTokens() {
+    Random random = new Random(1);
+    for (int numTokens = 0; numTokens <= 12; numTokens++)
+      checkSpans(createLanguageInfo(random, numTokens));
+  }
+
+  @Test public void spansAfterClearing() {
+    Random random = new Random(2);
+    LanguageInfo languageInfo = createLanguageInfo(random, 8);
+    checkSpans(languageInfo);
+    languageInfo.clearSpanTables();
+    checkSpans(languageInfo);
+    // The tables are rebuilt when tokens are added
+    addToken(random, languageInfo);
+    addToken(random, languageInfo);
+    checkSpans(languageInfo);
+  }
+
+  @Test public void spansFromAnalyzer() {
+    LanguageInfo languageInfo = new SimpleAnalyzer().analyze("How many Cities are there in Greece , 2 or 3 ?");
+    checkSpans(languageInfo);
+    assertEquals("cities are there", languageInfo.phrase(2, 5));
+  }
+
+  @Test(expectedExceptions = RuntimeException.class)
+  public void emptySpan() {
+    createLanguageInfo(new Random(3), 4).phrase(2, 2);
+  }
+}
@@ -0,0 +1,122 @@
+package edu.stanford.nlp.sempre.test;
+
+import edu.stanford.nlp.sempre.*;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Test the parse cache of Master (Master.opts.parseCacheSize).
+ */
+public class MasterTest {
+  private static final String UTTERANCE = "2 plus 3";
+
+  // Master whose parser counts the examples it parses
+  private static class CountingMaster {
+    final Builder builder = new Builder();
+    final Master master;
+    final Session session;
+    int numParses = 0;
+
+    CountingMaster() {
+      builder.grammar = TestUtils.makeArithmeticGrammar();
+      builder.executor = new JavaExecutor();
+      builder.buildUnspecified();
+      Parser.Spec spec = new Parser.Spec(builder.grammar, builder.extractor, builder.executor, builder.valueEvaluator);
+      builder.parser = new BeamParser(spec) {
+        @Override public ParserState parse(Params params, Example ex, boolean computeExpectedCounts) {
+          numParses++;
+          return super.parse(params, ex, computeExpectedCounts);
+        }
+      };
+      master = new Master(builder);
+      session = master.getSession("test");
+    }
+
+    Master.Response query(String line) {
+      return master.processQuery(session, line);
+    }
+  }
+
+  private interface Check {
+    void run(CountingMaster m);
+  }
+
+  private static void withParseCache(Check check) {
+    int oldParseCacheSize = Master.opts.parseCacheSize;
+    Master.opts.parseCacheSize = 10;
+    try {
+      check.run(new CountingMaster());
+    } finally {
+      Master.opts.parseCacheSize = oldParseCacheSize;
+    }
+  }
+
+  @Test public void hitOnRepeatedUtterance() {
+    withParseCache(m -> {
+      Master.Response first = m.query(UTTERANCE);
+      Master.Response second = m.query("  2   plus 3 ");
+      assertEquals(1, m.numParses);
+      assertEquals("(number 5)", first.getAnswer());
+      assertEquals(first.getAnswer(), second.getAnswer());
+      m.query("2 times 3");
+      assertEquals(2, m.numParses);
+    });
+  }
+
+  @Test public void missAfterParamsUpdate() {
+    withParseCache(m -> {
+      m.query(UTTERANCE);
+      m.builder.params.update(Collections.singletonMap("f", 1.0));
+      m.query(UTTERANCE);
+      assertEquals(2, m.numParses);
+    });
+  }
+
+  @Test public void missAfterGrammarAddRule() {
+    withParseCache(m -> {
+      m.query(UTTERANCE);
+      m.builder.grammar.addStatement("(rule $Operator (minus) (ConstantFn (lambda y (lambda x (call - (var x) (var y))))))");
+      m.query(UTTERANCE);
+      assertEquals(2, m.numParses);
+    });
+  }
+
+  @Test public void missAfterOnlineLearning() {
+    withParseCache(m -> {
+      FeatureExtractor.opts.featureDomains.add("rule");
+      try {
+        m.query(UTTERANCE);
+        long version = m.builder.params.getVersion();
+        m.query("(accept 0)");
+        assertTrue(m.builder.params.getVersion() != version);
+        m.query(UTTERANCE);
+        assertEquals(2, m.numParses);
+      } finally {
+        FeatureExtractor.opts.featureDomains.remove("rule");
+      }
+    });
+  }
+
+  @Test public void hitReturnsFreshExample() {
+    withParseCache(m -> {
+      Example first = m.query(UTTERANCE).getExample();
+      Example second = m.query(UTTERANCE).getExample();
+      assertEquals(1, m.numParses);
+      assertNotSame(first, second);
+      assertNotSame(first.predDerivations, second.predDerivations);
+      // Modifying the returned example does not change the cached parse
+      int numDerivations = second.predDerivations.size();
+      second.predDerivations.clear();
+      second.setTargetValue(new NumberValue(0));
+      Example third = m.query(UTTERANCE).getExample();
+      assertEquals(1, m.numParses);
+      assertEquals(numDerivations, third.predDerivations.size());
+      assertEquals(null, third.targetValue);
+    });
+  }
+}
@@ -0,0 +1,139 @@
+package edu.stanford.nlp.sempre.test;
+
+import edu.stanford.nlp.sempre.*;
+import fig.basic.Pair;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * Test that training can continue exactly from a checkpoint of the parameters.
+ */
+public class ParamsCheckpointTest {
+  private static Map<String, Double> gradient(int seed) {
+    Random random = new Random(seed);
+    Map<String, Double> gradient = new HashMap<>();
+    for (int i = 0; i < 20; i++)
+      gradient.put("f" + random.nextInt(30), random.nextGaussian());
+    return gradient;
+  }
+
+  private static void checkResume() throws IOException {
+    Params params = new Params();
+    for (int i = 0; i < 10; i++)
+      params.update(gradient(i));
+
+    File file = File.createTempFile("params", ".checkpoint");
+    file.deleteOnExit();
+    ParamsCheckpointer checkpointer = new ParamsCheckpointer(true);
+    checkpointer.saveCheckpoint(file.getPath(), params, 3, "train", 10);
+    checkpointer.close();
+    ParamsCheckpointer.Checkpoint checkpoint = ParamsCheckpointer.loadCheckpoint(file.getPath());
+    assertEquals(3, checkpoint.iter);
+    assertEquals("train", checkpoint.group);
+    assertEquals(10, checkpoint.numExamples);
+
+    Params resumed = new Params();
+    resumed.setState(checkpoint.params);
+    for (int i = 10; i < 20; i++) {
+      params.update(gradient(i));
+      resumed.update(gradient(i));
+    }
+    assertEquals(new TreeMap<>(params.getWeights()), new TreeMap<>(resumed.getWeights()));
+  }
+
+  @Test public void resumeAdaGrad() throws IOException {
+    checkResume();
+  }
+
+  @Test public void resumeLazyL1() throws IOException {
+    String oldL1Reg = Params.opts.l1Reg;
+    double oldL1RegCoeff = Params.opts.l1RegCoeff;
+    Params.opts.l1Reg = "lazy";
+    Params.opts.l1RegCoeff = 0.01;
+    try {
+      checkResume();
+    } finally {
+      Params.opts.l1Reg = oldL1Reg;
+      Params.opts.l1RegCoeff = oldL1RegCoeff;
+    }
+  }
+
+  @Test public void saveText() throws IOException {
+    Params params = new Params();
+    params.update(gradient(0));
+    File file = File.createTempFile("params", ".txt");
+    file.deleteOnExit();
+    ParamsCheckpointer checkpointer = new ParamsCheckpointer(true);
+    checkpointer.saveText(file.getPath(), params, null);
+    checkpointer.close();
+    StringWriter expected = new StringWriter();
+    PrintWriter out = new PrintWriter(expected);
+    params.write(out);
+    out.flush();
+    // Same lines (features with equal weights can come in a different order)
+    assertEquals(new TreeSet<>(Arrays.asList(expected.toString().split("\n"))),
+        new TreeSet<>(Files.readAllLines(file.toPath())));
+  }
+
+  @Test(expectedExceptions = RuntimeException.class)
+  public void flushRethrowsFailure() throws IOException {
+    File dir = Files.createTempDirectory("params").toFile();
+    dir.delete();   // Writing to the missing directory fails
+    ParamsCheckpointer checkpointer = new ParamsCheckpointer(true);
+    checkpointer.saveCheckpoint(new File(dir, "params.checkpoint").getPath(), new Params(), 0, "train", 0);
+    checkpointer.flush();
+  }
+
+  private static void writeExamples(List<Pair<String, String>> pathPairs, String group, int numExamples)
+      throws IOException {
+    File file = File.createTempFile(group, ".json");
+    file.deleteOnExit();
+    List<Example> examples = new ArrayList<>();
+    for (int i = 0; i < numExamples; i++)
+      examples.add(new Example.Builder().setId(group + i).setUtterance(i + " plus 1")
+          .setTargetValue(new NumberValue(i + 1)).createExample());
+    ExampleUtils.writeJson(examples, file.getPath());
+    pathPairs.add(Pair.newPair(group, file.getPath()));
+  }
+
+  // Learner should skip the iterations, groups, and examples processed before the checkpoint
+  @Test public void resumeSkipsProcessedExamples() throws IOException {
+    List<Pair<String, String>> pathPairs = new ArrayList<>();
+    writeExamples(pathPairs, "dev", 4);
+    writeExamples(pathPairs, "test", 3);
+    Dataset dataset = new Dataset();
+    dataset.readFromPathPairs(pathPairs);
+
+    Executor executor = new JavaExecutor();
+    Parser.Spec spec = new Parser.Spec(TestUtils.makeArithmeticGrammar(), new FeatureExtractor(executor),
+        executor, new ExactValueEvaluator());
+    final List<String> parsed = new ArrayList<>();
+    Parser parser = new BeamParser(spec) {
+      @Override public ParserState parse(Params params, Example ex, boolean computeExpectedCounts) {
+        parsed.add(ex.id);
+        return super.parse(params, ex, computeExpectedCounts);
+      }
+    };
+
+    File file = File.createTempFile("params", ".checkpoint");
+    file.deleteOnExit();
+    ParamsCheckpointer checkpointer = new ParamsCheckpointer(false);
+    checkpointer.saveCheckpoint(file.getPath(), new Params(), 1, "test", 1);
+    checkpointer.close();
+
+    String oldResumeFrom = Learner.opts.resumeFrom;
+    Learner.opts.resumeFrom = file.getPath();
+    try {
+      new Learner(parser, new Params(), dataset).learn(2, new HashMap<>());
+    } finally {
+      Learner.opts.resumeFrom = oldResumeFrom;
+    }
+    // Iteration 0 and the dev group of iteration 1 are skipped; test of iteration 1 starts at test1
+    assertEquals(Arrays.asList("test1", "test2", "dev0", "dev1", "dev2", "dev3", "test0", "test1", "test2"), parsed);
+  }
+}
@@ -2,12 +2,21 @@ package edu.stanford.nlp.sempre.test;
 
 import edu.stanford.nlp.sempre.*;
 import fig.basic.LogInfo;
+import fig.basic.Pair;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
 
 /**
  * Test parsers.
@@ -98,6 +107,153 @@ public class ParserTest {
     p.test(new BeamParser(p.getParserSpec()));
   }
 
+  @Test public void checkCubePruningNumDerivations() {
+    Parser.opts.coarsePrune = false;
+    BeamParser.opts.cubePruning = true;
+    try {
+      ParseTest p;
+      p = ABCTest();
+      p.test(new BeamParser(p.getParserSpec()));
+      p = ArithmeticTest();
+      p.test(new BeamParser(p.getParserSpec()));
+      checkRankingArithmetic(new BeamParser(ArithmeticTest().getParserSpec()));
+    } finally {
+      BeamParser.opts.cubePruning = false;
+    }
+  }
+
+  // With a small beam, cube pruning should featurize fewer derivations than the exhaustive search,
+  // but still find the best derivation (the scores only depend on the rules, so the bound is exact).
+  @Test public void checkCubePruningAgainstExhaustive() {
+    Parser.opts.coarsePrune = false;
+    int oldBeamSize = Parser.opts.beamSize;
+    double oldSlack = BeamParser.opts.cubePruningSlack;
+    Params params = new Params();
+    Map<String, Double> features = new HashMap<>();
+    features.put("rule :: $Operator -> and (ConstantFn (lambda y (lambda x (call + (var x) (var y)))))", 1.0);
+    features.put("rule :: $Operator -> and (ConstantFn (lambda y (lambda x (call * (var x) (var y)))))", -1.0);
+    params.update(features);
+    Parser.opts.beamSize = 3;
+    BeamParser.opts.cubePruningSlack = 1;
+    try {
+      List<Integer> numFeaturized = new ArrayList<>();
+      List<String> best = new ArrayList<>();
+      for (boolean cubePruning : new boolean[] {false, true}) {
+        BeamParser.opts.cubePruning = cubePruning;
+        Parser parser = new BeamParser(ArithmeticTest().getParserSpec());
+        Example ex = TestUtils.makeSimpleExample("1 and 2 and 3 and 4 and 5", null);
+        ParserState state = parser.parse(params, ex, false);
+        numFeaturized.add(state.numOfFeaturizedDerivs);
+        Derivation deriv = ex.getPredDerivations().get(0);
+        best.add(deriv.value + " " + deriv.getScore());
+      }
+      assertTrue(numFeaturized.get(1) < numFeaturized.get(0));
+      assertEquals(best.get(0), best.get(1));
+      assertTrue(best.get(0).startsWith("(number 15)"));
+    } finally {
+      Parser.opts.beamSize = oldBeamSize;
+      BeamParser.opts.cubePruningSlack = oldSlack;
+      BeamParser.opts.cubePruning = false;
+    }
+  }
+
+  // Selecting the top derivations of each cell should give the same beams as sorting the whole cell
+  @Test public void checkPartialSortCells() {
+    Parser.opts.coarsePrune = false;
+    int oldBeamSize = Parser.opts.beamSize;
+    Parser.opts.beamSize = 5;
+    try {
+      Parser parser = new BeamParser(ABCTest().getParserSpec());
+      List<String> results = new ArrayList<>();
+      for (boolean partialSortCells : new boolean[] {false, true}) {
+        ParserState.opts.partialSortCells = partialSortCells;
+        Example ex = TestUtils.makeSimpleExample("a b c a b c", null);
+        parser.parse(new Params(), ex, false);
+        StringBuilder sb = new StringBuilder();
+        for (Derivation deriv : ex.getPredDerivations())
+          sb.append(deriv.formula).append(' ').append(deriv.getScore()).append('\n');
+        results.add(sb.toString());
+      }
+      assertEquals(results.get(0), results.get(1));
+    } finally {
+      Parser.opts.beamSize = oldBeamSize;
+      ParserState.opts.partialSortCells = true;
+    }
+  }
+
+  // Compact derivations should keep the scores, features, and expected counts
+  @Test public void checkCompactPredDerivations() {
+    Parser.opts.coarsePrune = false;
+    Parser parser = new BeamParser(ArithmeticTest().getParserSpec());
+    Params params = new Params();
+    Map<String, Double> features = new HashMap<>();
+    features.put("rule :: $Operator -> and (ConstantFn (lambda y (lambda x (call + (var x) (var y)))))", 1.0);
+    params.update(features);
+    List<String> results = new ArrayList<>();
+    try {
+      for (boolean compact : new boolean[] {false, true}) {
+        Parser.opts.compactPredDerivations = compact;
+        Example ex = TestUtils.makeSimpleExample("2 and 3", Value.fromString("(number 5)"));
+        ParserState state = parser.parse(params, ex, true);
+        StringBuilder sb = new StringBuilder();
+        for (Derivation deriv : ex.getPredDerivations()) {
+          if (compact) assertEquals(0, deriv.getChildren().size());
+          sb.append(deriv.formula).append(' ').append(deriv.getScore()).append(' ')
+              .append(new TreeMap<>(deriv.getAllFeatureVector())).append('\n');
+        }
+        sb.append(new TreeMap<>(state.expectedCounts));
+        results.add(sb.toString());
+      }
+      assertEquals(results.get(0), results.get(1));
+    } finally {
+      Parser.opts.compactPredDerivations = false;
+    }
+  }
+
+  // Evaluating a group with several threads should give the same predictions
+  @Test public void checkParallelEvaluation() throws IOException {
+    final Map<String, String> predictions = new ConcurrentHashMap<>();
+    Parser parser = new BeamParser(ArithmeticTest().getParserSpec()) {
+      @Override public ParserState parse(Params params, Example ex, boolean computeExpectedCounts) {
+        ParserState state = super.parse(params, ex, computeExpectedCounts);
+        Derivation deriv = ex.predDerivations.get(0);
+        predictions.put(ex.id, deriv.value + " " + deriv.getScore());
+        return state;
+      }
+    };
+    Params params = new Params();
+    Map<String, Double> features = new HashMap<>();
+    features.put("rule :: $Operator -> and (ConstantFn (lambda y (lambda x (call + (var x) (var y)))))", 1.0);
+    params.update(features);
+    File file = File.createTempFile("examples", ".json");
+    file.deleteOnExit();
+    List<Example> examples = new ArrayList<>();
+    for (int i = 0; i < 20; i++)
+      examples.add(new Example.Builder().setId("ex" + i).setUtterance(i + " and " + (i % 3))
+          .setTargetValue(new NumberValue(i + (i % 3))).createExample());
+    ExampleUtils.writeJson(examples, file.getPath());
+    Dataset dataset = new Dataset();
+    dataset.readFromPathPairs(Collections.singletonList(Pair.newPair("dev", file.getPath())));
+
+    boolean oldCoarsePrune = Parser.opts.coarsePrune;
+    int oldNumThreads = Learner.opts.numParallelThreads;
+    List<Map<String, String>> results = new ArrayList<>();
+    Parser.opts.coarsePrune = false;
+    try {
+      for (int numThreads : new int[] {1, 4}) {
+        Learner.opts.numParallelThreads = numThreads;
+        predictions.clear();
+        new Learner(parser, params, dataset).learn(0, new HashMap<>());
+        results.add(new TreeMap<>(predictions));
+      }
+      assertEquals(20, results.get(1).size());
+      assertEquals(results.get(0), results.get(1));
+    } finally {
+      Parser.opts.coarsePrune = oldCoarsePrune;
+      Learner.opts.numParallelThreads = oldNumThreads;
+    }
+  }
+
   @Test(groups = "reinforcement") public void checkReinforcementNumDerivations() {
     ParseTest p;
     p = ABCTest();
@@ -0,0 +1,127 @@
+package edu.stanford.nlp.sempre.test;
+
+import edu.stanford.nlp.sempre.*;
+import edu.stanford.nlp.sempre.tables.*;
+import edu.stanford.nlp.sempre.tables.features.*;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Test that PhraseIndex matches phrases and predicates like direct string comparison,
+ * and that PhrasePredicateFeatureComputer defines the same features with and without the index.
+ */
+public class PhraseIndexTest {
+  private static final String[] WORDS = {"a", "b", "ab", "ba", "aba", "bab"};
+
+  private static Example createExample(String utterance, ContextValue context) {
+    Example ex = new Example.Builder().setId("ex").setUtterance(utterance).setContext(context).createExample();
+    ex.preprocess();
+    return ex;
+  }
+
+  private static String randomString(Random random, int maxLength) {
+    StringBuilder sb = new StringBuilder();
+    int length = random.nextInt(maxLength + 1);
+    for (int i = 0; i < length; i++)
+      sb.append("ab ".charAt(random.nextInt(3)));
+    return sb.toString();
+  }
+
+  @Test public void matchRandomPhrases() {
+    Random random = new Random(1);
+    for (int trial = 0; trial < 50; trial++) {
+      List<String> words = new ArrayList<>();
+      for (int i = random.nextInt(8) + 1; i > 0; i--)
+        words.add(WORDS[random.nextInt(WORDS.length)]);
+      List<PhraseInfo> phraseInfos = PhraseInfo.getPhraseInfos(createExample(String.join(" ", words), null));
+      PhraseIndex index = new PhraseIndex(phraseInfos);
+      for (int i = 0; i < 50; i++) {
+        // Either a random string or a (part of a) phrase
+        String predicateString = randomString(random, 10);
+        if (i % 2 == 0) {
+          String phraseString = phraseInfos.get(random.nextInt(phraseInfos.size())).lemmaText;
+          int start = random.nextInt(3) == 0 ? random.nextInt(phraseString.length()) : 0;
+          predicateString = randomString(random, 2) + phraseString.substring(start) + randomString(random, 2);
+        }
+        int[] flags = index.match(predicateString);
+        for (int j = 0; j < phraseInfos.size(); j++)
+          assertEquals(phraseInfos.get(j).lemmaText + " / " + predicateString,
+              PhraseIndex.match(phraseInfos.get(j).lemmaText, predicateString), flags[j]);
+      }
+    }
+  }
+
+  // ============================================================
+  // Features
+  // ============================================================
+
+  private static Derivation createDerivation(String cat, Formula formula, List<Derivation> children) {
+    return new Derivation.Builder().cat(cat).start(-1).end(-1).formula(formula)
+        .children(children).createDerivation();
+  }
+
+  // Derivations (children before parents) joining each column with some cells of the table
+  private static List<Derivation> createDerivations(TableKnowledgeGraph graph) {
+    List<Derivation> derivs = new ArrayList<>();
+    for (int j = 0; j < graph.columns.size(); j++) {
+      TableColumn column = graph.columns.get(j);
+      Derivation relation = createDerivation("$Binary", new ValueFormula<>(column.relationNameValue),
+          Collections.<Derivation>emptyList());
+      derivs.add(relation);
+      for (int i = 0; i < graph.rows.size(); i += 3) {
+        NameValue cellName = graph.rows.get(i).children.get(j).properties.nameValue;
+        Derivation cell = createDerivation("$Entity", new ValueFormula<>(cellName),
+            Collections.<Derivation>emptyList());
+        derivs.add(cell);
+        derivs.add(createDerivation(Rule.rootCat, new JoinFormula(relation.formula, cell.formula),
+            Arrays.asList(relation, cell)));
+      }
+    }
+    return derivs;
+  }
+
+  private static List<Map<String, Double>> extractFeatures(Example ex, List<Derivation> derivs, boolean usePhraseIndex) {
+    PhrasePredicateFeatureComputer.opts.usePhraseIndex = usePhraseIndex;
+    PhrasePredicateFeatureComputer computer = new PhrasePredicateFeatureComputer();
+    List<Map<String, Double>> features = new ArrayList<>();
+    for (Derivation deriv : derivs) {
+      deriv.clearFeatures();
+      computer.extractLocal(ex, deriv);
+      features.add(deriv.getLocalFeatureVector().toMap());
+    }
+    return features;
+  }
+
+  @Test public void sameFeaturesWithoutIndex() {
+    LanguageAnalyzer oldAnalyzer = LanguageAnalyzer.setSingleton(new SimpleAnalyzer());
+    boolean oldUsePhraseIndex = PhrasePredicateFeatureComputer.opts.usePhraseIndex;
+    boolean oldDefineOnPartialDerivs = PhrasePredicateFeatureComputer.opts.defineOnPartialDerivs;
+    FeatureExtractor.opts.featureDomains.add("phrase-predicate");
+    try {
+      TableKnowledgeGraph graph = TableKnowledgeGraph.fromFilename("tables/toy-examples/nikos_machlas.csv");
+      Example ex = createExample("what was the score against luxembourg in the world cup qualifier",
+          new ContextValue(graph));
+      List<Derivation> derivs = createDerivations(graph);
+      for (boolean defineOnPartialDerivs : new boolean[] {true, false}) {
+        PhrasePredicateFeatureComputer.opts.defineOnPartialDerivs = defineOnPartialDerivs;
+        List<Map<String, Double>> withIndex = extractFeatures(ex, derivs, true);
+        List<Map<String, Double>> withoutIndex = extractFeatures(ex, derivs, false);
+        boolean hasMatchFeature = false;
+        for (Map<String, Double> features : withIndex)
+          for (String feature : features.keySet())
+            if (feature.contains("=")) hasMatchFeature = true;
+        assertTrue(hasMatchFeature);
+        assertEquals(withoutIndex, withIndex);
+      }
+    } finally {
+      LanguageAnalyzer.setSingleton(oldAnalyzer);
+      PhrasePredicateFeatureComputer.opts.usePhraseIndex = oldUsePhraseIndex;
+      PhrasePredicateFeatureComputer.opts.defineOnPartialDerivs = oldDefineOnPartialDerivs;
+      FeatureExtractor.opts.featureDomains.remove("phrase-predicate");
+    }
+  }
+}
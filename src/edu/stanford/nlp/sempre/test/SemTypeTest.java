@@ -60,6 +60,23 @@ public class SemTypeTest {
     verifyMeet("(-> (union city country) person)", "(-> city (union person dog))", "(-> city person)");
   }
 
+  @Test public void hierarchyUpdate() {
+    // The hierarchy is global, so use types that no other test uses
+    boolean oldFailOnUnknownTypes = SemTypeHierarchy.opts.failOnUnknownTypes;
+    SemTypeHierarchy.opts.failOnUnknownTypes = false;
+    try {
+      // Memoized meets should not survive changes to the hierarchy
+      verifyMeet("(union test.capital test.village)", "test.city", "(union)");
+      verifyMeet("(union test.capital test.village)", "(union test.city test.river)", "(union)");
+      SemTypeHierarchy.singleton.addEntitySupertypes("test.capital");
+      SemTypeHierarchy.singleton.addSupertype("test.capital", "test.city");
+      verifyMeet("(union test.capital test.village)", "test.city", "test.capital");
+      verifyMeet("(union test.capital test.village)", "(union test.city test.river)", "test.capital");
+    } finally {
+      SemTypeHierarchy.opts.failOnUnknownTypes = oldFailOnUnknownTypes;
+    }
+  }
+
   public static void main(String[] args) {
     new SemTypeTest().simpleSemType();
   }
@@ -0,0 +1,68 @@
+package edu.stanford.nlp.sempre.test;
+
+import edu.stanford.nlp.sempre.tables.TableKnowledgeGraph;
+import edu.stanford.nlp.sempre.tables.alter.AlteredTablesArchive;
+import edu.stanford.nlp.sempre.tables.alter.TableAltererCache;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Test resuming BatchTableAlterer with an archive of altered tables.
+ */
+public class TableAltererCacheTest {
+  private static final String TABLE = "tables/toy-examples/nikos_machlas.csv";
+
+  private static TableAltererCache openCache(String path) {
+    TableAltererCache.opts.alteredTablesArchive = path;
+    return new TableAltererCache();
+  }
+
+  @Test public void resumeInterruptedExample() throws IOException {
+    File file = File.createTempFile("altered", ".archive");
+    file.delete();
+    new File(file.getPath() + ".index").deleteOnExit();
+    file.deleteOnExit();
+    TableKnowledgeGraph graph = TableKnowledgeGraph.fromFilename(TABLE);
+    List<TableKnowledgeGraph> graphs = Arrays.asList(graph, graph, graph);
+    String oldArchive = TableAltererCache.opts.alteredTablesArchive;
+    try {
+      // Interrupted after the first table of nt-1
+      TableAltererCache cache = openCache(file.getPath());
+      cache.dump(graphs, "nt-0");
+      cache.dump(graph, "nt-1", 0);
+      cache.close();
+
+      // nt-1 must be dumped again
+      cache = openCache(file.getPath());
+      assertTrue(cache.existsSaveDir("nt-0"));
+      assertFalse(cache.existsSaveDir("nt-1"));
+      assertNotNull(cache.load("nt-1", 0));
+      cache.dump(graphs, "nt-1");
+      cache.close();
+
+      cache = openCache(file.getPath());
+      assertTrue(cache.existsSaveDir("nt-1"));
+      for (int i = 0; i < graphs.size(); i++)
+        assertEquals(graph.numRows(), cache.load("nt-1", i).numRows());
+      cache.close();
+
+      // A partially written index line is ignored
+      try (PrintWriter out = new PrintWriter(new FileWriter(file.getPath() + ".index", true))) {
+        out.print("nt-2\t0\t12");
+      }
+      AlteredTablesArchive archive = new AlteredTablesArchive(file.getPath());
+      assertFalse(archive.contains("nt-2", "0"));
+      assertTrue(archive.contains("nt-1"));
+      archive.close();
+    } finally {
+      TableAltererCache.opts.alteredTablesArchive = oldArchive;
+    }
+  }
+}
@@ -2,6 +2,8 @@ package edu.stanford.nlp.sempre.test;
 
 import static org.testng.AssertJUnit.assertEquals;
 
+import java.util.*;
+
 import org.testng.annotations.Test;
 
 import edu.stanford.nlp.sempre.*;
@@ -39,6 +41,8 @@ public class TypeInferenceTest {
           return T("(-> fb:location.location fb:people.person)");
         case "fb:people.person.profession":
           return T("(-> fb:people.profession fb:people.person)");
+        case "test.infer.mayor":
+          return T("(-> test.infer.city fb:people.person)");
         default:
           return null;
       }
@@ -111,6 +115,73 @@ public class TypeInferenceTest {
     check("(lambda x (call .length (var x)))", "(-> fb:type.text fb:type.int)");
   }
 
+  // Formulas with subformulas that are inferred against the memoized bounds
+  // (aggregates, merges, superlatives, and arithmetic)
+  private static final String[] MEMO_FORMULAS = {
+    "(fb:people.person.place_of_birth fb:en.seattle)",
+    "(and (fb:type.object.type fb:common.topic) (fb:people.person.place_of_birth fb:en.seattle))",
+    "(and (fb:type.object.type fb:location.location) (fb:people.person.place_of_birth fb:en.seattle))",
+    "(count (fb:people.person.place_of_birth fb:en.seattle))",
+    "(count (and (fb:type.object.type fb:common.topic) (fb:people.person.place_of_birth fb:en.seattle)))",
+    "(argmax 1 1 (fb:type.object.type fb:people.person) fb:people.person.date_of_birth)",
+    "(argmax 1 1 (fb:people.person.place_of_birth fb:en.seattle) fb:people.person.date_of_birth)",
+    "(+ (number 3) (count (fb:people.person.place_of_birth fb:en.seattle)))",
+    "(+ (date 1981 1 1) (string 4))",
+    "(lambda x (count (fb:people.person.place_of_birth (var x))))",
+    "(mark x (fb:people.person.parents (var x)))",
+  };
+
+  // Infer with the global type lookup (the memo is only used with the global type lookup)
+  private static List<String> inferAll(String[] formulas, int memoSize) {
+    int oldMemoSize = TypeInference.opts.memoSize;
+    TypeInference.opts.memoSize = memoSize;
+    try {
+      List<String> types = new ArrayList<>();
+      for (String formula : formulas)
+        types.add(TypeInference.inferType(F(formula)).toString());
+      return types;
+    } finally {
+      TypeInference.opts.memoSize = oldMemoSize;
+    }
+  }
+
+  @Test public void memoizedInference() {
+    TypeLookup oldTypeLookup = TypeInference.setTypeLookup(typeLookup);
+    try {
+      List<String> expected = inferAll(MEMO_FORMULAS, 0);
+      // Twice: the second time, everything is in the memo
+      assertEquals(expected, inferAll(MEMO_FORMULAS, 20000));
+      assertEquals(expected, inferAll(MEMO_FORMULAS, 20000));
+      // In the opposite order (parents are inferred before their children)
+      String[] reversed = MEMO_FORMULAS.clone();
+      Collections.reverse(Arrays.asList(reversed));
+      TypeInference.clearMemo();
+      List<String> reversedExpected = new ArrayList<>(expected);
+      Collections.reverse(reversedExpected);
+      assertEquals(reversedExpected, inferAll(reversed, 20000));
+    } finally {
+      TypeInference.setTypeLookup(oldTypeLookup);
+    }
+  }
+
+  @Test public void memoAfterHierarchyUpdate() {
+    // The hierarchy is global, so use types that no other test uses
+    TypeLookup oldTypeLookup = TypeInference.setTypeLookup(typeLookup);
+    boolean oldFailOnUnknownTypes = SemTypeHierarchy.opts.failOnUnknownTypes;
+    SemTypeHierarchy.opts.failOnUnknownTypes = false;
+    try {
+      String[] formulas = {"(test.infer.mayor (fb:type.object.type test.infer.capital))"};
+      assertEquals(Collections.singletonList("(union)"), inferAll(formulas, 20000));
+      SemTypeHierarchy.singleton.addEntitySupertypes("test.infer.capital");
+      SemTypeHierarchy.singleton.addSupertype("test.infer.capital", "test.infer.city");
+      assertEquals(Collections.singletonList("fb:people.person"), inferAll(formulas, 0));
+      assertEquals(inferAll(formulas, 0), inferAll(formulas, 20000));
+    } finally {
+      SemTypeHierarchy.opts.failOnUnknownTypes = oldFailOnUnknownTypes;
+      TypeInference.setTypeLookup(oldTypeLookup);
+    }
+  }
+
   public static void main(String[] args) {
     new TypeInferenceTest().simpleSemType();
   }